@@ -0,0 +1,109 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package benfowler.toytown.lispy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Setting up a global environment, and calling the list builtins on a list
+ * of a given length.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BuiltinsBenchmark {
+
+	@Param({"10", "1000"})
+	public int length;
+
+	private Session session;
+
+	private Object cons;
+	private Object car;
+	private Object cdr;
+	private Object append;
+	private Object list;
+	private Object listLength;
+
+	@Setup
+	public void define() throws LispException {
+		session = Interpreter.newSession();
+		final StringBuilder elements = new StringBuilder("(define l (quote (");
+		for (int i=0; i<length; ++i) {
+			elements.append(' ').append(i);
+		}
+		session.eval(elements.append(")))").toString());
+
+		cons = Interpreter.parse("(cons 0 l)");
+		car = Interpreter.parse("(car l)");
+		cdr = Interpreter.parse("(cdr l)");
+		append = Interpreter.parse("(append l l)");
+		list = Interpreter.parse("(list 1 2 3 4 5 6 7 8)");
+		listLength = Interpreter.parse("(length l)");
+	}
+
+	@Benchmark
+	public Environment globalEnvironment() {
+		return Interpreter.getGlobalEnvironment();
+	}
+
+	@Benchmark
+	public Object cons() {
+		return session.eval(cons);
+	}
+
+	@Benchmark
+	public Object car() {
+		return session.eval(car);
+	}
+
+	@Benchmark
+	public Object cdr() {
+		return session.eval(cdr);
+	}
+
+	@Benchmark
+	public Object append() {
+		return session.eval(append);
+	}
+
+	@Benchmark
+	public Object list() {
+		return session.eval(list);
+	}
+
+	@Benchmark
+	public Object length() {
+		return session.eval(listLength);
+	}
+
+}
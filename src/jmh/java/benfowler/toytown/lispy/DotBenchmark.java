@@ -0,0 +1,90 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package benfowler.toytown.lispy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Calls to Java methods through the dot form, each made from a procedure so
+ * that the call site is reused from one invocation to the next.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DotBenchmark {
+
+	@Param({"TREE_WALKER", "CLOSURE_COMPILER"})
+	public Engine engine;
+
+	private Session session;
+
+	private Object staticCall;
+	private Object instanceCall;
+	private Object varargsCall;
+
+	@Setup
+	public void define() throws LispException {
+		Interpreter.setEngine(engine);
+		BytecodeCompiler.setThreshold(0);
+		session = Interpreter.newSession();
+		final List<Object> list = new ArrayList<Object>();
+		list.add(1L);
+		list.add(2L);
+		session.getEnvironment().put(Symbol.intern("jlist"), list);
+		session.eval("(define max (lambda (a b) (.max java.lang.Math a b)))");
+		session.eval("(define size (lambda (l) (.size l)))");
+		session.eval("(define asList (lambda (a b)"
+				+ " (.asList java.util.Arrays a b)))");
+
+		staticCall = Interpreter.parse("(max 2 3)");
+		instanceCall = Interpreter.parse("(size jlist)");
+		varargsCall = Interpreter.parse("(asList 1 2)");
+	}
+
+	@Benchmark
+	public Object staticCall() {
+		return session.eval(staticCall);
+	}
+
+	@Benchmark
+	public Object instanceCall() {
+		return session.eval(instanceCall);
+	}
+
+	@Benchmark
+	public Object varargsCall() {
+		return session.eval(varargsCall);
+	}
+
+}
@@ -0,0 +1,164 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package benfowler.toytown.lispy;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Whole programs, under each engine, with and without compilation to
+ * bytecode.  The procedures are defined once per trial, in a session of
+ * their own, so only the calls are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EvalBenchmark {
+
+	private static final String FIB =
+		"(define fib (lambda (n)" +
+		"  (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2))))))";
+
+	private static final String TAK =
+		"(define tak (lambda (x y z)" +
+		"  (if (not (< y x))" +
+		"    z" +
+		"    (tak (tak (- x 1) y z) (tak (- y 1) z x) (tak (- z 1) x y)))))";
+
+	private static final String FILTER =
+		"(define filter (lambda (predicate argument)" +
+		"  (if (null? argument)" +
+		"    (quote ())" +
+		"    (if (predicate (car argument))" +
+		"      (cons (car argument) (filter predicate (cdr argument)))" +
+		"      (filter predicate (cdr argument))))))";
+
+	private static final String QUICKSORT =
+		"(begin" +
+		"  (define partition (lambda (op pivot ls)" +
+		"    (filter (lambda (e) (op e pivot)) ls)))" +
+		"  (define quicksort (lambda (ls)" +
+		"    (if (null? ls)" +
+		"      (quote ())" +
+		"      (begin (define pivot (car ls))" +
+		"             (define rest (cdr ls))" +
+		"             (append (quicksort (partition < pivot rest))" +
+		"                     (list pivot)" +
+		"                     (quicksort (partition >= pivot rest))))))))";
+
+	private static final String SIEVE =
+		"(begin" +
+		"  (define seq (lambda (lbound ubound)" +
+		"    (if (> lbound ubound)" +
+		"      (quote ())" +
+		"      (cons lbound (seq (+ lbound 1) ubound)))))" +
+		"  (define notDivisibleBy (lambda (n)" +
+		"    (lambda (x) (> (% x n) 0))))" +
+		"  (define firstGreaterThan (lambda (n argument)" +
+		"    (if (null? argument)" +
+		"      (quote ())" +
+		"      (if (> (car argument) n)" +
+		"        (car argument)" +
+		"        (firstGreaterThan n (cdr argument))))))" +
+		"  (define sieve (lambda (p lst ubound)" +
+		"    (begin" +
+		"      (define newLst (filter (notDivisibleBy p) lst))" +
+		"      (define newP (firstGreaterThan p newLst))" +
+		"      (if (null? newP)" +
+		"        lst" +
+		"        (cons p (sieve newP newLst ubound))))))" +
+		"  (define primes (lambda (ubound)" +
+		"    (sieve 2 (seq 2 ubound) ubound))))";
+
+	/** Length of the list sorted by the quicksort benchmark */
+	private static final int UNSORTED = 200;
+
+	@Param({"TREE_WALKER", "CLOSURE_COMPILER"})
+	public Engine engine;
+
+	/** Calls before a procedure is compiled to bytecode; 0 never compiles */
+	@Param({"0", "1000"})
+	public int jitThreshold;
+
+	private Session session;
+
+	private Object fib;
+	private Object tak;
+	private Object quicksort;
+	private Object sieve;
+
+	@Setup
+	public void define() throws LispException {
+		Interpreter.setEngine(engine);
+		BytecodeCompiler.setThreshold(jitThreshold);
+		session = Interpreter.newSession();
+		session.eval(FIB);
+		session.eval(TAK);
+		session.eval(FILTER);
+		session.eval(QUICKSORT);
+		session.eval(SIEVE);
+
+		final Random random = new Random(42);
+		final StringBuilder unsorted =
+				new StringBuilder("(define unsorted (quote (");
+		for (int i=0; i<UNSORTED; ++i) {
+			unsorted.append(' ').append(random.nextInt(1000));
+		}
+		session.eval(unsorted.append(")))").toString());
+
+		fib = Interpreter.parse("(fib 20)");
+		tak = Interpreter.parse("(tak 18 12 6)");
+		quicksort = Interpreter.parse("(quicksort unsorted)");
+		sieve = Interpreter.parse("(primes 500)");
+	}
+
+	@Benchmark
+	public Object fib() {
+		return session.eval(fib);
+	}
+
+	@Benchmark
+	public Object tak() {
+		return session.eval(tak);
+	}
+
+	@Benchmark
+	public Object quicksort() {
+		return session.eval(quicksort);
+	}
+
+	@Benchmark
+	public Object sieve() {
+		return session.eval(sieve);
+	}
+
+}
@@ -0,0 +1,124 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Call-heavy programs, optimized with and without inlining of small
+ * procedures.  The helper procedures are defined within the procedure
+ * which calls them, as only local procedures are inlined.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InlineBenchmark {
+
+	private static final String SUM_SQUARES =
+		"(define sum-squares (lambda (n)" +
+		"  (begin" +
+		"    (define square (lambda (x) (* x x)))" +
+		"    (define add (lambda (a b) (+ a b)))" +
+		"    (define sub1 (lambda (n) (- n 1)))" +
+		"    (define zero? (lambda (n) (= n 0)))" +
+		"    (define loop (lambda (n acc)" +
+		"      (if (zero? n)" +
+		"        acc" +
+		"        (loop (sub1 n) (add acc (square n))))))" +
+		"    (loop n 0))))";
+
+	private static final String SIEVE =
+		"(define primes (lambda (ubound)" +
+		"  (begin" +
+		"    (define filter (lambda (predicate argument)" +
+		"      (if (null? argument)" +
+		"        (quote ())" +
+		"        (if (predicate (car argument))" +
+		"          (cons (car argument) (filter predicate (cdr argument)))" +
+		"          (filter predicate (cdr argument))))))" +
+		"    (define seq (lambda (lbound ubound)" +
+		"      (if (> lbound ubound)" +
+		"        (quote ())" +
+		"        (cons lbound (seq (+ lbound 1) ubound)))))" +
+		"    (define notDivisibleBy (lambda (n)" +
+		"      (lambda (x) (> (% x n) 0))))" +
+		"    (define firstGreaterThan (lambda (n argument)" +
+		"      (if (null? argument)" +
+		"        (quote ())" +
+		"        (if (> (car argument) n)" +
+		"          (car argument)" +
+		"          (firstGreaterThan n (cdr argument))))))" +
+		"    (define sieve (lambda (p lst)" +
+		"      (begin" +
+		"        (define newLst (filter (notDivisibleBy p) lst))" +
+		"        (define newP (firstGreaterThan p newLst))" +
+		"        (if (null? newP)" +
+		"          lst" +
+		"          (cons p (sieve newP newLst))))))" +
+		"    (sieve 2 (seq 2 ubound)))))";
+
+	@Param({"TREE_WALKER", "CLOSURE_COMPILER"})
+	public Engine engine;
+
+	/** Largest body inlined; 0 turns inlining off */
+	@Param({"0", "24"})
+	public int inlineSize;
+
+	private Session session;
+
+	private Object sumSquares;
+	private Object sieve;
+
+	@Setup
+	public void define() throws LispException {
+		Interpreter.setEngine(engine);
+		Interpreter.setOptimizing(true);
+		Optimizer.setInlineSize(inlineSize);
+		BytecodeCompiler.setThreshold(0);
+		session = Interpreter.newSession();
+		session.eval(SUM_SQUARES);
+		session.eval(SIEVE);
+
+		sumSquares = Interpreter.parse("(sum-squares 1000)");
+		sieve = Interpreter.parse("(primes 500)");
+	}
+
+	@Benchmark
+	public Object sumSquares() {
+		return session.eval(sumSquares);
+	}
+
+	@Benchmark
+	public Object sieve() {
+		return session.eval(sieve);
+	}
+
+}
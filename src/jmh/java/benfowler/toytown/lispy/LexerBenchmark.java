@@ -0,0 +1,77 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package benfowler.toytown.lispy;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Scanning and parsing a generated program, from a few kilobytes up to
+ * several megabytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LexerBenchmark {
+
+	@Param({"100", "40000"})
+	public int definitions;
+
+	private String program;
+
+	@Setup
+	public void generateProgram() {
+		final StringBuilder builder = new StringBuilder();
+		builder.append("(begin\n");
+		for (int i=0; i<definitions; ++i) {
+			builder.append("  (define rule").append(i)
+				.append(" (lambda (n acc)\n")
+				.append("    (if (<= n ").append(i % 100).append(".5e1)\n")
+				.append("      acc\n")
+				.append("      (rule").append(i)
+				.append(" (- n 1) (* acc #t -3.25)))))\n");
+		}
+		builder.append(")");
+		program = builder.toString();
+	}
+
+	@Benchmark
+	public List<Object> tokenize() {
+		return Lexer.tokenize(program);
+	}
+
+	@Benchmark
+	public Object parse() {
+		return Interpreter.parse(program);
+	}
+
+}
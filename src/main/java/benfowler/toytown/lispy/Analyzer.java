@@ -0,0 +1,482 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import java.util.List;
+
+/**
+ * Turns a resolved form into a tree of executable {@link Node}s, one per
+ * special form, call, constant and variable reference.  The shape of each
+ * form is checked once, here, rather than on every evaluation.
+ *
+ * Calls in tail position within a procedure body return a {@link TailCall}
+ * instead of making the call, leaving it to the caller.
+ */
+final class Analyzer {
+
+	private Analyzer() {
+	}
+
+	/**
+	 * Analyze a top-level form
+	 */
+	static Node analyze(final Object form) {
+		return analyze(form, false);
+	}
+
+	/**
+	 * Analyze the body of a procedure, which is in tail position
+	 */
+	static Node analyzeBody(final Object body) {
+		return analyze(body, true);
+	}
+
+	static Node analyze(final Object form, final boolean tail) {
+		if (form instanceof Number || form instanceof Boolean) {
+			return new ConstantNode(form);
+		} else if (form instanceof LocalRef) {
+			return new LocalRefNode((LocalRef) form);
+		} else if (form instanceof Symbol) {
+			return new GlobalRefNode((Symbol) form);
+		} else if (form instanceof Lambda) {
+			return new LambdaNode((Lambda) form);
+		} else if (form instanceof List) {
+			final List<?> args = (List<?>) form;
+			if (args.size() == 0) {
+				return new ConstantNode(Nil.NIL);
+			}
+
+			if (args.get(0) instanceof Dot) {
+				return dot(args);
+			} else if (args.get(0) instanceof SpecialForm) {
+				final SpecialForm sf = (SpecialForm) args.get(0);
+				switch (sf) {
+				case QUOTE:
+					return quote(args);
+				case IF:
+					return if_(args, tail);
+				case BEGIN:
+					return begin(args, tail);
+				case SET_:
+					return set_(args);
+				case DEFINE:
+					return define(args);
+				default:
+					throw new EvalException(Errors.INTERNAL_ERROR,
+							String.format("Unexpected special form: %s",
+									args.get(0).toString()));
+				}
+			} else {
+				return call(args, tail);
+			}
+		} else {
+			// bad input
+			throw new EvalException(Errors.CANNOT_EVAL,
+					form.getClass().getName(), form.toString());
+		}
+	}
+
+	private static Node[] analyze(final List<?> forms, final int from) {
+		final Node[] result = new Node[forms.size() - from];
+		for (int i=0; i<result.length; ++i) {
+			result[i] = analyze(forms.get(from + i), false);
+		}
+		return result;
+	}
+
+	private static Node dot(final List<?> args) {
+		if (args.size() < 2) {
+			throw new EvalException(Errors.INVALID_NUMBER_OF_ARGUMENTS,
+					2, -1, args.size()-1);
+		}
+		if (!(args.get(1) instanceof Symbol
+				|| args.get(1) instanceof LocalRef)) {
+			throw new EvalException(Errors.INSTANCE_OR_CLASSNAME_EXPECTED,
+					args.get(1));
+		}
+		return new DotNode(((Dot) args.get(0)).getCallSite(), args.get(1),
+				analyze(args, 2));
+	}
+
+	private static Node quote(final List<?> args) {
+		if (args.size() != 2) {
+			throw new EvalException(Errors.INVALID_NUMBER_OF_ARGUMENTS,
+					1, 1, args.size()-1);
+		}
+		return new ConstantNode(args.get(1));
+	}
+
+	private static Node if_(final List<?> args, final boolean tail) {
+		if (args.size() < 3 || args.size() > 4) {
+			throw new EvalException(Errors.INVALID_NUMBER_OF_ARGUMENTS,
+					2, 3, args.size()-1);
+		}
+		return new IfNode(analyze(args.get(1), false),
+				analyze(args.get(2), tail),
+				args.size() == 4 ? analyze(args.get(3), tail) : null);
+	}
+
+	private static Node begin(final List<?> args, final boolean tail) {
+		if (args.size() < 2) {
+			throw new EvalException(Errors.INVALID_NUMBER_OF_ARGUMENTS,
+					1, -1, args.size()-1);
+		}
+		final Node[] body = new Node[args.size() - 1];
+		for (int i=0; i<body.length; ++i) {
+			body[i] = analyze(args.get(i + 1), tail && i == body.length - 1);
+		}
+		return new BeginNode(body);
+	}
+
+	private static Node set_(final List<?> args) {
+		if (args.size() != 3) {
+			throw new EvalException(Errors.INVALID_NUMBER_OF_ARGUMENTS,
+					3, 3, args.size()-1);
+		}
+		if (args.get(1) instanceof LocalRef) {
+			return new SetLocalNode((LocalRef) args.get(1),
+					analyze(args.get(2), false));
+		} else if (args.get(1) instanceof Symbol) {
+			return new SetGlobalNode((Symbol) args.get(1),
+					analyze(args.get(2), false));
+		}
+		throw new EvalException(Errors.SYMBOL_EXPECTED);
+	}
+
+	private static Node define(final List<?> args) {
+		if (args.size() != 3) {
+			throw new EvalException(Errors.INVALID_NUMBER_OF_ARGUMENTS,
+					3, 3, args.size()-1);
+		}
+		if (args.get(1) instanceof LocalRef) {
+			return new DefineLocalNode((LocalRef) args.get(1),
+					analyze(args.get(2), false));
+		} else if (args.get(1) instanceof Symbol) {
+			return new DefineGlobalNode((Symbol) args.get(1),
+					analyze(args.get(2), false));
+		}
+		throw new EvalException(Errors.SYMBOL_EXPECTED);
+	}
+
+	private static Node call(final List<?> args, final boolean tail) {
+		return new CallNode(analyze(args.get(0), false), analyze(args, 1),
+				tail);
+	}
+
+	//
+	// Nodes
+	//
+
+	static final class ConstantNode extends Node {
+
+		private final Object value;
+
+		ConstantNode(final Object value) {
+			this.value = value;
+		}
+
+		@Override
+		public Object execute(final Frame frame) {
+			return value;
+		}
+
+	}
+
+	static final class LocalRefNode extends Node {
+
+		private final LocalRef ref;
+
+		/** Reads the enclosing binding, if the slot is empty */
+		private final Node fallback;
+
+		LocalRefNode(final LocalRef ref) {
+			this.ref = ref;
+			this.fallback = ref.getFallback() != null
+					? analyze(ref.getFallback(), false) : null;
+		}
+
+		@Override
+		public Object execute(final Frame frame) {
+			final Object result = frame.lookup(ref.getDepth(), ref.getSlot());
+			if (result == null) {
+				if (fallback != null) {
+					return fallback.execute(frame);
+				}
+				throw new EvalException(Errors.SYMBOL_NOT_FOUND,
+						ref.toString());
+			}
+			return result;
+		}
+
+	}
+
+	static final class GlobalRefNode extends Node {
+
+		private final GlobalSite site;
+
+		GlobalRefNode(final Symbol name) {
+			this.site = new GlobalSite(name);
+		}
+
+		@Override
+		public Object execute(final Frame frame) {
+			return site.get(frame.getEnvironment());
+		}
+
+	}
+
+	static final class LambdaNode extends Node {
+
+		private final Lambda lambda;
+
+		LambdaNode(final Lambda lambda) {
+			this.lambda = lambda;
+			lambda.getCompiledBody();
+		}
+
+		@Override
+		public Object execute(final Frame frame) {
+			return new Proc(lambda, frame);
+		}
+
+	}
+
+	static final class IfNode extends Node {
+
+		private final Node cond;
+
+		private final Node conseq;
+
+		private final Node alt;
+
+		IfNode(final Node cond, final Node conseq, final Node alt) {
+			this.cond = cond;
+			this.conseq = conseq;
+			this.alt = alt;
+		}
+
+		@Override
+		public Object execute(final Frame frame) {
+			final Object value = cond.execute(frame);
+			if (!(value instanceof Boolean)) {
+				throw new EvalException(Errors.BAD_IF_CONDITION,
+						value.getClass().getName());
+			}
+			if (((Boolean) value).booleanValue()) {
+				return conseq.execute(frame);
+			} else if (alt != null) {
+				return alt.execute(frame);
+			}
+			return null;
+		}
+
+	}
+
+	static final class BeginNode extends Node {
+
+		private final Node[] body;
+
+		BeginNode(final Node[] body) {
+			this.body = body;
+		}
+
+		@Override
+		public Object execute(final Frame frame) {
+			final int last = body.length - 1;
+			for (int i=0; i<last; ++i) {
+				body[i].execute(frame);
+			}
+			return body[last].execute(frame);
+		}
+
+	}
+
+	static final class DefineLocalNode extends Node {
+
+		private final LocalRef ref;
+
+		private final Node value;
+
+		DefineLocalNode(final LocalRef ref, final Node value) {
+			this.ref = ref;
+			this.value = value;
+		}
+
+		@Override
+		public Object execute(final Frame frame) {
+			frame.assign(ref.getDepth(), ref.getSlot(), value.execute(frame));
+			return null;
+		}
+
+	}
+
+	static final class DefineGlobalNode extends Node {
+
+		private final Symbol name;
+
+		private final Node value;
+
+		DefineGlobalNode(final Symbol name, final Node value) {
+			this.name = name;
+			this.value = value;
+		}
+
+		@Override
+		public Object execute(final Frame frame) {
+			frame.getEnvironment().put(name, value.execute(frame));
+			return null;
+		}
+
+	}
+
+	static final class SetLocalNode extends Node {
+
+		private final LocalRef ref;
+
+		private final Node value;
+
+		SetLocalNode(final LocalRef ref, final Node value) {
+			this.ref = ref;
+			this.value = value;
+		}
+
+		@Override
+		public Object execute(final Frame frame) {
+			if (frame.lookup(ref.getDepth(), ref.getSlot()) == null) {
+				throw new EvalException(Errors.SYMBOL_MUST_BE_DEFINED,
+						ref.getName());
+			}
+			frame.assign(ref.getDepth(), ref.getSlot(), value.execute(frame));
+			return null;
+		}
+
+	}
+
+	static final class SetGlobalNode extends Node {
+
+		private final Symbol name;
+
+		private final Node value;
+
+		SetGlobalNode(final Symbol name, final Node value) {
+			this.name = name;
+			this.value = value;
+		}
+
+		@Override
+		public Object execute(final Frame frame) {
+			final Environment env = frame.getEnvironment();
+			if (!env.isBound(name)) {
+				throw new EvalException(Errors.SYMBOL_MUST_BE_DEFINED, name);
+			}
+			env.assign(name, value.execute(frame));
+			return null;
+		}
+
+	}
+
+	static final class CallNode extends Node {
+
+		private final Node fn;
+
+		private final Node[] args;
+
+		private final boolean tail;
+
+		CallNode(final Node fn, final Node[] args, final boolean tail) {
+			this.fn = fn;
+			this.args = args;
+			this.tail = tail;
+		}
+
+		@Override
+		public Object execute(final Frame frame) {
+			final Object head = fn.execute(frame);
+			final Object[] actualArgs = (head instanceof Proc
+					? ((Proc) head).getLambda().newArguments(args.length)
+					: new Object[args.length]);
+			for (int i=0; i<args.length; ++i) {
+				actualArgs[i] = args[i].execute(frame);
+			}
+
+			if (head instanceof Builtin) {
+				return ((Builtin) head).call(actualArgs);
+			} else if (!(head instanceof Proc)) {
+				throw new EvalException(Errors.PROC_EXPECTED);
+			}
+
+			final Proc proc = (Proc) head;
+			proc.invoked();
+			final Frame procFrame = proc.bind(actualArgs, args.length);
+			if (tail) {
+				return new TailCall(proc.getLambda(), procFrame);
+			}
+			return TailCall.run(proc.getLambda(), procFrame);
+		}
+
+	}
+
+	static final class DotNode extends Node {
+
+		private final DotCallSite callSite;
+
+		/** Either a {@link LocalRef} or a {@link Symbol} */
+		private final Object instanceOrClass;
+
+		private final Node instance;
+
+		private final Node[] args;
+
+		DotNode(final DotCallSite callSite, final Object instanceOrClass,
+				final Node[] args) {
+			this.callSite = callSite;
+			this.instanceOrClass = instanceOrClass;
+			this.instance = analyze(instanceOrClass, false);
+			this.args = args;
+		}
+
+		@Override
+		public Object execute(final Frame frame) {
+			final String instanceOrClassName = instanceOrClass.toString();
+
+			Object target = null;
+			Class<?> targetClass = null;
+			if (instanceOrClass instanceof LocalRef || frame.getEnvironment()
+					.isBound((Symbol) instanceOrClass)) {
+				target = instance.execute(frame);
+				targetClass = target.getClass();
+			} else {
+				targetClass = ClassCache.forName(instanceOrClassName);
+			}
+
+			final Object[] argInstances = new Object[args.length];
+			for (int i=0; i<args.length; ++i) {
+				argInstances[i] = args[i].execute(frame);
+			}
+
+			return callSite.invoke(target, targetClass, instanceOrClassName,
+					argInstances);
+		}
+
+	}
+
+}
@@ -0,0 +1,109 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import java.util.List;
+
+/**
+ * Procedure implemented in Java.  The evaluator calls it directly, with an
+ * array of already-evaluated arguments.
+ */
+public abstract class Builtin {
+
+	/** Maximum number of arguments, for builtins taking any number */
+	protected static final int VARIADIC = -1;
+
+	private final String name;
+
+	private final int minArgs;
+
+	private final int maxArgs;
+
+	/**
+	 * @param name name the builtin is bound to
+	 * @param minArgs minimum number of arguments
+	 * @param maxArgs maximum number of arguments, or {@link #VARIADIC}
+	 */
+	protected Builtin(final String name, final int minArgs,
+			final int maxArgs) {
+		this.name = name;
+		this.minArgs = minArgs;
+		this.maxArgs = maxArgs;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Check the number of arguments, and apply the builtin to them
+	 * @param args evaluated arguments
+	 * @return result
+	 */
+	public final Object call(final Object[] args) {
+		if (args.length < minArgs || (maxArgs != VARIADIC
+				&& args.length > maxArgs)) {
+			throw new EvalException(Errors.INVALID_NUMBER_OF_ARGUMENTS,
+					minArgs, maxArgs, args.length);
+		}
+		return apply(args);
+	}
+
+	/**
+	 * @param args evaluated arguments; there are as many as the builtin
+	 * accepts
+	 * @return result
+	 */
+	protected abstract Object apply(Object[] args);
+
+	//
+	// Argument conversions
+	//
+
+	protected Number number(final Object[] args, final int index) {
+		return argument(args, index, Number.class);
+	}
+
+	protected Boolean bool(final Object[] args, final int index) {
+		return argument(args, index, Boolean.class);
+	}
+
+	protected LispList list(final Object[] args, final int index) {
+		return LispList.fromList(argument(args, index, List.class));
+	}
+
+	private <T> T argument(final Object[] args, final int index,
+			final Class<T> type) {
+		final Object arg = args[index];
+		if (!type.isInstance(arg)) {
+			throw new EvalException(Errors.BAD_ARGUMENT_TYPE, name,
+					type.getSimpleName(), arg);
+		}
+		return type.cast(arg);
+	}
+
+	@Override
+	public String toString() {
+		return "#<builtin " + name + ">";
+	}
+
+}
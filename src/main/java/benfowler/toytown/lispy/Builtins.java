@@ -21,118 +21,326 @@
 
 package benfowler.toytown.lispy;
 
-import static benfowler.toytown.lispy.Interpreter.read;
-
-import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 
 public class Builtins {
 
-	private final static String ENV_CLS = Builtins.class.getName();
-
+	/** The builtins, built once and shared by every global environment */
+	private static final Environment BASE = createBaseEnvironment();
 
+	/**
+	 * @return a new, empty, mutable global environment, layered over the
+	 * shared builtins
+	 */
 	static Environment getGlobalEnvironment() {
+		return new Environment(BASE);
+	}
+
+	/** @return the shared, read-only environment holding the builtins */
+	static Environment getBaseEnvironment() {
+		return BASE;
+	}
+
+	private static Environment createBaseEnvironment() {
 		final Environment env= new Environment(null);
-		env.put("+", new Proc(strList("a", "b"), env,
-				read("(.plus "+ ENV_CLS +" a b)")));
-		env.put("-", new Proc(strList("a", "b"), env,
-				read("(.minus "+ ENV_CLS +" a b)")));
-		env.put("*", new Proc(strList("a", "b"), env,
-				read("(.mul "+ ENV_CLS +" a b)")));
-		env.put("/", new Proc(strList("a", "b"), env,
-				read("(.div "+ ENV_CLS +" a b)")));
-		env.put("%", new Proc(strList("a", "b"), env,
-				read("(.mod "+ ENV_CLS +" a b)")));
-		env.put("<", new Proc(strList("a", "b"), env,
-				read("(.lt "+ ENV_CLS +" a b)")));
-		env.put(">", new Proc(strList("a", "b"), env,
-				read("(.gt "+ ENV_CLS +" a b)")));
-		env.put("<=", new Proc(strList("a", "b"), env,
-				read("(.lte "+ ENV_CLS +" a b)")));
-		env.put(">=", new Proc(strList("a", "b"), env,
-				read("(.gte "+ ENV_CLS +" a b)")));
-		env.put("=", new Proc(strList("a", "b"), env,
-				read("(.equal1 "+ ENV_CLS +" a b)")));
-		env.put("equal?", new Proc(strList("a", "b"), env,
-				read("(.equal2 "+ ENV_CLS +" a b)")));
-		env.put("eq?", new Proc(strList("a", "b"), env,
-				read("(.equal3 "+ ENV_CLS +" a b)")));
-		env.put("not", new Proc(strList("a"), env,
-				read("(.not "+ ENV_CLS +" a)")));
-		env.put("length", new Proc(strList("a"), env,
-				read("(.length "+ ENV_CLS +" a)")));
-		env.put("cons", new Proc(strList("a", "b"), env,
-				read("(.cons "+ ENV_CLS +" a b)")));
-		env.put("car", new Proc(strList("a"), env,
-				read("(.car "+ ENV_CLS +" a)")));
-		env.put("cdr", new Proc(strList("a"), env,
-				read("(.cdr "+ ENV_CLS +" a)")));
-		env.put("append", new Proc(strList("a"), env,
-				read("(.append "+ ENV_CLS +" a)"), true));
-		env.put("list", new Proc(strList("a"), env,
-				read("(.list "+ ENV_CLS +" a)"), true));
-		env.put("list?", new Proc(strList("a", "b"), env,
-				read("(.list2 "+ ENV_CLS +" a b)")));
-		env.put("null?", new Proc(strList("a"), env,
-				read("(.null1 "+ ENV_CLS +" a)")));
-		env.put("symbol?", new Proc(strList("a"), env,
-				read("(.symbol "+ ENV_CLS +" a)")));
-		env.put("display", new Proc(strList("a"), env,
-				read("(.display " + ENV_CLS + " a)"), true));
-
-		return env;
+		define(env, new Builtin("+", 0, Builtin.VARIADIC) {
+			@Override
+			protected Object apply(final Object[] args) {
+				Number result = Numbers.valueOf(0);
+				for (int i=0; i<args.length; ++i) {
+					result = plus(result, number(args, i));
+				}
+				return result;
+			}
+		});
+		define(env, new Builtin("-", 1, Builtin.VARIADIC) {
+			@Override
+			protected Object apply(final Object[] args) {
+				if (args.length == 1) {
+					return minus(Numbers.valueOf(0), number(args, 0));
+				}
+				Number result = number(args, 0);
+				for (int i=1; i<args.length; ++i) {
+					result = minus(result, number(args, i));
+				}
+				return result;
+			}
+		});
+		define(env, new Builtin("*", 0, Builtin.VARIADIC) {
+			@Override
+			protected Object apply(final Object[] args) {
+				Number result = Numbers.valueOf(1);
+				for (int i=0; i<args.length; ++i) {
+					result = mul(result, number(args, i));
+				}
+				return result;
+			}
+		});
+		define(env, new Builtin("/", 1, Builtin.VARIADIC) {
+			@Override
+			protected Object apply(final Object[] args) {
+				if (args.length == 1) {
+					return div(Numbers.valueOf(1), number(args, 0));
+				}
+				Number result = number(args, 0);
+				for (int i=1; i<args.length; ++i) {
+					result = div(result, number(args, i));
+				}
+				return result;
+			}
+		});
+		define(env, new Builtin("%", 2, 2) {
+			@Override
+			protected Object apply(final Object[] args) {
+				return mod(number(args, 0), number(args, 1));
+			}
+		});
+		define(env, new Comparison("<") {
+			@Override
+			protected boolean compare(final Number a, final Number b) {
+				return Numbers.lessThan(a, b);
+			}
+		});
+		define(env, new Comparison(">") {
+			@Override
+			protected boolean compare(final Number a, final Number b) {
+				return Numbers.greaterThan(a, b);
+			}
+		});
+		define(env, new Comparison("<=") {
+			@Override
+			protected boolean compare(final Number a, final Number b) {
+				return Numbers.lessOrEqual(a, b);
+			}
+		});
+		define(env, new Comparison(">=") {
+			@Override
+			protected boolean compare(final Number a, final Number b) {
+				return Numbers.greaterOrEqual(a, b);
+			}
+		});
+		define(env, new Comparison("=") {
+			@Override
+			protected boolean compare(final Number a, final Number b) {
+				return Numbers.numericEquals(a, b);
+			}
+		});
+		define(env, new Builtin("equal?", 2, 2) {
+			@Override
+			protected Object apply(final Object[] args) {
+				return equal2(args[0], args[1]);
+			}
+		});
+		define(env, new Builtin("eq?", 2, 2) {
+			@Override
+			protected Object apply(final Object[] args) {
+				return equal3(args[0], args[1]);
+			}
+		});
+		define(env, new Builtin("not", 1, 1) {
+			@Override
+			protected Object apply(final Object[] args) {
+				return not(bool(args, 0));
+			}
+		});
+		define(env, new Builtin("length", 1, 1) {
+			@Override
+			protected Object apply(final Object[] args) {
+				return length(list(args, 0));
+			}
+		});
+		define(env, new Builtin("cons", 2, 2) {
+			@Override
+			protected Object apply(final Object[] args) {
+				return cons(args[0], list(args, 1));
+			}
+		});
+		define(env, new Builtin("car", 1, 1) {
+			@Override
+			protected Object apply(final Object[] args) {
+				return car(list(args, 0));
+			}
+		});
+		define(env, new Builtin("cdr", 1, 1) {
+			@Override
+			protected Object apply(final Object[] args) {
+				return cdr(list(args, 0));
+			}
+		});
+		define(env, new Builtin("append", 0, Builtin.VARIADIC) {
+			@Override
+			protected Object apply(final Object[] args) {
+				for (int i=0; i<args.length; ++i) {
+					list(args, i);
+				}
+				return append(LispList.of(args));
+			}
+		});
+		define(env, new Builtin("list", 0, Builtin.VARIADIC) {
+			@Override
+			protected Object apply(final Object[] args) {
+				return LispList.of(args);
+			}
+		});
+		define(env, new Builtin("list?", 1, 1) {
+			@Override
+			protected Object apply(final Object[] args) {
+				return list2(args[0]);
+			}
+		});
+		define(env, new Builtin("null?", 1, 1) {
+			@Override
+			protected Object apply(final Object[] args) {
+				return null1(args[0]);
+			}
+		});
+		define(env, new Builtin("symbol?", 1, 1) {
+			@Override
+			protected Object apply(final Object[] args) {
+				return symbol(args[0]);
+			}
+		});
+		define(env, new Builtin("pmap", 2, 2) {
+			@Override
+			protected Object apply(final Object[] args) {
+				return Parallel.map(args[0], list(args, 1));
+			}
+		});
+		define(env, new Builtin("pfilter", 2, 2) {
+			@Override
+			protected Object apply(final Object[] args) {
+				return Parallel.filter(args[0], list(args, 1));
+			}
+		});
+		define(env, new Builtin("preduce", 3, 3) {
+			@Override
+			protected Object apply(final Object[] args) {
+				return Parallel.reduce(args[0], args[1], list(args, 2));
+			}
+		});
+		define(env, new Builtin("memoize", 1, 4) {
+			@Override
+			protected Object apply(final Object[] args) {
+				final int size = args.length > 1
+						? size(args, 1) : Memo.DEFAULT_SIZE;
+				final Memo.Eviction eviction = args.length > 2
+						? eviction(args, 2) : Memo.Eviction.LRU;
+				final boolean weak = args.length > 3 && bool(args, 3);
+				return new Memo(args[0], size, eviction, weak);
+			}
+
+			private int size(final Object[] args, final int index) {
+				final Number size = number(args, index);
+				if (!Numbers.isExact(size) || size.longValue() < 1
+						|| size.longValue() > Integer.MAX_VALUE) {
+					throw new EvalException(Errors.BAD_ARGUMENT_TYPE,
+							getName(), "positive integer", size);
+				}
+				return size.intValue();
+			}
+
+			private Memo.Eviction eviction(final Object[] args,
+					final int index) {
+				for (final Memo.Eviction eviction : Memo.Eviction.values()) {
+					if (args[index] == Symbol.intern(
+							eviction.name().toLowerCase())) {
+						return eviction;
+					}
+				}
+				throw new EvalException(Errors.BAD_ARGUMENT_TYPE, getName(),
+						"lru or lfu", args[index]);
+			}
+		});
+		define(env, new Builtin("memo-hit-rate", 1, 1) {
+			@Override
+			protected Object apply(final Object[] args) {
+				if (!(args[0] instanceof Memo)) {
+					throw new EvalException(Errors.BAD_ARGUMENT_TYPE,
+							getName(), "memoized procedure", args[0]);
+				}
+				return ((Memo) args[0]).getHitRate();
+			}
+		});
+		define(env, new Builtin("display", 0, Builtin.VARIADIC) {
+			@Override
+			protected Object apply(final Object[] args) {
+				display(LispList.of(args));
+				return null;
+			}
+		});
+
+		return env.freeze();
+	}
+
+	/**
+	 * Numeric comparison, which holds if it holds for each adjacent pair of
+	 * arguments
+	 */
+	private static abstract class Comparison extends Builtin {
+
+		Comparison(final String name) {
+			super(name, 1, VARIADIC);
+		}
+
+		@Override
+		protected Object apply(final Object[] args) {
+			for (int i=1; i<args.length; ++i) {
+				if (!compare(number(args, i - 1), number(args, i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		protected abstract boolean compare(Number a, Number b);
+
 	}
 
 	//
 	// Builtins exposed to interpreter
 	//
 
-    public static Double plus(final Double a, final Double b) {
-    	return a + b;
+    public static Number plus(final Number a, final Number b) {
+    	return Numbers.add(a, b);
     }
 
-    public static Double minus(final Double a, final Double b) {
-    	return a - b;
+    public static Number minus(final Number a, final Number b) {
+    	return Numbers.subtract(a, b);
     }
 
-    public static Double mul(final Double a, final Double b) {
-    	return a * b;
+    public static Number mul(final Number a, final Number b) {
+    	return Numbers.multiply(a, b);
     }
 
-    public static Double div(final Double a, final Double b) {
-    	return a / b;
+    public static Number div(final Number a, final Number b) {
+    	return Numbers.divide(a, b);
     }
 
-    public static Double mod(final Double a, final Double b) {
-    	return a % b;
+    public static Number mod(final Number a, final Number b) {
+    	return Numbers.remainder(a, b);
     }
 
-    public static Boolean lt(final Double a, final Double b) {
-    	return a < b;
+    public static Boolean lt(final Number a, final Number b) {
+    	return Numbers.lessThan(a, b);
     }
 
-    public static Boolean gt(final Double a, final Double b) {
-    	return a > b;
+    public static Boolean gt(final Number a, final Number b) {
+    	return Numbers.greaterThan(a, b);
     }
 
-    public static Boolean lte(final Double a, final Double b) {
-    	return a <= b;
+    public static Boolean lte(final Number a, final Number b) {
+    	return Numbers.lessOrEqual(a, b);
     }
 
-    public static Boolean gte(final Double a, final Double b) {
-    	return a >= b;
+    public static Boolean gte(final Number a, final Number b) {
+    	return Numbers.greaterOrEqual(a, b);
     }
 
-    public static Boolean equal1(final Double a, final Double b) {
-    	return equalObject(a, b);
+    public static Boolean equal1(final Number a, final Number b) {
+    	return Numbers.numericEquals(a, b);
     }
 
-    public static Boolean equal2(final Double a, final Double b) {
-    	return equalObject(a, b);
-    }
-
-    public static Boolean equal2(final LinkedList<?> a, final LinkedList<?> b) {
+    public static Boolean equal2(final Object a, final Object b) {
     	return equalObject(a, b);
     }
 
@@ -146,7 +354,7 @@ public class Builtins {
 		}
     }
 
-    public static Boolean equal3(final Double a, final Double b) {
+    public static Boolean equal3(final Object a, final Object b) {
     	return a == b;
     }
 
@@ -154,52 +362,39 @@ public class Builtins {
     	return (arg != null ? !arg.booleanValue() : false);
     }
 
-    public static Double length(final LinkedList<?> a) {
-    	return new Double(a.size());
+    public static Long length(final LispList a) {
+    	return Numbers.valueOf(a.size());
     }
 
-    public static LinkedList<Object> cons(final LinkedList<?> a, final LinkedList<?> b) {
-    	final LinkedList<Object> result = new LinkedList<Object>();
-    	result.add(a);
-    	if (b != null) {
-			result.addAll(b);
-		}
-    	return result;
+    public static LispList cons(final Object a, final LispList b) {
+    	return b.cons(a);
     }
 
-    public static LinkedList<Object> cons(final Double a, final LinkedList<?> b) {
-    	final LinkedList<Object> result = new LinkedList<Object>();
-    	result.add(a);
-    	if (b != null) {
-			result.addAll(b);
-		}
-    	return result;
+    public static Object car(final LispList a) {
+    	return (a instanceof Pair ? ((Pair) a).car() : null);
     }
 
-    public static Object car(final LinkedList<?> a) {
-    	return (a != null && a.size() > 0 ? a.getFirst(): null);
+    public static LispList cdr(final LispList a) {
+    	return (a instanceof Pair ? ((Pair) a).cdr() : Nil.NIL);
     }
 
-    public static Object cdr(final LinkedList<Object> a) {
-    	if (a != null && a.size() > 1) {
-    		final LinkedList<Object> result = new LinkedList<Object>(a);
-    		result.removeFirst();
-    		return result;
-    	} else {
-    		return new LinkedList<Object>();
+    public static LispList append(final LispList a) {
+    	// The last list is shared by the result; the others are copied
+    	if (a.isEmpty()) {
+    		return Nil.NIL;
     	}
-    }
-
-    public static LinkedList<Object> append(final LinkedList<?> a) {
-    	final LinkedList<Object> result = new LinkedList<Object>();
-    	for (final Object o : a) {
-    		LinkedList<?> l = (LinkedList<?>) o;
-    		result.addAll(l);
+    	final Object[] lists = a.toArray();
+    	LispList result = LispList.fromList((List<?>) lists[lists.length - 1]);
+    	for (int i=lists.length - 2; i>=0; --i) {
+    		final Object[] elements = ((List<?>) lists[i]).toArray();
+    		for (int j=elements.length - 1; j>=0; --j) {
+    			result = result.cons(elements[j]);
+    		}
     	}
     	return result;
     }
 
-    public static Object list(final LinkedList<?> a) {
+    public static Object list(final LispList a) {
     	// Proc arguments are bound as all-args-into-list, simply return the
     	// list-ified actual arguments
     	return a;
@@ -209,19 +404,15 @@ public class Builtins {
     	return (a instanceof List);
     }
 
-    public static Boolean null1(final LinkedList<?> a) {
-    	return (a == null || a.size() == 0);
-    }
-
-    public static Boolean null1(final Double a) {
-    	return false;
+    public static Boolean null1(final Object a) {
+    	return (a == null || (a instanceof List && ((List<?>) a).isEmpty()));
     }
 
     public static Boolean symbol(final Object a) {
     	return (a instanceof Symbol);
     }
 
-    public static void display(final LinkedList<?> a) {
+    public static void display(final LispList a) {
     	for (final Object o : a) {
     		System.out.println(o);
     	}
@@ -232,8 +423,9 @@ public class Builtins {
     // Static helper methods
     //
 
-    private static List<String> strList(final String... objects) {
-    	return Arrays.asList(objects);
+    private static void define(final Environment env,
+    		final Builtin builtin) {
+    	env.put(Symbol.intern(builtin.getName()), builtin);
     }
 
 }
@@ -0,0 +1,443 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles the body of a {@link Lambda} to a JVM class, so that the JIT can
+ * compile it to machine code like any other Java method.  The generated
+ * class extends {@link Node}, and replaces the lambda's analyzed body once
+ * ready; see {@link Lambda#compileToBytecode()}.
+ * <p>
+ * Constants, variable references, <tt>if</tt>, <tt>begin</tt>,
+ * <tt>define</tt>, <tt>set!</tt>, <tt>lambda</tt> and calls are compiled
+ * directly.  Two-argument calls to the arithmetic and comparison builtins
+ * are made inline, guarded on the name still being bound to the builtin.
+ * Anything else is handed to a node built by the {@link Analyzer}, so any
+ * body can be compiled.
+ * <p>
+ * A procedure is compiled once it has been called as many times as the
+ * threshold, which is taken from the {@value #PROPERTY} system property.
+ * The threshold is 0 by default, so nothing is compiled unless asked for.
+ * Bodies which fail to compile go on being interpreted, and are counted by
+ * {@link #getFailureCount()}.
+ */
+final class BytecodeCompiler {
+
+	/** System property holding the compilation threshold */
+	static final String PROPERTY = "toytown.jit.threshold";
+
+	/** Compilation is off unless a threshold is given */
+	static final int DEFAULT_THRESHOLD = 0;
+
+	private static volatile int threshold =
+			Integer.getInteger(PROPERTY, DEFAULT_THRESHOLD);
+
+	private static final String PACKAGE = "benfowler/toytown/lispy/";
+	private static final String GENERATED_PACKAGE = PACKAGE + "generated/";
+
+	private static final String OBJECT = "java/lang/Object";
+	private static final String NODE = PACKAGE + "Node";
+	private static final String FRAME = PACKAGE + "Frame";
+	private static final String RUNTIME = PACKAGE + "JitRuntime";
+
+	private static final String OBJECT_TYPE = "L" + OBJECT + ";";
+	private static final String FRAME_TYPE = "L" + FRAME + ";";
+	private static final String SYMBOL_TYPE = "L" + PACKAGE + "Symbol;";
+	private static final String SITE_TYPE = "L" + PACKAGE + "GlobalSite;";
+	private static final String LAMBDA_TYPE = "L" + PACKAGE + "Lambda;";
+	private static final String NODE_TYPE = "L" + NODE + ";";
+	private static final String STRING_TYPE = "Ljava/lang/String;";
+	private static final String EXECUTE_TYPE =
+			"(" + FRAME_TYPE + ")" + OBJECT_TYPE;
+
+	/** Local variables of the generated execute method */
+	private static final int THIS = 0;
+	private static final int FRAME_LOCAL = 1;
+	private static final int SLOTS_LOCAL = 2;
+
+	/** Builtins with an inline fast path, and their JitRuntime methods */
+	private static final Map<Symbol, String> INTRINSICS =
+			new HashMap<Symbol, String>();
+
+	static {
+		INTRINSICS.put(Symbol.intern("+"), "add");
+		INTRINSICS.put(Symbol.intern("-"), "subtract");
+		INTRINSICS.put(Symbol.intern("*"), "multiply");
+		INTRINSICS.put(Symbol.intern("<"), "lessThan");
+		INTRINSICS.put(Symbol.intern(">"), "greaterThan");
+		INTRINSICS.put(Symbol.intern("<="), "lessOrEqual");
+		INTRINSICS.put(Symbol.intern(">="), "greaterOrEqual");
+		INTRINSICS.put(Symbol.intern("="), "numericEquals");
+	}
+
+	private static final AtomicInteger CLASS_COUNTER = new AtomicInteger();
+
+	private static final AtomicInteger FAILURES = new AtomicInteger();
+
+	private final ClassFileWriter writer;
+
+	private final ClassFileWriter.Code code;
+
+	/** Objects the generated code refers to, one field apiece */
+	private final List<Object> constants = new ArrayList<Object>();
+	private final List<String> constantTypes = new ArrayList<String>();
+	private final Map<Object, Integer> constantIndex =
+			new IdentityHashMap<Object, Integer>();
+
+	/** One site for each global the generated code refers to */
+	private final Map<Symbol, GlobalSite> sites =
+			new HashMap<Symbol, GlobalSite>();
+
+	private BytecodeCompiler(final String className) {
+		this.writer = new ClassFileWriter(className, NODE);
+		this.code = writer.new Code(3);
+	}
+
+	static int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * @param threshold number of calls after which a procedure is compiled,
+	 * or 0 to never compile
+	 */
+	static void setThreshold(final int threshold) {
+		BytecodeCompiler.threshold = threshold;
+	}
+
+	/**
+	 * @return number of bodies which could not be compiled
+	 */
+	static int getFailureCount() {
+		return FAILURES.get();
+	}
+
+	/**
+	 * @return the compiled body, or null if it could not be compiled, in
+	 * which case the lambda should go on being interpreted
+	 */
+	static Node compile(final Lambda lambda) {
+		final String className = GENERATED_PACKAGE + "Lambda$"
+				+ CLASS_COUNTER.incrementAndGet();
+		try {
+			final BytecodeCompiler compiler = new BytecodeCompiler(className);
+			final byte[] bytes = compiler.generate(lambda.getBody());
+			final Class<?> cls = new Loader().define(
+					className.replace('/', '.'), bytes);
+			return (Node) cls.getConstructor(Object[].class)
+					.newInstance((Object) compiler.constants.toArray());
+		} catch (RuntimeException e) {
+			// Including malformed code, which the interpreter will report
+			return failed();
+		} catch (LinkageError e) {
+			return failed();
+		} catch (ReflectiveOperationException e) {
+			return failed();
+		}
+	}
+
+	private static Node failed() {
+		FAILURES.incrementAndGet();
+		return null;
+	}
+
+	private byte[] generate(final Object body) {
+		// execute(Frame)
+		code.aload(FRAME_LOCAL);
+		code.invokestatic(RUNTIME, "slots",
+				"(" + FRAME_TYPE + ")[" + OBJECT_TYPE);
+		code.astore(SLOTS_LOCAL);
+		compile(body, true);
+		code.op(ClassFileWriter.Code.ARETURN, -1);
+		writer.addMethod(ClassFileWriter.ACC_PUBLIC, "execute", EXECUTE_TYPE,
+				code);
+
+		// Constant fields, and the constructor which fills them in
+		final ClassFileWriter.Code init = writer.new Code(2);
+		init.aload(THIS);
+		init.invokespecial(NODE, "<init>", "()V");
+		for (int i=0; i<constants.size(); ++i) {
+			writer.addField(ClassFileWriter.ACC_PRIVATE
+					| ClassFileWriter.ACC_FINAL, field(i), constantTypes.get(i));
+			init.aload(THIS);
+			init.aload(1);
+			init.iconst(i);
+			init.op(ClassFileWriter.Code.AALOAD, -1);
+			final String type = constantTypes.get(i);
+			if (!type.equals(OBJECT_TYPE)) {
+				init.checkcast(type.substring(1, type.length() - 1));
+			}
+			init.putfield(writer.getClassName(), field(i), type);
+		}
+		init.op(ClassFileWriter.Code.RETURN, 0);
+		writer.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>",
+				"([" + OBJECT_TYPE + ")V", init);
+
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Emit code leaving the value of the form on the stack
+	 */
+	private void compile(final Object form, final boolean tail) {
+		if (form instanceof Boolean) {
+			code.getstatic("java/lang/Boolean",
+					((Boolean) form).booleanValue() ? "TRUE" : "FALSE",
+					"Ljava/lang/Boolean;");
+		} else if (form instanceof Number) {
+			constant(form, OBJECT_TYPE);
+		} else if (form instanceof LocalRef) {
+			localRef((LocalRef) form);
+		} else if (form instanceof Symbol) {
+			code.aload(FRAME_LOCAL);
+			constant(site((Symbol) form), SITE_TYPE);
+			code.invokestatic(RUNTIME, "global",
+					"(" + FRAME_TYPE + SITE_TYPE + ")" + OBJECT_TYPE);
+		} else if (form instanceof Lambda) {
+			constant(form, LAMBDA_TYPE);
+			code.aload(FRAME_LOCAL);
+			code.invokestatic(RUNTIME, "closure",
+					"(" + LAMBDA_TYPE + FRAME_TYPE + ")" + OBJECT_TYPE);
+		} else if (form instanceof List && !((List<?>) form).isEmpty()) {
+			final List<?> args = (List<?>) form;
+			final Object head = args.get(0);
+			if (head == SpecialForm.QUOTE && args.size() == 2) {
+				constant(args.get(1), OBJECT_TYPE);
+			} else if (head == SpecialForm.IF
+					&& (args.size() == 3 || args.size() == 4)) {
+				if_(args, tail);
+			} else if (head == SpecialForm.BEGIN && args.size() >= 2) {
+				begin(args, tail);
+			} else if (head == SpecialForm.DEFINE && args.size() == 3) {
+				define(args);
+			} else if (head == SpecialForm.SET_ && args.size() == 3) {
+				set_(args);
+			} else if (head instanceof SpecialForm || head instanceof Dot) {
+				interpret(form, tail);
+			} else {
+				call(args, tail);
+			}
+		} else {
+			interpret(form, tail);
+		}
+	}
+
+	private void localRef(final LocalRef ref) {
+		if (ref.getDepth() == 0) {
+			code.aload(SLOTS_LOCAL);
+			code.iconst(ref.getSlot());
+			code.op(ClassFileWriter.Code.AALOAD, -1);
+		} else {
+			code.aload(FRAME_LOCAL);
+			code.iconst(ref.getDepth());
+			code.iconst(ref.getSlot());
+			code.invokevirtual(FRAME, "lookup", "(II)" + OBJECT_TYPE);
+		}
+		if (ref.getFallback() != null) {
+			constant(Analyzer.analyze(ref.getFallback(), false), NODE_TYPE);
+			code.aload(FRAME_LOCAL);
+			code.invokestatic(RUNTIME, "local", "(" + OBJECT_TYPE + NODE_TYPE
+					+ FRAME_TYPE + ")" + OBJECT_TYPE);
+			return;
+		}
+		code.ldc(ref.toString());
+		code.invokestatic(RUNTIME, "local",
+				"(" + OBJECT_TYPE + STRING_TYPE + ")" + OBJECT_TYPE);
+	}
+
+	private void if_(final List<?> args, final boolean tail) {
+		final ClassFileWriter.Label alt = code.newLabel();
+		final ClassFileWriter.Label end = code.newLabel();
+
+		compile(args.get(1), false);
+		code.invokestatic(RUNTIME, "test", "(" + OBJECT_TYPE + ")Z");
+		code.jump(ClassFileWriter.Code.IFEQ, alt);
+		final int stack = code.getStack();
+		compile(args.get(2), tail);
+		code.jump(ClassFileWriter.Code.GOTO, end);
+
+		code.mark(alt);
+		code.setStack(stack);
+		if (args.size() == 4) {
+			compile(args.get(3), tail);
+		} else {
+			code.op(ClassFileWriter.Code.ACONST_NULL, 1);
+		}
+		code.mark(end);
+	}
+
+	private void begin(final List<?> args, final boolean tail) {
+		final int last = args.size() - 1;
+		for (int i=1; i<last; ++i) {
+			compile(args.get(i), false);
+			code.op(ClassFileWriter.Code.POP, -1);
+		}
+		compile(args.get(last), tail);
+	}
+
+	private void define(final List<?> args) {
+		final Object target = args.get(1);
+		if (target instanceof LocalRef) {
+			storeLocal((LocalRef) target, args.get(2));
+		} else if (target instanceof Symbol) {
+			code.aload(FRAME_LOCAL);
+			constant(target, SYMBOL_TYPE);
+			compile(args.get(2), false);
+			code.invokestatic(RUNTIME, "defineGlobal", "(" + FRAME_TYPE
+					+ SYMBOL_TYPE + OBJECT_TYPE + ")V");
+		} else {
+			throw new EvalException(Errors.SYMBOL_EXPECTED);
+		}
+		code.op(ClassFileWriter.Code.ACONST_NULL, 1);
+	}
+
+	private void set_(final List<?> args) {
+		final Object target = args.get(1);
+		if (target instanceof LocalRef) {
+			final LocalRef ref = (LocalRef) target;
+			code.aload(FRAME_LOCAL);
+			code.iconst(ref.getDepth());
+			code.iconst(ref.getSlot());
+			code.ldc(ref.getName().toString());
+			code.invokestatic(RUNTIME, "checkLocalDefined",
+					"(" + FRAME_TYPE + "II" + STRING_TYPE + ")V");
+			storeLocal(ref, args.get(2));
+		} else if (target instanceof Symbol) {
+			code.aload(FRAME_LOCAL);
+			constant(target, SYMBOL_TYPE);
+			code.invokestatic(RUNTIME, "checkGlobalDefined",
+					"(" + FRAME_TYPE + SYMBOL_TYPE + ")V");
+			code.aload(FRAME_LOCAL);
+			constant(target, SYMBOL_TYPE);
+			compile(args.get(2), false);
+			code.invokestatic(RUNTIME, "setGlobal", "(" + FRAME_TYPE
+					+ SYMBOL_TYPE + OBJECT_TYPE + ")V");
+		} else {
+			throw new EvalException(Errors.SYMBOL_EXPECTED);
+		}
+		code.op(ClassFileWriter.Code.ACONST_NULL, 1);
+	}
+
+	private void storeLocal(final LocalRef ref, final Object value) {
+		if (ref.getDepth() == 0) {
+			code.aload(SLOTS_LOCAL);
+			code.iconst(ref.getSlot());
+			compile(value, false);
+			code.op(ClassFileWriter.Code.AASTORE, -3);
+		} else {
+			code.aload(FRAME_LOCAL);
+			code.iconst(ref.getDepth());
+			code.iconst(ref.getSlot());
+			compile(value, false);
+			code.invokevirtual(FRAME, "assign", "(II" + OBJECT_TYPE + ")V");
+		}
+	}
+
+	private void call(final List<?> args, final boolean tail) {
+		final int count = args.size() - 1;
+		final String intrinsic = INTRINSICS.get(args.get(0));
+		compile(args.get(0), false);
+		if (intrinsic != null && count == 2) {
+			compile(args.get(1), false);
+			compile(args.get(2), false);
+			code.iconst(tail ? 1 : 0);
+			code.invokestatic(RUNTIME, intrinsic, "(" + OBJECT_TYPE
+					+ OBJECT_TYPE + OBJECT_TYPE + "Z)" + OBJECT_TYPE);
+			return;
+		}
+
+		code.op(ClassFileWriter.Code.DUP, 1);
+		code.iconst(count);
+		code.invokestatic(RUNTIME, "newArguments",
+				"(" + OBJECT_TYPE + "I)[" + OBJECT_TYPE);
+		for (int i=0; i<count; ++i) {
+			code.op(ClassFileWriter.Code.DUP, 1);
+			code.iconst(i);
+			compile(args.get(i + 1), false);
+			code.op(ClassFileWriter.Code.AASTORE, -3);
+		}
+		code.iconst(count);
+		code.invokestatic(RUNTIME, tail ? "tailCall" : "call", "("
+				+ OBJECT_TYPE + "[" + OBJECT_TYPE + "I)" + OBJECT_TYPE);
+	}
+
+	/**
+	 * Emit a call to a node which interprets the form
+	 */
+	private void interpret(final Object form, final boolean tail) {
+		constant(Analyzer.analyze(form, tail), NODE_TYPE);
+		code.aload(FRAME_LOCAL);
+		code.invokevirtual(NODE, "execute", EXECUTE_TYPE);
+	}
+
+	/**
+	 * Emit code loading a constant, held in a field of the generated object
+	 */
+	private void constant(final Object value, final String type) {
+		Integer index = constantIndex.get(value);
+		if (index == null || !constantTypes.get(index).equals(type)) {
+			index = constants.size();
+			constants.add(value);
+			constantTypes.add(type);
+			constantIndex.put(value, index);
+		}
+		code.aload(THIS);
+		code.getfield(writer.getClassName(), field(index), type);
+	}
+
+	private GlobalSite site(final Symbol name) {
+		GlobalSite site = sites.get(name);
+		if (site == null) {
+			site = new GlobalSite(name);
+			sites.put(name, site);
+		}
+		return site;
+	}
+
+	private static String field(final int index) {
+		return "c" + index;
+	}
+
+	/**
+	 * Class loader for generated classes.  Each class gets a loader of its
+	 * own, so that it can be unloaded once its lambda is unreachable.
+	 */
+	private static final class Loader extends ClassLoader {
+
+		Loader() {
+			super(BytecodeCompiler.class.getClassLoader());
+		}
+
+		Class<?> define(final String name, final byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+
+	}
+
+}
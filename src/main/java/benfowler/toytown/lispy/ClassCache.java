@@ -0,0 +1,72 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bounded cache of classes looked up by name for the 'dot' special form,
+ * so that static calls do not go through {@link Class#forName(String)} on
+ * every evaluation.  Lookups take no lock.  Once the cache is full, an
+ * arbitrary class is dropped to make room for each new one; a program
+ * naming more classes than that is rare.  Only successful lookups are
+ * cached.
+ */
+final class ClassCache {
+
+	static final int MAXIMUM_SIZE = 256;
+
+	private static final ConcurrentMap<String, Class<?>> CLASSES =
+			new ConcurrentHashMap<String, Class<?>>();
+
+	private ClassCache() { }
+
+	static Class<?> forName(final String className) {
+		final Class<?> cached = CLASSES.get(className);
+		if (cached != null) {
+			return cached;
+		}
+
+		final Class<?> loaded;
+		try {
+			loaded = Class.forName(className);
+		} catch (ClassNotFoundException e) {
+			throw new EvalException(Errors.INSTANCE_OR_CLASSNAME_NOT_FOUND,
+					className);
+		}
+
+		final Iterator<String> names = CLASSES.keySet().iterator();
+		while (CLASSES.size() >= MAXIMUM_SIZE && names.hasNext()) {
+			names.next();
+			names.remove();
+		}
+		CLASSES.put(className, loaded);
+		return loaded;
+	}
+
+	static int size() {
+		return CLASSES.size();
+	}
+
+}
@@ -0,0 +1,470 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of a JVM class file writer for the {@link BytecodeCompiler}.
+ * Classes are written in version 49 format, which predates stack map
+ * frames, so the code emitted needs no frame computation; the verifier
+ * works the types out for itself.
+ */
+final class ClassFileWriter {
+
+	static final int ACC_PUBLIC = 0x0001;
+	static final int ACC_PRIVATE = 0x0002;
+	static final int ACC_FINAL = 0x0010;
+	static final int ACC_SUPER = 0x0020;
+
+	private static final int CLASS_FILE_MAGIC = 0xCAFEBABE;
+	private static final int CLASS_FILE_VERSION = 49;
+
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_STRING = 8;
+	private static final int CONSTANT_FIELDREF = 9;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	private final String className;
+
+	private final String superName;
+
+	private final ByteArrayOutputStream poolBytes =
+			new ByteArrayOutputStream();
+	private final DataOutputStream pool = new DataOutputStream(poolBytes);
+	private final Map<String, Integer> poolIndex =
+			new HashMap<String, Integer>();
+	private int poolCount = 1;
+
+	private final List<byte[]> fields = new ArrayList<byte[]>();
+
+	private final List<byte[]> methods = new ArrayList<byte[]>();
+
+	/**
+	 * @param className internal name of the class, e.g. <tt>a/b/C</tt>
+	 * @param superName internal name of its superclass
+	 */
+	ClassFileWriter(final String className, final String superName) {
+		this.className = className;
+		this.superName = superName;
+	}
+
+	String getClassName() {
+		return className;
+	}
+
+	void addField(final int access, final String name,
+			final String descriptor) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeShort(access);
+			out.writeShort(utf8(name));
+			out.writeShort(utf8(descriptor));
+			out.writeShort(0);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		fields.add(bytes.toByteArray());
+	}
+
+	void addMethod(final int access, final String name,
+			final String descriptor, final Code code) {
+		final byte[] instructions = code.toByteArray();
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeShort(access);
+			out.writeShort(utf8(name));
+			out.writeShort(utf8(descriptor));
+			out.writeShort(1);
+			out.writeShort(utf8("Code"));
+			out.writeInt(12 + instructions.length);
+			out.writeShort(code.maxStack);
+			out.writeShort(code.maxLocals);
+			out.writeInt(instructions.length);
+			out.write(instructions);
+			out.writeShort(0);
+			out.writeShort(0);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		methods.add(bytes.toByteArray());
+	}
+
+	byte[] toByteArray() {
+		final int thisClass = classRef(className);
+		final int superClass = classRef(superName);
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(CLASS_FILE_MAGIC);
+			out.writeShort(0);
+			out.writeShort(CLASS_FILE_VERSION);
+			out.writeShort(poolCount);
+			out.write(poolBytes.toByteArray());
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0);
+			out.writeShort(fields.size());
+			for (final byte[] field : fields) {
+				out.write(field);
+			}
+			out.writeShort(methods.size());
+			for (final byte[] method : methods) {
+				out.write(method);
+			}
+			out.writeShort(0);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	//
+	// Constant pool
+	//
+
+	int utf8(final String value) {
+		final String key = "U" + value;
+		final Integer index = poolIndex.get(key);
+		if (index != null) {
+			return index;
+		}
+		try {
+			pool.writeByte(CONSTANT_UTF8);
+			pool.writeUTF(value);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return register(key);
+	}
+
+	int classRef(final String internalName) {
+		return reference("C" + internalName, CONSTANT_CLASS,
+				utf8(internalName), -1);
+	}
+
+	int string(final String value) {
+		return reference("S" + value, CONSTANT_STRING, utf8(value), -1);
+	}
+
+	int fieldRef(final String owner, final String name,
+			final String descriptor) {
+		return reference("F" + owner + "." + name + ":" + descriptor,
+				CONSTANT_FIELDREF, classRef(owner),
+				nameAndType(name, descriptor));
+	}
+
+	int methodRef(final String owner, final String name,
+			final String descriptor) {
+		return reference("M" + owner + "." + name + descriptor,
+				CONSTANT_METHODREF, classRef(owner),
+				nameAndType(name, descriptor));
+	}
+
+	private int nameAndType(final String name, final String descriptor) {
+		return reference("N" + name + ":" + descriptor,
+				CONSTANT_NAME_AND_TYPE, utf8(name), utf8(descriptor));
+	}
+
+	/**
+	 * Add a constant made of one or two references to other constants
+	 * @param second second reference, or -1 if there is only one
+	 */
+	private int reference(final String key, final int tag, final int first,
+			final int second) {
+		final Integer index = poolIndex.get(key);
+		if (index != null) {
+			return index;
+		}
+		try {
+			pool.writeByte(tag);
+			pool.writeShort(first);
+			if (second >= 0) {
+				pool.writeShort(second);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return register(key);
+	}
+
+	private int register(final String key) {
+		if (poolCount == 0xFFFF) {
+			throw new IllegalStateException("Constant pool overflow");
+		}
+		poolIndex.put(key, poolCount);
+		return poolCount++;
+	}
+
+	/**
+	 * Instructions of one method.  Keeps track of the operand stack depth
+	 * as instructions are added, so that the maximum can be recorded.
+	 */
+	final class Code {
+
+		static final int ACONST_NULL = 0x01;
+		static final int AALOAD = 0x32;
+		static final int AASTORE = 0x53;
+		static final int POP = 0x57;
+		static final int DUP = 0x59;
+		static final int IFEQ = 0x99;
+		static final int GOTO = 0xA7;
+		static final int ARETURN = 0xB0;
+		static final int RETURN = 0xB1;
+
+		private static final int ICONST_0 = 0x03;
+		private static final int BIPUSH = 0x10;
+		private static final int SIPUSH = 0x11;
+		private static final int LDC = 0x12;
+		private static final int LDC_W = 0x13;
+		private static final int ALOAD = 0x19;
+		private static final int ASTORE = 0x3A;
+		private static final int GETSTATIC = 0xB2;
+		private static final int GETFIELD = 0xB4;
+		private static final int PUTFIELD = 0xB5;
+		private static final int INVOKEVIRTUAL = 0xB6;
+		private static final int INVOKESPECIAL = 0xB7;
+		private static final int INVOKESTATIC = 0xB8;
+		private static final int CHECKCAST = 0xC0;
+
+		/** Longest method whose branches all fit in 16-bit offsets */
+		private static final int MAXIMUM_LENGTH = Short.MAX_VALUE;
+
+		private byte[] code = new byte[256];
+		private int length;
+
+		private int stack;
+		private int maxStack;
+		private final int maxLocals;
+
+		private final List<Label> labels = new ArrayList<Label>();
+
+		Code(final int maxLocals) {
+			this.maxLocals = maxLocals;
+		}
+
+		int getStack() {
+			return stack;
+		}
+
+		/**
+		 * Reset the stack depth, at the start of code only reached by a jump
+		 */
+		void setStack(final int stack) {
+			this.stack = stack;
+		}
+
+		void op(final int opcode, final int stackDelta) {
+			u1(opcode);
+			adjustStack(stackDelta);
+		}
+
+		void aload(final int local) {
+			u1(ALOAD);
+			u1(local);
+			adjustStack(1);
+		}
+
+		void astore(final int local) {
+			u1(ASTORE);
+			u1(local);
+			adjustStack(-1);
+		}
+
+		void iconst(final int value) {
+			if (value >= -1 && value <= 5) {
+				u1(ICONST_0 + value);
+			} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				u1(BIPUSH);
+				u1(value);
+			} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				u1(SIPUSH);
+				u2(value);
+			} else {
+				throw new IllegalArgumentException("Constant out of range: "
+						+ value);
+			}
+			adjustStack(1);
+		}
+
+		void ldc(final String value) {
+			final int index = string(value);
+			if (index <= 0xFF) {
+				u1(LDC);
+				u1(index);
+			} else {
+				u1(LDC_W);
+				u2(index);
+			}
+			adjustStack(1);
+		}
+
+		void getstatic(final String owner, final String name,
+				final String descriptor) {
+			u1(GETSTATIC);
+			u2(fieldRef(owner, name, descriptor));
+			adjustStack(1);
+		}
+
+		void getfield(final String owner, final String name,
+				final String descriptor) {
+			u1(GETFIELD);
+			u2(fieldRef(owner, name, descriptor));
+		}
+
+		void putfield(final String owner, final String name,
+				final String descriptor) {
+			u1(PUTFIELD);
+			u2(fieldRef(owner, name, descriptor));
+			adjustStack(-2);
+		}
+
+		void invokestatic(final String owner, final String name,
+				final String descriptor) {
+			invoke(INVOKESTATIC, owner, name, descriptor, 0);
+		}
+
+		void invokevirtual(final String owner, final String name,
+				final String descriptor) {
+			invoke(INVOKEVIRTUAL, owner, name, descriptor, 1);
+		}
+
+		void invokespecial(final String owner, final String name,
+				final String descriptor) {
+			invoke(INVOKESPECIAL, owner, name, descriptor, 1);
+		}
+
+		void checkcast(final String internalName) {
+			u1(CHECKCAST);
+			u2(classRef(internalName));
+		}
+
+		Label newLabel() {
+			final Label label = new Label();
+			labels.add(label);
+			return label;
+		}
+
+		void mark(final Label label) {
+			label.position = length;
+		}
+
+		void jump(final int opcode, final Label target) {
+			target.fixups.add(length);
+			u1(opcode);
+			u2(0);
+			if (opcode != GOTO) {
+				adjustStack(-1);
+			}
+		}
+
+		byte[] toByteArray() {
+			if (length > MAXIMUM_LENGTH) {
+				throw new IllegalStateException("Method too long");
+			}
+			for (final Label label : labels) {
+				for (final int from : label.fixups) {
+					final int offset = label.position - from;
+					code[from + 1] = (byte) (offset >> 8);
+					code[from + 2] = (byte) offset;
+				}
+			}
+			final byte[] result = new byte[length];
+			System.arraycopy(code, 0, result, 0, length);
+			return result;
+		}
+
+		private void invoke(final int opcode, final String owner,
+				final String name, final String descriptor,
+				final int receivers) {
+			u1(opcode);
+			u2(methodRef(owner, name, descriptor));
+			final int returned =
+					descriptor.charAt(descriptor.length() - 1) == 'V' ? 0 : 1;
+			adjustStack(returned - receivers - parameterCount(descriptor));
+		}
+
+		private void adjustStack(final int delta) {
+			stack += delta;
+			if (stack > maxStack) {
+				maxStack = stack;
+			}
+		}
+
+		private void u1(final int value) {
+			if (length == code.length) {
+				final byte[] grown = new byte[code.length * 2];
+				System.arraycopy(code, 0, grown, 0, length);
+				code = grown;
+			}
+			code[length++] = (byte) value;
+		}
+
+		private void u2(final int value) {
+			u1(value >> 8);
+			u1(value);
+		}
+
+	}
+
+	/** Position in the code, which may be jumped to before it is marked */
+	static final class Label {
+
+		private int position = -1;
+
+		private final List<Integer> fixups = new ArrayList<Integer>();
+
+	}
+
+	/**
+	 * Count the parameters in a method descriptor.  Only reference, int
+	 * and boolean parameters are used by generated code, so each parameter
+	 * takes a single stack slot.
+	 */
+	private static int parameterCount(final String descriptor) {
+		int count = 0;
+		int i = 1;
+		while (descriptor.charAt(i) != ')') {
+			while (descriptor.charAt(i) == '[') {
+				++i;
+			}
+			if (descriptor.charAt(i) == 'L') {
+				i = descriptor.indexOf(';', i);
+			}
+			++i;
+			++count;
+		}
+		return count;
+	}
+
+}
@@ -25,14 +25,22 @@ public class Dot {
 
 	private final String methodName;
 
+	/** Inline cache for this occurrence of the form */
+	private final DotCallSite callSite;
+
 	public Dot(final String methodName) {
 		this.methodName = methodName;
+		this.callSite = new DotCallSite(methodName);
 	}
 
 	public String getMethodName() {
 		return methodName;
 	}
 
+	DotCallSite getCallSite() {
+		return callSite;
+	}
+
 	@Override
 	public String toString() {
 		return "." + methodName;
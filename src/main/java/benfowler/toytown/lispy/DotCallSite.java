@@ -0,0 +1,200 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Inline cache for a single occurrence of the 'dot' special form.  The
+ * method resolved for a given receiver class and argument classes is kept
+ * as a {@link MethodHandle}, so that repeat calls skip reflection entirely.
+ * <p>
+ * The cache starts out monomorphic.  Further receiver/argument shapes go
+ * into a small polymorphic table, and once that is full the site is
+ * considered megamorphic: any other shape goes straight to the shared cache
+ * kept by {@link MethodResolver}, without touching the site.  Entries are
+ * immutable and published through volatile fields, so a site may be shared
+ * between threads.
+ */
+final class DotCallSite {
+
+	/** Maximum number of shapes held after the first */
+	static final int POLYMORPHIC_LIMIT = 4;
+
+	private final String methodName;
+
+	private volatile Entry monomorphic;
+
+	private volatile Entry[] polymorphic = new Entry[0];
+
+	private volatile boolean megamorphic;
+
+	DotCallSite(final String methodName) {
+		this.methodName = methodName;
+	}
+
+	/**
+	 * Invoke the method on behalf of the 'dot' special form.
+	 * @param instance target instance, or null for a static method
+	 * @param targetClass class of the instance, or the class named by the
+	 * form for a static method
+	 * @param instanceOrClassName name the target was given, for errors
+	 * @param args evaluated arguments
+	 * @return result
+	 */
+	Object invoke(final Object instance, final Class<?> targetClass,
+			final String instanceOrClassName, final Object[] args) {
+		Entry entry = monomorphic;
+		if (entry == null || !entry.matches(instance, targetClass, args)) {
+			entry = null;
+			for (final Entry candidate : polymorphic) {
+				if (candidate.matches(instance, targetClass, args)) {
+					entry = candidate;
+					break;
+				}
+			}
+			if (entry == null) {
+				entry = resolve(instance, targetClass, instanceOrClassName,
+						args);
+				if (!megamorphic) {
+					install(entry);
+				}
+			}
+		}
+
+		if (Metrics.on()) {
+			Metrics.dotInvoked(entry.method);
+		}
+		try {
+			return entry.handle.invokeExact(instance, args);
+		} catch (LispException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new EvalException(Errors.BAD_METHOD_INVOCATION,
+					e.getClass().getName(), instanceOrClassName, methodName,
+					e.getMessage());
+		}
+	}
+
+	/** @return number of shapes currently cached, for diagnostics */
+	int size() {
+		return (monomorphic == null ? 0 : 1) + polymorphic.length;
+	}
+
+	boolean isMegamorphic() {
+		return megamorphic;
+	}
+
+	private synchronized void install(final Entry entry) {
+		if (monomorphic == null) {
+			monomorphic = entry;
+		} else if (polymorphic.length < POLYMORPHIC_LIMIT) {
+			final Entry[] grown = new Entry[polymorphic.length + 1];
+			System.arraycopy(polymorphic, 0, grown, 0, polymorphic.length);
+			grown[polymorphic.length] = entry;
+			polymorphic = grown;
+		} else {
+			megamorphic = true;
+		}
+	}
+
+	private Entry resolve(final Object instance, final Class<?> targetClass,
+			final String instanceOrClassName, final Object[] args) {
+		final Class<?>[] argClasses = classesOf(args);
+		try {
+			final MethodResolver.Resolution resolution =
+					MethodResolver.resolve(targetClass, methodName, argClasses);
+
+			// Sanity check for static calls
+			final Method method = resolution.getMethod();
+			if (instance == null && !Modifier.isStatic(method.getModifiers())) {
+				throw new EvalException(Errors.NONSTATIC_CALL_IN_STATIC_CTX,
+						method.toString());
+			}
+
+			return new Entry(instance != null, targetClass, argClasses,
+					resolution.getHandle(), method.getDeclaringClass().getName()
+							+ "." + method.getName());
+		} catch (IllegalAccessException e) {
+			throw new EvalException(Errors.BAD_METHOD_INVOCATION,
+					e.getClass().getName(), instanceOrClassName, methodName,
+					e.getMessage());
+		}
+	}
+
+	private static Class<?>[] classesOf(final Object[] args) {
+		final Class<?>[] argClasses = new Class<?>[args.length];
+		for (int i=0; i<args.length; ++i) {
+			argClasses[i] = args[i] == null ? null : args[i].getClass();
+		}
+		return argClasses;
+	}
+
+	/**
+	 * A resolved method, together with the shape of call it was resolved
+	 * for.
+	 */
+	private static final class Entry {
+
+		private final boolean hasInstance;
+
+		private final Class<?> targetClass;
+
+		private final Class<?>[] argClasses;
+
+		private final MethodHandle handle;
+
+		/** Name of the method, as counted by {@link Metrics} */
+		private final String method;
+
+		Entry(final boolean hasInstance, final Class<?> targetClass,
+				final Class<?>[] argClasses, final MethodHandle handle,
+				final String method) {
+			this.hasInstance = hasInstance;
+			this.targetClass = targetClass;
+			this.argClasses = argClasses;
+			this.handle = handle;
+			this.method = method;
+		}
+
+		boolean matches(final Object instance, final Class<?> targetClass,
+				final Object[] args) {
+			if (this.targetClass != targetClass
+					|| hasInstance != (instance != null)
+					|| argClasses.length != args.length) {
+				return false;
+			}
+			for (int i=0; i<args.length; ++i) {
+				final Class<?> argClass = args[i] == null
+						? null : args[i].getClass();
+				if (argClass != argClasses[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+	}
+
+}
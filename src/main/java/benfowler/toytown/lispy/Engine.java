@@ -0,0 +1,50 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+/**
+ * Evaluation strategies supported by the {@link Interpreter}
+ */
+public enum Engine {
+
+	/** Walk the resolved forms directly, on every evaluation */
+	TREE_WALKER,
+
+	/** Analyze forms once into a tree of {@link Node}s, then execute them */
+	CLOSURE_COMPILER;
+
+	/**
+	 * Name of the system property used to choose the default engine
+	 */
+	public static final String PROPERTY = "toytown.engine";
+
+	static Engine getDefault() {
+		final String name = System.getProperty(PROPERTY);
+		for (final Engine engine : values()) {
+			if (engine.name().equalsIgnoreCase(name)) {
+				return engine;
+			}
+		}
+		return TREE_WALKER;
+	}
+
+}
@@ -21,14 +21,50 @@
 
 package benfowler.toytown.lispy;
 
-import java.util.HashMap;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-public class Environment extends HashMap<String, Object> {
+/**
+ * Global variables.  Each name is bound to a {@link GlobalCell}, which keeps
+ * its identity when the name is redefined or assigned, so that compiled code
+ * can hold on to it through a {@link GlobalSite}.
+ * <p>
+ * An environment may be shared by any number of threads.  Lookups take no
+ * locks.  A value bound by <tt>define</tt> or <tt>set!</tt> is published
+ * safely: once a thread has seen it, it also sees everything the defining
+ * thread did beforehand, such as building the value.  A new name becomes
+ * visible to every lookup that starts after its definition completes.
+ * Nothing orders concurrent definitions of the same name, beyond the last
+ * one winning, so any such ordering is up to the program.
+ */
+public class Environment {
+
+	private final Environment outer;
+
+	private final ConcurrentMap<Symbol, GlobalCell> cells =
+			new ConcurrentHashMap<Symbol, GlobalCell>();
+
+	/** Set once the environment is shared, after which it is read-only */
+	private volatile boolean frozen;
 
-	/** Default serial version ID */
-	private static final long serialVersionUID = 1L;
+	/**
+	 * Replaced whenever a name is newly bound here or in an outer
+	 * environment, each of which may shadow a name bound further out.  It
+	 * is only replaced after the new cell has been added.
+	 */
+	private volatile Object stamp = new Object();
 
-	private Environment outer = null;
+	/**
+	 * Environments this one is the outer environment of, which are given new
+	 * stamps along with this one.  Guarded by its own monitor.
+	 */
+	private final List<WeakReference<Environment>> inners =
+			new ArrayList<WeakReference<Environment>>();
 
 	/**
 	 * Build an environment, which delegates to the given outer environment
@@ -36,15 +72,166 @@ public class Environment extends HashMap<String, Object> {
 	 */
 	public Environment(final Environment outer) {
 		this.outer = outer;
+		if (outer != null && !outer.frozen) {
+			outer.addInner(this);
+		}
+	}
+
+	/**
+	 * @return the value bound to the name, or null if it isn't bound
+	 */
+	public Object get(final Symbol name) {
+		final GlobalCell cell = lookup(name);
+		return cell != null ? cell.get() : null;
+	}
+
+	/**
+	 * @return true if the name is bound here, or in an outer environment
+	 */
+	public boolean isBound(final Symbol name) {
+		return lookup(name) != null;
+	}
+
+	/**
+	 * @return true if no names are bound in this environment itself
+	 */
+	public boolean isEmpty() {
+		return cells.isEmpty();
+	}
+
+	/**
+	 * Bind a name here, replacing any existing binding in this environment
+	 * and shadowing any in an outer one.
+	 * @throws EvalException if this environment is frozen
+	 */
+	public void put(final Symbol name, final Object value) {
+		checkNotFrozen(name);
+		GlobalCell cell = cells.get(name);
+		if (cell == null) {
+			final GlobalCell created = new GlobalCell(name, value);
+			cell = cells.putIfAbsent(name, created);
+			if (cell == null) {
+				restamp();
+				return;
+			}
+		}
+		cell.set(value);
+	}
+
+	/**
+	 * Rebind an existing name, in whichever environment it is bound.  A name
+	 * bound in a frozen environment is shadowed here instead, leaving the
+	 * shared binding untouched.
+	 * @return false if the name isn't bound at all
+	 */
+	public boolean assign(final Symbol name, final Object value) {
+		for (Environment env = this; env != null; env = env.outer) {
+			final GlobalCell cell = env.cells.get(name);
+			if (cell != null) {
+				if (env.frozen) {
+					put(name, value);
+				} else {
+					cell.set(value);
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Make this environment read-only, so that it can be shared safely as
+	 * the outer environment of any number of others.
+	 * @return this environment
+	 */
+	Environment freeze() {
+		frozen = true;
+		return this;
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	Environment getOuter() {
+		return outer;
+	}
+
+	/**
+	 * @return the cells bound in this environment itself, in no particular
+	 * order
+	 */
+	Collection<GlobalCell> getCells() {
+		return cells.values();
+	}
+
+	/**
+	 * @return the cell the name is bound to, here or in an outer
+	 * environment, or null if it isn't bound
+	 */
+	GlobalCell lookup(final Symbol name) {
+		for (Environment env = this; env != null; env = env.outer) {
+			final GlobalCell cell = env.cells.get(name);
+			if (cell != null) {
+				return cell;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * A stamp which is replaced whenever a name is newly bound in this
+	 * environment, or in any outer one.  A cell found by
+	 * {@link #lookup(Symbol)} stays the right one for as long as the stamp
+	 * is the same object.  No two environments share a stamp, so the stamp
+	 * also stands for the environment, without keeping it reachable.
+	 */
+	Object getStamp() {
+		return stamp;
+	}
+
+	private void addInner(final Environment inner) {
+		synchronized (inners) {
+			prune();
+			inners.add(new WeakReference<Environment>(inner));
+		}
+	}
+
+	/**
+	 * Replace the stamps of this environment and every environment inside
+	 * it, once a name has been bound here
+	 */
+	private void restamp() {
+		stamp = new Object();
+		final List<Environment> live = new ArrayList<Environment>();
+		synchronized (inners) {
+			prune();
+			for (final WeakReference<Environment> ref : inners) {
+				final Environment inner = ref.get();
+				if (inner != null) {
+					live.add(inner);
+				}
+			}
+		}
+		for (final Environment inner : live) {
+			inner.restamp();
+		}
+	}
+
+	/** Forget inner environments which have been collected */
+	private void prune() {
+		for (final Iterator<WeakReference<Environment>> i = inners.iterator();
+				i.hasNext(); ) {
+			if (i.next().get() == null) {
+				i.remove();
+			}
+		}
 	}
 
-	@Override
-	public Object get(final Object key) {
-		Object result = super.get(key);
-		if (result == null && outer != null) {
-			result = outer.get(key);
+	private void checkNotFrozen(final Symbol name) {
+		if (frozen) {
+			throw new EvalException(Errors.ENVIRONMENT_FROZEN, name);
 		}
-		return result;
 	}
 
 }
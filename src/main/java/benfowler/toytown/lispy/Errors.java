@@ -26,6 +26,7 @@ public enum Errors {
 	UNEXPECTED_TOKEN("Unexpected token. Expected %s, but got %s"),
 	MISSING_PARENTHESIS("Missing parenthesis"),
 	PREMATURE_END_OF_PROGRAM("Premature end of program"),
+	READ_ERROR("Error reading program: %s"),
 	TOKEN_AFTER_END_OF_PROGRAM("Token after end of program"),
 	INVALID_NUMBER_OF_ARGUMENTS("Illegal number of arguments.  Expected at " +
 			"least %d, at most %d arguments; got %d;"),
@@ -48,9 +49,16 @@ public enum Errors {
 			"%s.%s(): %s"),
 	NONSTATIC_CALL_IN_STATIC_CTX("Non-static method called in " +
 			"static context: %s"),
+	NO_APPLICABLE_METHOD("No method %s.%s() is applicable to arguments " +
+			"of type %s"),
+	AMBIGUOUS_METHOD_CALL("Ambiguous call to %s.%s(): both %s and %s " +
+			"are applicable"),
 	SYMBOL_EXPECTED("Symbol expected"),
 	PROC_EXPECTED("Proc expected"),
-	SYMBOL_NOT_FOUND("Symbol '%s' not found");
+	BAD_ARGUMENT_TYPE("Bad argument to '%s': expected a %s, but got '%s'"),
+	SYMBOL_NOT_FOUND("Symbol '%s' not found"),
+	UNSAVABLE_VALUE("Cannot save %s in an image: '%s' refers to '%s'"),
+	ENVIRONMENT_FROZEN("Cannot define '%s' in a frozen environment");
 
 	private String parameterizedMessage;
 
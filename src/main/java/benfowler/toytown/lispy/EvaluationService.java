@@ -0,0 +1,337 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package benfowler.toytown.lispy;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs independent evaluations concurrently, each in a global environment
+ * of its own, layered over the shared builtins.
+ * <p>
+ * Unless a stack size is given, each evaluation runs on a virtual thread,
+ * where the Java runtime has them, which is cheap to start.  A virtual
+ * thread's stack can grow no deeper than a platform thread's default, so a
+ * service for deeply recursive programs should be given a stack size:
+ * evaluations then run on pooled platform threads with stacks of that
+ * size, as they do wherever there are no virtual threads.  At most a
+ * given number of evaluations run at once: beyond that,
+ * {@link #submit(Object, Map)} blocks its caller until one finishes, so a
+ * busy service slows down whoever is feeding it rather than queueing
+ * without limit.  For the same reason, an evaluation should not itself
+ * submit to the service it is running in.
+ */
+public final class EvaluationService implements AutoCloseable {
+
+	/** Longest {@link #close()} waits for running evaluations, in seconds */
+	static final long CLOSE_TIMEOUT = 60;
+
+	private final int maxConcurrent;
+
+	private final Semaphore permits;
+
+	private final ExecutorService executor;
+
+	private final boolean virtual;
+
+	private final LongAdder submitted = new LongAdder();
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder waitTime = new LongAdder();
+	private final LongAdder runTime = new LongAdder();
+	private final AtomicLong maxRunTime = new AtomicLong();
+
+	/**
+	 * @param maxConcurrent most evaluations to run at once
+	 */
+	public EvaluationService(final int maxConcurrent) {
+		this(maxConcurrent, 0);
+	}
+
+	/**
+	 * @param maxConcurrent most evaluations to run at once
+	 * @param stackSize stack size of the threads evaluations run on, or 0
+	 * for the Java runtime's default, and virtual threads where available
+	 */
+	public EvaluationService(final int maxConcurrent, final long stackSize) {
+		if (maxConcurrent < 1) {
+			throw new IllegalArgumentException(
+					"maxConcurrent: " + maxConcurrent);
+		}
+		this.maxConcurrent = maxConcurrent;
+		this.permits = new Semaphore(maxConcurrent, true);
+		final ExecutorService virtualExecutor =
+				stackSize > 0 ? null : newVirtualThreadExecutor();
+		this.virtual = virtualExecutor != null;
+		this.executor = virtual ? virtualExecutor
+				: Executors.newCachedThreadPool(platformThreads(stackSize));
+	}
+
+	/**
+	 * Parse and evaluate a program, once there is room to.
+	 * @param program source text
+	 * @param bindings global variables to define first, by name
+	 * @return the result, or the {@link LispException} the program failed
+	 * with
+	 * @throws InterruptedException if interrupted while waiting for room
+	 */
+	public CompletableFuture<Object> submit(final String program,
+			final Map<String, ?> bindings) throws InterruptedException {
+		return start(program, bindings);
+	}
+
+	/**
+	 * Evaluate an already-parsed form, once there is room to.
+	 * @see #submit(String, Map)
+	 */
+	public CompletableFuture<Object> submit(final Object form,
+			final Map<String, ?> bindings) throws InterruptedException {
+		return start(form, bindings);
+	}
+
+	public CompletableFuture<Object> submit(final String program)
+	throws InterruptedException {
+		return submit(program, Collections.<String, Object>emptyMap());
+	}
+
+	/** @return whether evaluations run on virtual threads */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	public Stats getStats() {
+		return new Stats(this);
+	}
+
+	/**
+	 * Stop accepting evaluations, and wait for those already running, for
+	 * up to {@value #CLOSE_TIMEOUT} seconds
+	 * @see #close(long, TimeUnit)
+	 */
+	@Override
+	public void close() {
+		close(CLOSE_TIMEOUT, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stop accepting evaluations, and wait for those already running.  Any
+	 * still running after the timeout, or if the caller is interrupted, are
+	 * interrupted in turn.
+	 * @return true if every evaluation finished in time
+	 */
+	public boolean close(final long timeout, final TimeUnit unit) {
+		executor.shutdown();
+		try {
+			if (executor.awaitTermination(timeout, unit)) {
+				return true;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		executor.shutdownNow();
+		return false;
+	}
+
+	private CompletableFuture<Object> start(final Object programOrForm,
+			final Map<String, ?> bindings) throws InterruptedException {
+		final long queued = System.nanoTime();
+		permits.acquire();
+		submitted.increment();
+		final CompletableFuture<Object> result =
+				new CompletableFuture<Object>();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					evaluate(programOrForm, bindings, queued, result);
+				}
+			});
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+		return result;
+	}
+
+	/**
+	 * Evaluate, then complete the future.  The statistics are brought up to
+	 * date and the permit released first, so that they are already correct
+	 * when whoever is waiting on the future sees the result.
+	 */
+	private void evaluate(final Object programOrForm,
+			final Map<String, ?> bindings, final long queued,
+			final CompletableFuture<Object> result) {
+		final long start = System.nanoTime();
+		waitTime.add(start - queued);
+		Object value = null;
+		Throwable failure = null;
+		try {
+			final Environment env = Builtins.getGlobalEnvironment();
+			for (final Map.Entry<String, ?> binding : bindings.entrySet()) {
+				env.put(Symbol.intern(binding.getKey()), binding.getValue());
+			}
+			value = programOrForm instanceof String
+					? Interpreter.eval((String) programOrForm, env)
+					: Interpreter.eval(programOrForm, env);
+		} catch (RuntimeException e) {
+			failure = e;
+		} catch (Error e) {
+			// Including StackOverflowError, from too deep a recursion
+			failure = e;
+		} finally {
+			finished(System.nanoTime() - start, failure == null);
+		}
+		if (failure == null) {
+			result.complete(value);
+		} else {
+			result.completeExceptionally(failure);
+		}
+	}
+
+	private void finished(final long elapsed, final boolean succeeded) {
+		(succeeded ? completed : failed).increment();
+		runTime.add(elapsed);
+		for (long max = maxRunTime.get(); elapsed > max;
+				max = maxRunTime.get()) {
+			if (maxRunTime.compareAndSet(max, elapsed)) {
+				break;
+			}
+		}
+		permits.release();
+	}
+
+	/**
+	 * @return an executor starting a virtual thread per task, or null if the
+	 * Java runtime has no virtual threads
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor")
+					.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		} catch (UnsupportedOperationException e) {
+			// Preview feature, not enabled
+			return null;
+		}
+	}
+
+	private static ThreadFactory platformThreads(final long stackSize) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable task) {
+				final Thread thread = new Thread(null, task,
+						"toytown-eval-" + count.incrementAndGet(), stackSize);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Snapshot of the service's statistics.  Times are in nanoseconds.
+	 */
+	public static final class Stats {
+
+		private final long submitted;
+		private final long completed;
+		private final long failed;
+		private final int running;
+		private final int waiting;
+		private final long totalWaitTime;
+		private final long totalRunTime;
+		private final long maxRunTime;
+
+		Stats(final EvaluationService service) {
+			this.submitted = service.submitted.sum();
+			this.completed = service.completed.sum();
+			this.failed = service.failed.sum();
+			this.running = service.maxConcurrent
+					- service.permits.availablePermits();
+			this.waiting = service.permits.getQueueLength();
+			this.totalWaitTime = service.waitTime.sum();
+			this.totalRunTime = service.runTime.sum();
+			this.maxRunTime = service.maxRunTime.get();
+		}
+
+		/** @return evaluations accepted so far */
+		public long getSubmitted() {
+			return submitted;
+		}
+
+		public long getCompleted() {
+			return completed;
+		}
+
+		public long getFailed() {
+			return failed;
+		}
+
+		/** @return evaluations accepted and not yet finished */
+		public int getRunning() {
+			return running;
+		}
+
+		/** @return callers blocked waiting for room, roughly */
+		public int getWaiting() {
+			return waiting;
+		}
+
+		/** @return mean time from submission to the evaluation starting */
+		public long getMeanWaitTime() {
+			final long finished = completed + failed;
+			return finished == 0 ? 0 : totalWaitTime / finished;
+		}
+
+		/** @return mean time taken by an evaluation */
+		public long getMeanRunTime() {
+			final long finished = completed + failed;
+			return finished == 0 ? 0 : totalRunTime / finished;
+		}
+
+		public long getMaxRunTime() {
+			return maxRunTime;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("submitted=%d completed=%d failed=%d"
+					+ " running=%d waiting=%d meanWait=%dns meanRun=%dns"
+					+ " maxRun=%dns", submitted, completed, failed, running,
+					waiting, getMeanWaitTime(), getMeanRunTime(), maxRunTime);
+		}
+
+	}
+
+}
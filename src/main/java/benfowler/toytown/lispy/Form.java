@@ -0,0 +1,53 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Immutable, array-backed s-expression produced by the parser.  Elements are
+ * fetched in constant time, so the evaluator can index into a form freely.
+ */
+public final class Form extends AbstractList<Object> implements RandomAccess {
+
+	private final Object[] elements;
+
+	/**
+	 * @param elements elements of the form; the array is owned by the form
+	 * from here on, and must not be modified by the caller
+	 */
+	Form(final Object... elements) {
+		this.elements = elements;
+	}
+
+	@Override
+	public Object get(final int index) {
+		return elements[index];
+	}
+
+	@Override
+	public int size() {
+		return elements.length;
+	}
+
+}
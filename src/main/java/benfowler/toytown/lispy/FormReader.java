@@ -0,0 +1,123 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a program one top-level form at a time, so that a file of any
+ * size can be evaluated as it is read.  Only the form being read is held in
+ * memory, along with a buffer's worth of characters.  Syntax errors are
+ * reported when the form containing them is reached, so every form before
+ * it can already have been evaluated.
+ */
+public class FormReader implements Iterator<Object>, Closeable {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final Reader reader;
+
+	private final Lexer lexer;
+
+	/** Scratch space for elements of the form being read */
+	private final List<Object> stack = new ArrayList<Object>();
+
+	private int count;
+
+	public FormReader(final Reader reader) {
+		this.reader = reader;
+		this.lexer = new Lexer(reader);
+	}
+
+	/**
+	 * Read a program encoded as UTF-8.
+	 */
+	public FormReader(final InputStream in) {
+		this(new InputStreamReader(in, UTF_8));
+	}
+
+	public FormReader(final CharSequence program) {
+		this.reader = null;
+		this.lexer = new Lexer(program);
+	}
+
+	/**
+	 * @return true if there is another form to read
+	 * @throws ParseException if the underlying reader fails
+	 */
+	@Override
+	public boolean hasNext() {
+		return lexer.hasMoreTokens();
+	}
+
+	/**
+	 * @return the next form, as {@link Interpreter#parse(String)} would
+	 * return it
+	 * @throws ParseException if the form is malformed, or the underlying
+	 * reader fails
+	 */
+	@Override
+	public Object next() throws ParseException {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		if (lexer.peekType() == Lexer.TokenType.CLOSE) {
+			throw new ParseException(Errors.UNEXPECTED_TOKEN, "a form",
+					lexer.consumeToken());
+		}
+		final Object form = Interpreter.readForm(lexer, stack);
+		++count;
+		return form;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * @return number of forms read so far
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Close the underlying reader, if any.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (reader != null) {
+			reader.close();
+		}
+	}
+
+}
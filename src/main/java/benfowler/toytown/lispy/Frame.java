@@ -0,0 +1,95 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+/**
+ * Activation frame of a procedure call.  Arguments and locally-defined
+ * names live in a plain array, and are addressed by the (depth, slot)
+ * coordinates assigned by the {@link Resolver}.  The outermost frame of an
+ * evaluation has no slots, and refers to the global {@link Environment}.
+ * Frames are not synchronized, as each belongs to the thread making the
+ * call.
+ */
+public final class Frame {
+
+	private static final Object[] NO_SLOTS = new Object[0];
+
+	private final Environment environment;
+
+	private final Frame parent;
+
+	private final Object[] slots;
+
+	/**
+	 * Build a top-level frame over the given global environment
+	 */
+	public Frame(final Environment environment) {
+		this.environment = environment;
+		this.parent = null;
+		this.slots = NO_SLOTS;
+	}
+
+	/**
+	 * Build a frame nested inside another one
+	 * @param parent frame captured by the procedure being called
+	 * @param slots argument values, plus room for local definitions; owned
+	 * by the frame from here on
+	 */
+	public Frame(final Frame parent, final Object[] slots) {
+		this.environment = parent.environment;
+		this.parent = parent;
+		this.slots = slots;
+		if (Metrics.on()) {
+			Metrics.frameCreated();
+		}
+	}
+
+	public Environment getEnvironment() {
+		return environment;
+	}
+
+	public Frame getParent() {
+		return parent;
+	}
+
+	/** @return the slots of this frame, for direct access by compiled code */
+	Object[] getSlots() {
+		return slots;
+	}
+
+	public Object lookup(final int depth, final int slot) {
+		return ancestor(depth).slots[slot];
+	}
+
+	public void assign(final int depth, final int slot, final Object value) {
+		ancestor(depth).slots[slot] = value;
+	}
+
+	private Frame ancestor(final int depth) {
+		Frame frame = this;
+		for (int i=0; i<depth; ++i) {
+			frame = frame.parent;
+		}
+		return frame;
+	}
+
+}
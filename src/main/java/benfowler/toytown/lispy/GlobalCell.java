@@ -0,0 +1,59 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package benfowler.toytown.lispy;
+
+/**
+ * The binding of a name in an {@link Environment}.  Each name bound in an
+ * environment has exactly one cell for as long as the environment lives, so
+ * a {@link GlobalSite} can hold on to the cell and read the current value
+ * without looking the name up again.
+ */
+final class GlobalCell {
+
+	private final Symbol name;
+
+	private volatile Object value;
+
+	GlobalCell(final Symbol name, final Object value) {
+		this.name = name;
+		this.value = value;
+	}
+
+	Symbol getName() {
+		return name;
+	}
+
+	Object get() {
+		return value;
+	}
+
+	void set(final Object value) {
+		this.value = value;
+	}
+
+	@Override
+	public String toString() {
+		return name + "=" + value;
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package benfowler.toytown.lispy;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/**
+ * A reference to a global variable from compiled code.  The site remembers
+ * the {@link GlobalCell} it last found in each of the last few environments
+ * it was read in, and reuses it for as long as no name has since been bound
+ * in that environment which might shadow the cell; see
+ * {@link Environment#getStamp()}.  A read is then a few field loads, however
+ * deep the environment chain.  The cells are held weakly, and the
+ * environments not at all, so a site shared between sessions keeps none of
+ * them reachable.
+ */
+public final class GlobalSite {
+
+	/** Most environments a site remembers a cell for */
+	static final int LIMIT = 4;
+
+	private final Symbol name;
+
+	private volatile Entry[] cached = new Entry[0];
+
+	GlobalSite(final Symbol name) {
+		this.name = name;
+	}
+
+	public Symbol getName() {
+		return name;
+	}
+
+	/**
+	 * @return the value bound to the name
+	 * @throws EvalException if the name isn't bound
+	 */
+	Object get(final Environment env) {
+		final GlobalCell cell = lookup(env);
+		final Object result = cell != null ? cell.get() : null;
+		if (result == null) {
+			throw new EvalException(Errors.SYMBOL_NOT_FOUND, name.toString());
+		}
+		return result;
+	}
+
+	/**
+	 * @return the cell the name is bound to, or null if it isn't bound
+	 */
+	GlobalCell lookup(final Environment env) {
+		final Object stamp = env.getStamp();
+		final Entry[] entries = cached;
+		for (final Entry entry : entries) {
+			if (entry.stamp == stamp) {
+				final GlobalCell cell = entry.get();
+				if (cell != null) {
+					return cell;
+				}
+			}
+		}
+		final GlobalCell cell = env.lookup(name);
+		if (cell != null) {
+			// Keep the entries still of use, dropping the oldest if full;
+			// losing one to a race is harmless
+			final Entry[] updated = new Entry[LIMIT];
+			int count = 0;
+			for (final Entry entry : entries) {
+				if (entry.stamp != stamp && entry.get() != null) {
+					updated[count++] = entry;
+				}
+			}
+			if (count == LIMIT) {
+				System.arraycopy(updated, 1, updated, 0, --count);
+			}
+			updated[count++] = new Entry(stamp, cell);
+			cached = Arrays.copyOf(updated, count);
+		}
+		return cell;
+	}
+
+	/** @return number of environments a cell is remembered for */
+	int size() {
+		return cached.length;
+	}
+
+	/**
+	 * @return the cells remembered, each held only through a weak
+	 * reference, which may have been cleared
+	 */
+	WeakReference<?>[] getEntries() {
+		return cached.clone();
+	}
+
+	@Override
+	public String toString() {
+		return name.toString();
+	}
+
+	private static final class Entry extends WeakReference<GlobalCell> {
+
+		final Object stamp;
+
+		Entry(final Object stamp, final GlobalCell cell) {
+			super(cell);
+			this.stamp = stamp;
+		}
+
+	}
+
+}
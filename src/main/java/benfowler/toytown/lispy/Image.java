@@ -0,0 +1,584 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of a global environment, saved to a compact binary file so that
+ * a program's definitions can be loaded again without parsing and
+ * evaluating it afresh.
+ * <p>
+ * An image holds the names bound in the environment itself, together with
+ * everything their values refer to: data, procedures, the resolved code of
+ * their lambdas, and the frames they are closed over.  Procedures sharing a
+ * frame still share it once loaded, and cycles, such as a recursive local
+ * procedure, are kept.  Builtins are saved by name.  Values which can't be
+ * saved, such as Java objects or memoized procedures, make {@link #save}
+ * fail with {@link Errors#UNSAVABLE_VALUE}, naming the binding which
+ * refers to them, before anything is written.
+ * <p>
+ * The file is laid out as tables of symbols, lambdas, frames and
+ * procedures, followed by the contents of the frames and then the
+ * bindings, so each can be built before anything that refers to it.  It is
+ * loaded through a memory-mapped buffer.
+ */
+public final class Image {
+
+	private static final int MAGIC = 0x546f7949;	// "ToyI"
+
+	private static final int VERSION = 2;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final byte NULL = 0;
+	private static final byte TRUE = 1;
+	private static final byte FALSE = 2;
+	private static final byte LONG = 3;
+	private static final byte DOUBLE = 4;
+	private static final byte BIG_INTEGER = 5;
+	private static final byte SYMBOL = 6;
+	private static final byte LIST = 7;
+	private static final byte FORM = 8;
+	private static final byte SPECIAL_FORM = 9;
+	private static final byte DOT = 10;
+	private static final byte LOCAL_REF = 11;
+	private static final byte LAMBDA = 12;
+	private static final byte PROC = 13;
+	private static final byte BUILTIN = 14;
+
+	/** Frame index standing for the top-level frame of the environment */
+	private static final int TOP = -1;
+
+	private Image() { }
+
+	/**
+	 * Save the names bound in a global environment, and everything they
+	 * refer to.  Only the environment's own bindings are saved: it must be
+	 * layered directly over the builtins, as a {@link Session}'s is.
+	 * @throws EvalException if a value can't be saved, in which case the
+	 * file is left untouched
+	 */
+	public static void save(final Environment env, final File file)
+			throws IOException {
+		if (env.getOuter() != Builtins.getBaseEnvironment()) {
+			throw new IllegalArgumentException(
+					"Only an environment over the builtins can be saved");
+		}
+		final Writer writer = new Writer(env);
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			writer.write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Load an image, into a new global environment over the builtins.
+	 * @throws IOException if the file can't be read, or isn't a valid image
+	 */
+	public static Environment load(final File file) throws IOException {
+		final FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ);
+		try {
+			final MappedByteBuffer buffer = channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new Reader(buffer).read();
+		} catch (final BufferUnderflowException e) {
+			throw new IOException("Truncated image: " + file, e);
+		} finally {
+			channel.close();
+		}
+	}
+
+	//
+	// Saving
+	//
+
+	private static final class Writer {
+
+		private final Environment env;
+
+		private final List<GlobalCell> bindings;
+
+		private final Map<Symbol, Integer> symbols =
+				new HashMap<Symbol, Integer>();
+
+		private final Map<Lambda, Integer> lambdas =
+				new IdentityHashMap<Lambda, Integer>();
+
+		private final Map<Frame, Integer> frames =
+				new IdentityHashMap<Frame, Integer>();
+
+		private final Map<Proc, Integer> procs =
+				new IdentityHashMap<Proc, Integer>();
+
+		/** Binding whose value is being collected, for error messages */
+		private Symbol binding;
+
+		Writer(final Environment env) {
+			this.env = env;
+			this.bindings = new ArrayList<GlobalCell>(env.getCells());
+			for (final GlobalCell cell : bindings) {
+				binding = cell.getName();
+				symbol(cell.getName());
+				collect(cell.get());
+			}
+		}
+
+		/**
+		 * Number everything reachable from a value, checking it can all be
+		 * saved.  A lambda is numbered after those nested in its body, and a
+		 * frame after its parent, so that each can be built on loading
+		 * before anything which refers to it.
+		 */
+		private void collect(final Object value) {
+			if (value == null || value instanceof Boolean
+					|| value instanceof Long || value instanceof Double
+					|| value instanceof BigInteger
+					|| value instanceof SpecialForm) {
+				return;
+			} else if (value instanceof Symbol) {
+				symbol((Symbol) value);
+			} else if (value instanceof LispList || value instanceof Form) {
+				for (final Object element : (List<?>) value) {
+					collect(element);
+				}
+			} else if (value instanceof Dot) {
+				return;
+			} else if (value instanceof LocalRef) {
+				symbol(((LocalRef) value).getName());
+				collect(((LocalRef) value).getFallback());
+			} else if (value instanceof Lambda) {
+				collectLambda((Lambda) value);
+			} else if (value instanceof Proc) {
+				collectProc((Proc) value);
+			} else if (value instanceof Memo) {
+				throw unsavable("a memoized procedure", value);
+			} else if (value instanceof Builtin) {
+				final Builtin builtin = (Builtin) value;
+				final Symbol name = Symbol.intern(builtin.getName());
+				if (Builtins.getBaseEnvironment().get(name) != builtin) {
+					throw unsavable("a builtin which isn't shared", value);
+				}
+				symbol(name);
+			} else {
+				throw unsavable("a Java object", value);
+			}
+		}
+
+		private void collectLambda(final Lambda lambda) {
+			if (lambdas.containsKey(lambda)) {
+				return;
+			}
+			if (lambda.getName() != null) {
+				symbol(lambda.getName());
+			}
+			for (final Symbol formal : lambda.getFormalArguments()) {
+				symbol(formal);
+			}
+			collect(lambda.getBody());
+			lambdas.put(lambda, lambdas.size());
+		}
+
+		private void collectProc(final Proc proc) {
+			if (procs.containsKey(proc)) {
+				return;
+			}
+			procs.put(proc, procs.size());
+			collectLambda(proc.getLambda());
+			collectFrame(proc.getFrame(), proc);
+		}
+
+		private void collectFrame(final Frame frame, final Proc proc) {
+			if (frame.getParent() == null) {
+				if (frame.getEnvironment() != env) {
+					throw unsavable("a closure over another environment",
+							proc);
+				}
+				return;
+			}
+			if (frames.containsKey(frame)) {
+				return;
+			}
+			collectFrame(frame.getParent(), proc);
+			frames.put(frame, frames.size());
+			for (final Object value : frame.getSlots()) {
+				collect(value);
+			}
+		}
+
+		private void symbol(final Symbol symbol) {
+			if (!symbols.containsKey(symbol)) {
+				symbols.put(symbol, symbols.size());
+			}
+		}
+
+		private EvalException unsavable(final String what,
+				final Object value) {
+			return new EvalException(Errors.UNSAVABLE_VALUE, what, binding,
+					value);
+		}
+
+		void write(final DataOutputStream out) throws IOException {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			out.writeInt(symbols.size());
+			for (final Symbol symbol : inOrder(symbols)) {
+				final byte[] bytes = symbol.toString().getBytes(UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+
+			out.writeInt(lambdas.size());
+			for (final Lambda lambda : inOrder(lambdas)) {
+				out.writeInt(lambda.getName() != null
+						? symbols.get(lambda.getName()) : -1);
+				out.writeBoolean(lambda.isBoundAllArgsAsList());
+				out.writeInt(lambda.getFormalArguments().size());
+				for (final Symbol formal : lambda.getFormalArguments()) {
+					out.writeInt(symbols.get(formal));
+				}
+				out.writeInt(lambda.getFrameSize());
+				writeValue(out, lambda.getBody());
+			}
+
+			final List<Frame> frameList = inOrder(frames);
+			out.writeInt(frameList.size());
+			for (final Frame frame : frameList) {
+				final Frame parent = frame.getParent();
+				out.writeInt(parent.getParent() == null
+						? TOP : frames.get(parent));
+				out.writeInt(frame.getSlots().length);
+			}
+
+			out.writeInt(procs.size());
+			for (final Proc proc : inOrder(procs)) {
+				out.writeInt(lambdas.get(proc.getLambda()));
+				final Frame frame = proc.getFrame();
+				out.writeInt(frame.getParent() == null
+						? TOP : frames.get(frame));
+			}
+
+			for (final Frame frame : frameList) {
+				for (final Object value : frame.getSlots()) {
+					writeValue(out, value);
+				}
+			}
+
+			out.writeInt(bindings.size());
+			for (final GlobalCell cell : bindings) {
+				out.writeInt(symbols.get(cell.getName()));
+				writeValue(out, cell.get());
+			}
+		}
+
+		private void writeValue(final DataOutputStream out,
+				final Object value) throws IOException {
+			if (value == null) {
+				out.writeByte(NULL);
+			} else if (value instanceof Boolean) {
+				out.writeByte((Boolean) value ? TRUE : FALSE);
+			} else if (value instanceof Long) {
+				out.writeByte(LONG);
+				out.writeLong((Long) value);
+			} else if (value instanceof Double) {
+				out.writeByte(DOUBLE);
+				out.writeDouble((Double) value);
+			} else if (value instanceof BigInteger) {
+				final byte[] bytes = ((BigInteger) value).toByteArray();
+				out.writeByte(BIG_INTEGER);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			} else if (value instanceof Symbol) {
+				out.writeByte(SYMBOL);
+				out.writeInt(symbols.get(value));
+			} else if (value instanceof LispList || value instanceof Form) {
+				final List<?> list = (List<?>) value;
+				out.writeByte(value instanceof Form ? FORM : LIST);
+				out.writeInt(list.size());
+				for (final Object element : list) {
+					writeValue(out, element);
+				}
+			} else if (value instanceof SpecialForm) {
+				out.writeByte(SPECIAL_FORM);
+				out.writeByte(((SpecialForm) value).ordinal());
+			} else if (value instanceof Dot) {
+				final byte[] bytes =
+						((Dot) value).getMethodName().getBytes(UTF_8);
+				out.writeByte(DOT);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			} else if (value instanceof LocalRef) {
+				final LocalRef ref = (LocalRef) value;
+				out.writeByte(LOCAL_REF);
+				out.writeInt(symbols.get(ref.getName()));
+				out.writeInt(ref.getDepth());
+				out.writeInt(ref.getSlot());
+				writeValue(out, ref.getFallback());
+			} else if (value instanceof Lambda) {
+				out.writeByte(LAMBDA);
+				out.writeInt(lambdas.get(value));
+			} else if (value instanceof Proc) {
+				out.writeByte(PROC);
+				out.writeInt(procs.get(value));
+			} else {
+				out.writeByte(BUILTIN);
+				out.writeInt(symbols.get(
+						Symbol.intern(((Builtin) value).getName())));
+			}
+		}
+
+		private static <T> List<T> inOrder(final Map<T, Integer> numbered) {
+			final Object[] ordered = new Object[numbered.size()];
+			for (final Map.Entry<T, Integer> entry : numbered.entrySet()) {
+				ordered[entry.getValue()] = entry.getKey();
+			}
+			@SuppressWarnings("unchecked")
+			final List<T> result = (List<T>) Arrays.asList(ordered);
+			return result;
+		}
+
+	}
+
+	//
+	// Loading
+	//
+
+	private static final class Reader {
+
+		private final ByteBuffer buffer;
+
+		private final Environment env = Builtins.getGlobalEnvironment();
+
+		private Symbol[] symbols;
+
+		private Lambda[] lambdas;
+
+		private Frame[] frames;
+
+		private Proc[] procs;
+
+		Reader(final ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		Environment read() throws IOException {
+			if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+				throw new IOException("Not a Toytown image");
+			}
+			final int version = buffer.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported image version " + version);
+			}
+
+			symbols = new Symbol[count()];
+			for (int i=0; i<symbols.length; ++i) {
+				symbols[i] = Symbol.intern(string());
+			}
+
+			lambdas = new Lambda[count()];
+			for (int i=0; i<lambdas.length; ++i) {
+				final int name = buffer.getInt();
+				final boolean boundAllArgsAsList = buffer.get() != 0;
+				final int formalCount = count();
+				final List<Symbol> formals =
+						new ArrayList<Symbol>(formalCount);
+				for (int j=0; j<formalCount; ++j) {
+					formals.add(symbol(buffer.getInt()));
+				}
+				final int frameSize = buffer.getInt();
+				final Object body = readValue();
+				lambdas[i] = new Lambda(name < 0 ? null : symbol(name),
+						formals, boundAllArgsAsList, frameSize, body);
+			}
+
+			final Frame top = new Frame(env);
+			frames = new Frame[count()];
+			for (int i=0; i<frames.length; ++i) {
+				final Frame parent = frame(buffer.getInt(), top);
+				frames[i] = new Frame(parent, new Object[count()]);
+			}
+
+			procs = new Proc[count()];
+			for (int i=0; i<procs.length; ++i) {
+				final Lambda lambda = lambda(buffer.getInt());
+				procs[i] = new Proc(lambda, frame(buffer.getInt(), top));
+			}
+
+			for (final Frame frame : frames) {
+				final Object[] slots = frame.getSlots();
+				for (int i=0; i<slots.length; ++i) {
+					slots[i] = readValue();
+				}
+			}
+
+			for (int i=0, n=count(); i<n; ++i) {
+				final Symbol name = symbol(buffer.getInt());
+				env.put(name, readValue());
+			}
+			return env;
+		}
+
+		private Object readValue() throws IOException {
+			final byte tag = buffer.get();
+			switch (tag) {
+			case NULL:
+				return null;
+			case TRUE:
+				return Boolean.TRUE;
+			case FALSE:
+				return Boolean.FALSE;
+			case LONG:
+				return Numbers.valueOf(buffer.getLong());
+			case DOUBLE:
+				return buffer.getDouble();
+			case BIG_INTEGER:
+				return new BigInteger(bytes());
+			case SYMBOL:
+				return symbol(buffer.getInt());
+			case LIST: {
+				final Object[] elements = new Object[count()];
+				for (int i=0; i<elements.length; ++i) {
+					elements[i] = readValue();
+				}
+				return LispList.of(elements);
+			}
+			case FORM: {
+				final Object[] elements = new Object[count()];
+				for (int i=0; i<elements.length; ++i) {
+					elements[i] = readValue();
+				}
+				return new Form(elements);
+			}
+			case SPECIAL_FORM: {
+				final int ordinal = buffer.get();
+				final SpecialForm[] values = SpecialForm.values();
+				if (ordinal < 0 || ordinal >= values.length) {
+					throw corrupt("special form " + ordinal);
+				}
+				return values[ordinal];
+			}
+			case DOT:
+				return new Dot(string());
+			case LOCAL_REF: {
+				final Symbol name = symbol(buffer.getInt());
+				final int depth = buffer.getInt();
+				final int slot = buffer.getInt();
+				return new LocalRef(name, depth, slot, readValue());
+			}
+			case LAMBDA:
+				return lambda(buffer.getInt());
+			case PROC: {
+				final int index = buffer.getInt();
+				if (index < 0 || index >= procs.length) {
+					throw corrupt("procedure " + index);
+				}
+				return procs[index];
+			}
+			case BUILTIN: {
+				final Symbol name = symbol(buffer.getInt());
+				final Object builtin = Builtins.getBaseEnvironment().get(name);
+				if (!(builtin instanceof Builtin)) {
+					throw new IOException("No such builtin: " + name);
+				}
+				return builtin;
+			}
+			default:
+				throw corrupt("tag " + tag);
+			}
+		}
+
+		private int count() throws IOException {
+			final int count = buffer.getInt();
+			if (count < 0 || count > buffer.remaining()) {
+				throw corrupt("count " + count);
+			}
+			return count;
+		}
+
+		private byte[] bytes() throws IOException {
+			final byte[] bytes = new byte[count()];
+			buffer.get(bytes);
+			return bytes;
+		}
+
+		private String string() throws IOException {
+			return new String(bytes(), UTF_8);
+		}
+
+		private Symbol symbol(final int index) throws IOException {
+			if (index < 0 || index >= symbols.length) {
+				throw corrupt("symbol " + index);
+			}
+			return symbols[index];
+		}
+
+		private Lambda lambda(final int index) throws IOException {
+			// Lambdas are saved after any nested in their bodies
+			if (index < 0 || index >= lambdas.length
+					|| lambdas[index] == null) {
+				throw corrupt("lambda " + index);
+			}
+			return lambdas[index];
+		}
+
+		private Frame frame(final int index, final Frame top)
+				throws IOException {
+			if (index == TOP) {
+				return top;
+			}
+			// Frames are saved after their parents
+			if (index < 0 || index >= frames.length
+					|| frames[index] == null) {
+				throw corrupt("frame " + index);
+			}
+			return frames[index];
+		}
+
+		private static IOException corrupt(final String what) {
+			return new IOException("Corrupt image: bad " + what);
+		}
+
+	}
+
+}
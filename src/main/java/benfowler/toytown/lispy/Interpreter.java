@@ -21,10 +21,10 @@
 
 package benfowler.toytown.lispy;
 
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -33,22 +33,96 @@ import java.util.List;
  */
 public class Interpreter {
 
+	private static volatile Engine engine = Engine.getDefault();
+
+	private static volatile ProgramCache programCache = createProgramCache();
+
+	private static volatile boolean optimizing =
+			Boolean.getBoolean(Optimizer.PROPERTY);
+
+	public static Engine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Choose how subsequent top-level evaluations are carried out.  The
+	 * default comes from the {@value Engine#PROPERTY} system property.
+	 */
+	public static void setEngine(final Engine engine) {
+		Interpreter.engine = engine;
+	}
+
+	public static boolean isOptimizing() {
+		return optimizing;
+	}
+
+	/**
+	 * Choose whether programs are optimized before they are evaluated; see
+	 * {@link Optimizer}.  The default comes from the
+	 * {@value Optimizer#PROPERTY} system property, and is off.
+	 */
+	public static void setOptimizing(final boolean optimizing) {
+		Interpreter.optimizing = optimizing;
+	}
+
+	/**
+	 * @return the cache of parsed programs, or null if there isn't one
+	 */
+	public static ProgramCache getProgramCache() {
+		return programCache;
+	}
+
+	/**
+	 * Install a cache of parsed programs, or remove it.  By default there is
+	 * one only if the {@value ProgramCache#PROPERTY} system property is set.
+	 */
+	public static void setProgramCache(final ProgramCache programCache) {
+		Interpreter.programCache = programCache;
+	}
+
+	private static ProgramCache createProgramCache() {
+		final Integer size = Integer.getInteger(ProgramCache.PROPERTY);
+		return size != null && size > 0 ? new ProgramCache(size) : null;
+	}
+
+	/**
+	 * @return a new, mutable global environment.  The builtins live in a
+	 * shared, read-only outer environment, so this is cheap.
+	 */
 	public static Environment getGlobalEnvironment() {
 		return Builtins.getGlobalEnvironment();
 	}
 
+	/**
+	 * @return a new session, with its own global environment
+	 */
+	public static Session newSession() {
+		return new Session();
+	}
+
+	/**
+	 * @return a new session, continuing from the definitions saved in an
+	 * image; see {@link Image}
+	 */
+	public static Session newSession(final File image) throws IOException {
+		return new Session(Image.load(image));
+	}
+
 	public static Object read(final String program) throws EvalException {
 		return parse(program);
 	}
 
 	public static Object parse(final String program) throws EvalException {
-		final Lexer lexer = new Lexer(program);
-		Object result = null;
-		if (lexer.peekToken().equals("(")) {
-			result = sExpression(lexer);
-		} else {
-			result = lexer.consumeToken();
+		final ProgramCache cache = programCache;
+		if (cache != null) {
+			return cache.get(program).getForm();
 		}
+		return parseSource(program);
+	}
+
+	static Object parseSource(final String program) throws EvalException {
+		final Lexer lexer = new Lexer(program);
+		final Object result = readForm(lexer, new ArrayList<Object>());
 
 		if (lexer.hasMoreTokens()) {
 			throw new ParseException(Errors.TOKEN_AFTER_END_OF_PROGRAM);
@@ -61,71 +135,305 @@ public class Interpreter {
 		return eval(arg, getGlobalEnvironment());
 	}
 
+	/**
+	 * Evaluate a parsed form.  A form parsed through a {@link ProgramCache}
+	 * is run as the cached program, so it isn't resolved or analyzed again.
+	 */
 	public static Object eval(final Object arg, final Environment env)
 	throws EvalException {
-		if (arg instanceof Double || arg instanceof Boolean) {
-			// literal
-			return arg;
-		} else if (arg instanceof Symbol) {
-			// symbol
-			final Object resolved = env.get(arg.toString());
-			if (resolved == null) {
-				throw new EvalException(Errors.SYMBOL_NOT_FOUND,
-						arg.toString());
+		final ProgramCache cache = programCache;
+		final Program cached = cache != null ? cache.find(arg) : null;
+		return eval(cached != null ? cached : new Program(arg), env);
+	}
+
+	/**
+	 * Parse and evaluate a program.  With a {@link ProgramCache}, a program
+	 * seen before is run without being parsed or analyzed again.
+	 */
+	public static Object eval(final String program, final Environment env)
+	throws EvalException {
+		final ProgramCache cache = programCache;
+		return eval(cache != null ? cache.get(program)
+				: new Program(parseSource(program)), env);
+	}
+
+	/**
+	 * Evaluate each form of a program in turn.  A form is only read, and
+	 * evaluated, when its result is asked for, so each result is available
+	 * as soon as its form has run.
+	 * @return results of the forms, in order
+	 */
+	public static Iterator<Object> evalEach(final FormReader forms,
+			final Environment env) {
+		return new Iterator<Object>() {
+			@Override
+			public boolean hasNext() {
+				return forms.hasNext();
 			}
-			return resolved;
-		} else if (arg instanceof List) {
-			List<?> args = (List<?>)arg;
-			if (args.size() == 0) {
-				return args;
+
+			@Override
+			public Object next() {
+				return eval(forms.next(), env);
 			}
 
-			if (args.get(0) instanceof Dot) {
-				return dot(args, env);
-			} else if (args.get(0) instanceof SpecialForm) {
-				final SpecialForm sf = (SpecialForm)args.get(0);
-				switch(sf) {
-				case QUOTE:
-					return quote(args);
-				case IF:
-					return if_(args, env);
-				case BEGIN:
-					return begin(args, env);
-				case SET_:
-					return set_(args, env);
-				case DEFINE:
-					return define(args, env);
-				case LAMBDA:
-					return lambda(args, env);
-				default:
-					throw new EvalException(Errors.INTERNAL_ERROR,
-							String.format("Unexpected special form: %s",
-									args.get(0).toString()));
-				}
-			} else {
-				return proc(args, env);
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
 			}
+		};
+	}
 
-		} else {
-			// bad input
-			throw new EvalException(Errors.CANNOT_EVAL,
-					arg.getClass().getName(), arg.toString());
+	/**
+	 * Evaluate every form of a program in turn.
+	 * @return result of the last form, or null if there are none
+	 */
+	public static Object load(final FormReader forms, final Environment env)
+	throws LispException {
+		Object result = null;
+		while (forms.hasNext()) {
+			result = eval(forms.next(), env);
+		}
+		return result;
+	}
+
+	private static Object eval(final Program program, final Environment env) {
+		if (!Metrics.on()) {
+			return run(program, env);
+		}
+		final long start = System.nanoTime();
+		try {
+			return run(program, env);
+		} finally {
+			Metrics.evaluated(System.nanoTime() - start);
+		}
+	}
+
+	private static Object run(Program program, final Environment env) {
+		if (optimizing) {
+			final Program optimized = program.getOptimized();
+			if (optimized.isValidIn(env)) {
+				program = optimized;
+			}
+		}
+		final Frame frame = new Frame(env);
+		if (engine == Engine.CLOSURE_COMPILER) {
+			return program.getAnalyzed().execute(frame);
 		}
+		return eval(program.getResolved(), frame);
 	}
 
-	private static List<Object> sExpression(final Lexer lexer)
+	/**
+	 * Call a procedure or builtin from Java.
+	 * @param procedure a {@link Proc} or {@link Builtin}
+	 * @param args evaluated arguments
+	 * @return result of the call
+	 */
+	public static Object apply(final Object procedure, final Object... args)
 	throws EvalException {
-		List<Object> result = new LinkedList<Object>();
-		lexer.expect("(");
-		while (!lexer.peekToken().equals(")")) {
-			if (lexer.peekToken().equals("(")) {
-				result.add(sExpression(lexer));
+		if (procedure instanceof Builtin) {
+			return ((Builtin) procedure).call(args);
+		} else if (!(procedure instanceof Proc)) {
+			throw new EvalException(Errors.PROC_EXPECTED);
+		}
+		final Proc proc = (Proc) procedure;
+		final Lambda lambda = proc.getLambda();
+		final Object[] actualArgs = lambda.newArguments(args.length);
+		System.arraycopy(args, 0, actualArgs, 0, args.length);
+		proc.invoked();
+		final Frame frame = proc.bind(actualArgs, args.length);
+		if (engine == Engine.CLOSURE_COMPILER || lambda.isBytecodeCompiled()) {
+			return TailCall.run(lambda, frame);
+		}
+		if (!Metrics.on()) {
+			return eval(lambda.getBody(), frame);
+		}
+		Metrics.procedureEntered();
+		try {
+			return eval(lambda.getBody(), frame);
+		} finally {
+			Metrics.procedureExited();
+		}
+	}
+
+	/**
+	 * Evaluate a form which has been through the {@link Resolver}.  Forms in
+	 * tail position (the chosen branch of an 'if', the last form of a
+	 * 'begin', and the body of a called procedure) are evaluated by going
+	 * round the loop again, rather than by recursion, so that tail calls run
+	 * in constant Java stack.
+	 */
+	private static Object eval(Object arg, Frame frame)
+	throws EvalException {
+		// Whether this loop is running a procedure, for Metrics
+		boolean entered = false;
+		try {
+			for (;;) {
+				if (arg instanceof Number || arg instanceof Boolean) {
+					// literal
+					return arg;
+				} else if (arg instanceof LocalRef) {
+					// local variable
+					final LocalRef ref = (LocalRef)arg;
+					final Object resolved = frame.lookup(ref.getDepth(),
+							ref.getSlot());
+					if (resolved == null) {
+						if (ref.getFallback() != null) {
+							// Not defined yet; try the enclosing binding
+							arg = ref.getFallback();
+							continue;
+						}
+						throw new EvalException(Errors.SYMBOL_NOT_FOUND,
+								arg.toString());
+					}
+					return resolved;
+				} else if (arg instanceof Symbol) {
+					// global variable
+					final Object resolved = frame.getEnvironment().get((Symbol)arg);
+					if (resolved == null) {
+						throw new EvalException(Errors.SYMBOL_NOT_FOUND,
+								arg.toString());
+					}
+					return resolved;
+				} else if (arg instanceof Lambda) {
+					return new Proc((Lambda)arg, frame);
+				} else if (arg instanceof List) {
+					List<?> args = (List<?>)arg;
+					if (args.size() == 0) {
+						return Nil.NIL;
+					}
+
+					if (args.get(0) instanceof Dot) {
+						return dot(args, frame);
+					} else if (args.get(0) instanceof SpecialForm) {
+						final SpecialForm sf = (SpecialForm)args.get(0);
+						switch(sf) {
+						case QUOTE:
+							return quote(args);
+						case IF:
+							arg = if_(args, frame);
+							if (arg == null) {
+								return null;
+							}
+							continue;
+						case BEGIN:
+							arg = begin(args, frame);
+							continue;
+						case SET_:
+							return set_(args, frame);
+						case DEFINE:
+							return define(args, frame);
+						default:
+							throw new EvalException(Errors.INTERNAL_ERROR,
+									String.format("Unexpected special form: %s",
+											args.get(0).toString()));
+						}
+					} else {
+						// Procedure call.  Head element is proc object.  Tail is
+						// list of actual arguments
+						final Object head = eval(args.get(0), frame);
+						final int numOfActualArgs = args.size() - 1;
+						final Object[] actualArgs = (head instanceof Proc
+								? ((Proc) head).getLambda()
+										.newArguments(numOfActualArgs)
+								: new Object[numOfActualArgs]);
+						for (int i=0; i<numOfActualArgs; ++i) {
+							actualArgs[i] = eval(args.get(i + 1), frame);
+						}
+
+						if (head instanceof Builtin) {
+							return ((Builtin) head).call(actualArgs);
+						} else if (!(head instanceof Proc)) {
+							throw new EvalException(Errors.PROC_EXPECTED);
+						}
+
+						// Execute body in nested frame, or hand over to the
+						// compiled body, if there is one
+						final Proc proc = (Proc) head;
+						proc.invoked();
+						frame = proc.bind(actualArgs, numOfActualArgs);
+						if (proc.getLambda().isBytecodeCompiled()) {
+							if (entered) {
+								// TailCall.run counts the procedure instead
+								entered = false;
+								Metrics.procedureExited();
+							}
+							return TailCall.run(proc.getLambda(), frame);
+						}
+						if (!entered && Metrics.on()) {
+							entered = true;
+							Metrics.procedureEntered();
+						}
+						arg = proc.getBody();
+						continue;
+					}
+
+				} else {
+					// bad input
+					throw new EvalException(Errors.CANNOT_EVAL,
+							arg.getClass().getName(), arg.toString());
+				}
+			}
+		} finally {
+			if (entered) {
+				Metrics.procedureExited();
+			}
+		}
+	}
+
+	/**
+	 * Read one top-level form, which is either an s-expression or an atom.
+	 * @param stack scratch space for the elements of nested forms
+	 */
+	static Object readForm(final Lexer lexer, final List<Object> stack)
+	throws EvalException {
+		if (lexer.peekType() == Lexer.TokenType.OPEN) {
+			return sExpression(lexer, stack);
+		}
+		return lexer.consumeToken();
+	}
+
+	/**
+	 * Parse a parenthesised s-expression into a {@link Form}.  Elements are
+	 * accumulated on a scratch stack shared by the whole parse, so that each
+	 * form is allocated once, at its final size.  The operand of a
+	 * <tt>quote</tt> is data rather than code, and is converted into a list.
+	 */
+	private static Form sExpression(final Lexer lexer,
+			final List<Object> stack) throws EvalException {
+		final int base = stack.size();
+		lexer.expect(Lexer.OPEN_PAREN);
+		Lexer.TokenType type;
+		while ((type = lexer.peekType()) != Lexer.TokenType.CLOSE) {
+			if (type == Lexer.TokenType.OPEN) {
+				stack.add(sExpression(lexer, stack));
 			} else {
-				result.add(lexer.consumeToken());
+				stack.add(lexer.consumeToken());
 			}
 
 		}
-		lexer.expect(")");
+		lexer.expect(Lexer.CLOSE_PAREN);
+
+		final List<Object> elements = stack.subList(base, stack.size());
+		final Object[] result = elements.toArray();
+		elements.clear();
+		if (result.length == 2 && result[0] == SpecialForm.QUOTE) {
+			result[1] = toData(result[1]);
+		}
+		return new Form(result);
+	}
+
+	/**
+	 * Convert a parsed (quoted) expression into list data.
+	 */
+	private static Object toData(final Object expression) {
+		if (!(expression instanceof Form)) {
+			return expression;
+		}
+		final Form form = (Form) expression;
+		LispList result = Nil.NIL;
+		for (int i=form.size() - 1; i>=0; --i) {
+			result = result.cons(toData(form.get(i)));
+		}
 		return result;
 	}
 
@@ -135,61 +443,37 @@ public class Interpreter {
 	 * @return result
 	 * @see http://clojure.org/java_interop
 	 */
-	private static Object dot(final List<?> args, final Environment env) {
+	private static Object dot(final List<?> args, final Frame frame) {
 		if (args.size() < 2) {
 			throw new EvalException(Errors.INVALID_NUMBER_OF_ARGUMENTS,
 					2, -1, args.size()-1);
 		}
-		if (!(args.get(1) instanceof Symbol)) {
+		if (!(args.get(1) instanceof Symbol
+				|| args.get(1) instanceof LocalRef)) {
 			throw new EvalException(Errors.INSTANCE_OR_CLASSNAME_EXPECTED,
 					args.get(1));
 		}
 
-		final String methodName = ((Dot)args.get(0)).getMethodName();
-		final String instanceOrClassName = ((Symbol)args.get(1)).toString();
+		final DotCallSite callSite = ((Dot)args.get(0)).getCallSite();
+		final String instanceOrClassName = args.get(1).toString();
 
 		Object instance = null;
 		Class<?> instanceClass = null;
-		if (env.containsKey(instanceOrClassName)) {
-			instance = env.get(instanceOrClassName);
+		if (args.get(1) instanceof LocalRef
+				|| frame.getEnvironment().isBound((Symbol)args.get(1))) {
+			instance = eval(args.get(1), frame);
 			instanceClass = instance.getClass();
 		} else {
-			try {
-				instanceClass = Class.forName(instanceOrClassName);
-			} catch (ClassNotFoundException e) {
-				throw new EvalException(
-						Errors.INSTANCE_OR_CLASSNAME_NOT_FOUND,
-						instanceOrClassName);
-			}
+			instanceClass = ClassCache.forName(instanceOrClassName);
 		}
 
-		List<Object> argInstances = new LinkedList<Object>();
-		List<Class<?>> argClasses = new LinkedList<Class<?>>();
-		for (int i=2; i<args.size(); ++i) {
-			Object arg = args.get(i);
-			final Object evaluatedArg = eval(arg, env);
-			argInstances.add(evaluatedArg);
-			argClasses.add(evaluatedArg.getClass());
+		final Object[] argInstances = new Object[args.size() - 2];
+		for (int i=0; i<argInstances.length; ++i) {
+			argInstances[i] = eval(args.get(i + 2), frame);
 		}
 
-		Method method = null;
-		try {
-			method = instanceClass.getDeclaredMethod(methodName,
-					argClasses.toArray(new Class<?>[] {}));
-
-			// Sanity check for static calls
-			if (instance == null && !Modifier.isStatic(method.getModifiers())) {
-				throw new EvalException(Errors.NONSTATIC_CALL_IN_STATIC_CTX,
-						method.toString());
-			}
-
-			return method.invoke(instance,
-					argInstances.toArray(new Object[] {}));
-		} catch (Exception e) {
-			throw new EvalException(Errors.BAD_METHOD_INVOCATION,
-					e.getClass().getName(), instanceOrClassName, methodName,
-					e.getMessage());
-		}
+		return callSite.invoke(instance, instanceClass, instanceOrClassName,
+				argInstances);
 	}
 
 	private static Object quote(final List<?> args) {
@@ -200,158 +484,93 @@ public class Interpreter {
 		return args.get(1);
 	}
 
-	private static Object if_(final List<?> args, final Environment env) {
+	/**
+	 * @return the branch of the 'if' to evaluate next, or null if there
+	 * is none
+	 */
+	private static Object if_(final List<?> args, final Frame frame) {
 		if (args.size() < 3 || args.size() > 4) {
 			throw new EvalException(Errors.INVALID_NUMBER_OF_ARGUMENTS,
 					2, 3, args.size()-1);
 		}
-		final Object cond = eval(args.get(1), env);
+		final Object cond = eval(args.get(1), frame);
 		if (!(cond instanceof Boolean)) {
 			throw new EvalException(Errors.BAD_IF_CONDITION,
 					cond.getClass().getName());
 		}
 		if (((Boolean)cond).booleanValue()) {
 			// conseq
-			return eval(args.get(2), env);
+			return args.get(2);
 		} else  {
 			// alt
 			if (args.size() == 4) {
-				return eval(args.get(3), env);
+				return args.get(3);
 			}
 		}
 		return null;
 	}
 
-	private static Object begin(final List<?> args, final Environment env) {
+	/**
+	 * Evaluate all but the last form of a 'begin'
+	 * @return the last form, to evaluate next
+	 */
+	private static Object begin(final List<?> args, final Frame frame) {
 		if (args.size() < 2) {
 			throw new EvalException(Errors.INVALID_NUMBER_OF_ARGUMENTS,
 					1, -1, args.size()-1);
 		}
-		Object result = null;
-		for (int i=1; i<args.size(); ++i) {
-			result = eval(args.get(i), env);
+		final int last = args.size() - 1;
+		for (int i=1; i<last; ++i) {
+			eval(args.get(i), frame);
 		}
-		return result;
+		return args.get(last);
 	}
 
-	private static Object set_(final List<?> args, final Environment env) {
+	private static Object set_(final List<?> args, final Frame frame) {
 		if (args.size() != 3) {
 			throw new EvalException(Errors.INVALID_NUMBER_OF_ARGUMENTS,
 					3, 3, args.size()-1);
 		}
+		if (args.get(1) instanceof LocalRef) {
+			final LocalRef ref = (LocalRef) args.get(1);
+			if (frame.lookup(ref.getDepth(), ref.getSlot()) == null) {
+				throw new EvalException(Errors.SYMBOL_MUST_BE_DEFINED,
+						ref.getName());
+			}
+			frame.assign(ref.getDepth(), ref.getSlot(),
+					eval(args.get(2), frame));
+			return null;
+		}
 		if (!(args.get(1) instanceof Symbol)) {
 			throw new EvalException(Errors.SYMBOL_EXPECTED);
 		}
-		final String newName = ((Symbol) args.get(1)).toString();
-		if (!env.containsKey(newName)) {
+		final Symbol newName = (Symbol) args.get(1);
+		final Environment env = frame.getEnvironment();
+		if (!env.isBound(newName)) {
 			throw new EvalException(Errors.SYMBOL_MUST_BE_DEFINED,
 					newName);
 		}
-		env.put(newName, eval(args.get(2), env));
+		env.assign(newName, eval(args.get(2), frame));
 		return null;
 	}
 
-	private static Object define(final List<?> args, final Environment env) {
+	private static Object define(final List<?> args, final Frame frame) {
 		if (args.size() != 3) {
 			throw new EvalException(Errors.INVALID_NUMBER_OF_ARGUMENTS,
 					3, 3, args.size()-1);
 		}
+		if (args.get(1) instanceof LocalRef) {
+			final LocalRef ref = (LocalRef) args.get(1);
+			frame.assign(ref.getDepth(), ref.getSlot(),
+					eval(args.get(2), frame));
+			return null;
+		}
 		if (!(args.get(1) instanceof Symbol)) {
 			throw new EvalException(Errors.SYMBOL_EXPECTED);
 		}
-		final String name = ((Symbol) args.get(1)).toString();
-		env.put(name, eval(args.get(2), env));
+		final Symbol name = (Symbol) args.get(1);
+		frame.getEnvironment().put(name, eval(args.get(2), frame));
 		return null;
 	}
 
-	/**
-	 * Process 'lambda' special form
-	 */
-	private static Proc lambda(final List<?> args, final Environment env) {
-		if (args.size() != 3) {
-			throw new EvalException(Errors.INVALID_NUMBER_OF_ARGUMENTS,
-					3, 3, args.size()-1);
-		}
-		if (!(args.get(1) instanceof List || args.get(1) instanceof Symbol)) {
-			throw new EvalException(Errors.EXPECTED_LIST_OF_ARGUMENTS,
-					args.get(1));
-		}
-
-		Proc result = null;
-		final Object body = args.get(2);
-
-		if (args.get(1) instanceof List) {
-			// If formal args appear as list, bind each variable individually.
-
-			final List<?> formalArgs = (List<?>) args.get(1);
-			final List<String> formalArgNames = new LinkedList<String>();
-			for (final Object o : formalArgs) {
-				if (!(o instanceof Symbol)) {
-					throw new EvalException(Errors.EXPECTED_LIST_OF_ARGUMENTS,
-							o);
-				}
-				formalArgNames.add(((Symbol)o).toString());
-			}
-			result = new Proc(formalArgNames, env, body);
-
-		} else if (args.get(1) instanceof Symbol) {
-
-			 // If formal arg is a symbol, then all arguments are bound to a
-			 // single variable when invoked.
-			result = new Proc(Collections.singletonList(args.get(1).toString()),
-					env, body, true);
-		}
-
-		return result;
-	}
-
-	private static Object proc(final List<?> list, final Environment env) {
-
-		// Evaluate entire list.  Head element is proc object.  Tail is list
-		// of actual arguments
-		final List<Object> evaldList = new LinkedList<Object>();
-		for (Object elem : list) {
-			evaldList.add(eval(elem, env));
-		}
-		final int numOfActualArgs = evaldList.size() - 1;
-
-		if (!(evaldList.get(0) instanceof Proc)) {
-			throw new EvalException(Errors.PROC_EXPECTED);
-		}
-
-		final Proc proc = (Proc) evaldList.get(0);
-
-		// Get formal arguments; do some sanity checks
-		final List<String> formalArgs = proc.getFormalArguments();
-
-		// Bind arguments
-		final Environment procEnv = new Environment(proc.getEnvironment());
-		if (proc.isBoundAllArgsAsList()) {
-			// Turn all actual arguments into list, pass as sole parameter
-			if (formalArgs.size() != 1) {
-				throw new EvalException(Errors.INTERNAL_ERROR, "when binding " +
-						"all arguments to proc as list, only one formal " +
-						"argument allowed");
-			}
-			final List<Object> mergedActualArguments = new LinkedList<Object>();
-			for (int i=1; i<evaldList.size(); ++i) {
-				mergedActualArguments.add(evaldList.get(i));
-			}
-			procEnv.put(formalArgs.get(0), mergedActualArguments);
-		} else {
-			// Bind each argument to different formal argument
-			if (formalArgs.size() != numOfActualArgs) {
-				throw new EvalException(Errors.INVALID_NUMBER_OF_ARGUMENTS,
-					formalArgs.size(), formalArgs.size(), numOfActualArgs);
-			}
-
-			for (int i=0; i<formalArgs.size(); ++i) {
-				procEnv.put(formalArgs.get(i), evaldList.get(i+1));
-			}
-		}
-
-		// Execute in nested environment
-		return eval(proc.getBody(), procEnv);
-	}
-
 }
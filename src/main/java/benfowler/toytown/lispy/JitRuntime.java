@@ -0,0 +1,234 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+/**
+ * Operations called from code generated by the {@link BytecodeCompiler}.
+ * Generated classes live in their own class loader, and so can only reach
+ * public members of the interpreter; this class gives them that access.  It
+ * is not intended to be called from anywhere else.
+ */
+public final class JitRuntime {
+
+	private static final Object PLUS = builtin("+");
+	private static final Object MINUS = builtin("-");
+	private static final Object TIMES = builtin("*");
+	private static final Object LESS_THAN = builtin("<");
+	private static final Object GREATER_THAN = builtin(">");
+	private static final Object LESS_OR_EQUAL = builtin("<=");
+	private static final Object GREATER_OR_EQUAL = builtin(">=");
+	private static final Object NUMERIC_EQUALS = builtin("=");
+
+	private JitRuntime() { }
+
+	public static Object[] slots(final Frame frame) {
+		return frame.getSlots();
+	}
+
+	public static Object local(final Object value, final String name) {
+		if (value == null) {
+			throw new EvalException(Errors.SYMBOL_NOT_FOUND, name);
+		}
+		return value;
+	}
+
+	/**
+	 * Read a name defined in a procedure body, falling back on the enclosing
+	 * binding until it is defined
+	 */
+	public static Object local(final Object value, final Node fallback,
+			final Frame frame) {
+		return value != null ? value : fallback.execute(frame);
+	}
+
+	public static Object global(final Frame frame, final GlobalSite site) {
+		return site.get(frame.getEnvironment());
+	}
+
+	public static boolean test(final Object value) {
+		if (!(value instanceof Boolean)) {
+			throw new EvalException(Errors.BAD_IF_CONDITION,
+					value.getClass().getName());
+		}
+		return ((Boolean) value).booleanValue();
+	}
+
+	public static Object closure(final Lambda lambda, final Frame frame) {
+		return new Proc(lambda, frame);
+	}
+
+	public static void checkLocalDefined(final Frame frame, final int depth,
+			final int slot, final String name) {
+		if (frame.lookup(depth, slot) == null) {
+			throw new EvalException(Errors.SYMBOL_MUST_BE_DEFINED, name);
+		}
+	}
+
+	public static void defineGlobal(final Frame frame, final Symbol name,
+			final Object value) {
+		frame.getEnvironment().put(name, value);
+	}
+
+	public static void checkGlobalDefined(final Frame frame,
+			final Symbol name) {
+		if (!frame.getEnvironment().isBound(name)) {
+			throw new EvalException(Errors.SYMBOL_MUST_BE_DEFINED, name);
+		}
+	}
+
+	public static void setGlobal(final Frame frame, final Symbol name,
+			final Object value) {
+		frame.getEnvironment().assign(name, value);
+	}
+
+	//
+	// Calls
+	//
+
+	/**
+	 * Allocate an array to evaluate the actual arguments of a call into;
+	 * see {@link Lambda#newArguments(int)}.
+	 */
+	public static Object[] newArguments(final Object head, final int count) {
+		return head instanceof Proc
+				? ((Proc) head).getLambda().newArguments(count)
+				: new Object[count];
+	}
+
+	public static Object call(final Object head, final Object[] args,
+			final int count) {
+		if (head instanceof Builtin) {
+			return ((Builtin) head).call(args);
+		}
+		final Proc proc = proc(head);
+		return TailCall.run(proc.getLambda(), proc.bind(args, count));
+	}
+
+	/**
+	 * Make a call in tail position.  Procedure calls are returned as a
+	 * {@link TailCall}, to be made by the caller.
+	 */
+	public static Object tailCall(final Object head, final Object[] args,
+			final int count) {
+		if (head instanceof Builtin) {
+			return ((Builtin) head).call(args);
+		}
+		final Proc proc = proc(head);
+		return new TailCall(proc.getLambda(), proc.bind(args, count));
+	}
+
+	private static Proc proc(final Object head) {
+		if (!(head instanceof Proc)) {
+			throw new EvalException(Errors.PROC_EXPECTED);
+		}
+		final Proc proc = (Proc) head;
+		proc.invoked();
+		return proc;
+	}
+
+	//
+	// Two-argument calls to arithmetic and comparison builtins.  Each is
+	// made inline if the name is still bound to the builtin and the
+	// arguments are numbers, and as an ordinary call otherwise.
+	//
+
+	public static Object add(final Object head, final Object a,
+			final Object b, final boolean tail) {
+		if (head == PLUS && a instanceof Number && b instanceof Number) {
+			return Numbers.add((Number) a, (Number) b);
+		}
+		return call(head, a, b, tail);
+	}
+
+	public static Object subtract(final Object head, final Object a,
+			final Object b, final boolean tail) {
+		if (head == MINUS && a instanceof Number && b instanceof Number) {
+			return Numbers.subtract((Number) a, (Number) b);
+		}
+		return call(head, a, b, tail);
+	}
+
+	public static Object multiply(final Object head, final Object a,
+			final Object b, final boolean tail) {
+		if (head == TIMES && a instanceof Number && b instanceof Number) {
+			return Numbers.multiply((Number) a, (Number) b);
+		}
+		return call(head, a, b, tail);
+	}
+
+	public static Object lessThan(final Object head, final Object a,
+			final Object b, final boolean tail) {
+		if (head == LESS_THAN && a instanceof Number && b instanceof Number) {
+			return Numbers.lessThan((Number) a, (Number) b);
+		}
+		return call(head, a, b, tail);
+	}
+
+	public static Object greaterThan(final Object head, final Object a,
+			final Object b, final boolean tail) {
+		if (head == GREATER_THAN && a instanceof Number
+				&& b instanceof Number) {
+			return Numbers.greaterThan((Number) a, (Number) b);
+		}
+		return call(head, a, b, tail);
+	}
+
+	public static Object lessOrEqual(final Object head, final Object a,
+			final Object b, final boolean tail) {
+		if (head == LESS_OR_EQUAL && a instanceof Number
+				&& b instanceof Number) {
+			return Numbers.lessOrEqual((Number) a, (Number) b);
+		}
+		return call(head, a, b, tail);
+	}
+
+	public static Object greaterOrEqual(final Object head, final Object a,
+			final Object b, final boolean tail) {
+		if (head == GREATER_OR_EQUAL && a instanceof Number
+				&& b instanceof Number) {
+			return Numbers.greaterOrEqual((Number) a, (Number) b);
+		}
+		return call(head, a, b, tail);
+	}
+
+	public static Object numericEquals(final Object head, final Object a,
+			final Object b, final boolean tail) {
+		if (head == NUMERIC_EQUALS && a instanceof Number
+				&& b instanceof Number) {
+			return Numbers.numericEquals((Number) a, (Number) b);
+		}
+		return call(head, a, b, tail);
+	}
+
+	private static Object call(final Object head, final Object a,
+			final Object b, final boolean tail) {
+		final Object[] args = newArguments(head, 2);
+		args[0] = a;
+		args[1] = b;
+		return tail ? tailCall(head, args, 2) : call(head, args, 2);
+	}
+
+	private static Object builtin(final String name) {
+		return Builtins.getBaseEnvironment().get(Symbol.intern(name));
+	}
+
+}
@@ -0,0 +1,161 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import java.util.List;
+
+/**
+ * Resolved lambda expression: the code shared by every {@link Proc} created
+ * from it.  Formal arguments occupy the first slots of the activation frame,
+ * followed by any names defined within the body.
+ */
+public final class Lambda {
+
+	/** Name the lambda was defined as, if any */
+	private final Symbol name;
+
+	private final List<Symbol> formalArguments;
+
+	private final boolean boundAllArgsAsList;
+
+	private final int frameSize;
+
+	private final Object body;
+
+	/** Body, analyzed on demand; see {@link #getCompiledBody()} */
+	private volatile Node compiledBody;
+
+	/** Whether compiledBody has been replaced by generated bytecode */
+	private volatile boolean bytecodeCompiled;
+
+	/** Set if compilation to bytecode was tried, and failed */
+	private boolean bytecodeFailed;
+
+	public Lambda(final List<Symbol> formalArguments,
+			final boolean boundAllArgsAsList, final int frameSize,
+			final Object body) {
+		this(null, formalArguments, boundAllArgsAsList, frameSize, body);
+	}
+
+	public Lambda(final Symbol name, final List<Symbol> formalArguments,
+			final boolean boundAllArgsAsList, final int frameSize,
+			final Object body) {
+		this.name = name;
+		this.formalArguments = formalArguments;
+		this.boundAllArgsAsList = boundAllArgsAsList;
+		this.frameSize = frameSize;
+		this.body = body;
+	}
+
+	/**
+	 * @return the name of the variable the lambda was defined as, as in
+	 * <tt>(define name (lambda ...))</tt>, or null if it is anonymous
+	 */
+	public Symbol getName() {
+		return name;
+	}
+
+	public List<Symbol> getFormalArguments() {
+		return formalArguments;
+	}
+
+	public boolean isBoundAllArgsAsList() {
+		return boundAllArgsAsList;
+	}
+
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	public Object getBody() {
+		return body;
+	}
+
+	/**
+	 * @return the body as analyzed by the {@link Analyzer}, or as compiled
+	 * by the {@link BytecodeCompiler} once hot.  It is built on first use,
+	 * then kept for all subsequent calls.
+	 */
+	public Node getCompiledBody() {
+		Node result = compiledBody;
+		if (result == null) {
+			result = Analyzer.analyzeBody(body);
+			compiledBody = result;
+		}
+		return result;
+	}
+
+	public boolean isBytecodeCompiled() {
+		return bytecodeCompiled;
+	}
+
+	/**
+	 * Compile the body to bytecode, if it hasn't been already.  If it can't
+	 * be compiled, the body goes on being interpreted.
+	 */
+	synchronized void compileToBytecode() {
+		if (bytecodeCompiled || bytecodeFailed) {
+			return;
+		}
+		final Node compiled = BytecodeCompiler.compile(this);
+		if (compiled == null) {
+			bytecodeFailed = true;
+			return;
+		}
+		compiledBody = compiled;
+		bytecodeCompiled = true;
+	}
+
+	/**
+	 * Allocate an array to evaluate the actual arguments of a call into.
+	 * When the arguments can be bound directly, the array is big enough to
+	 * be used as the procedure's frame; see {@link Proc#bind(Object[], int)}.
+	 */
+	Object[] newArguments(final int numOfActualArgs) {
+		if (!boundAllArgsAsList
+				&& formalArguments.size() == numOfActualArgs) {
+			return new Object[frameSize];
+		}
+		return new Object[numOfActualArgs];
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("(lambda ");
+
+		if (formalArguments != null) {
+			builder.append(formalArguments.toString());
+			if (boundAllArgsAsList) {
+				builder.append("*");
+			}
+		} else {
+			builder.append("<<null formalArgs>>");
+		}
+
+		builder.append(" ")
+			.append(body != null ? body.toString() : "<<null body>>")
+			.append(")");
+		return builder.toString();
+	}
+
+}
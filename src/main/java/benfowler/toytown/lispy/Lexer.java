@@ -21,74 +21,124 @@
 
 package benfowler.toytown.lispy;
 
+import java.io.IOException;
 import java.io.PrintStream;
-import java.util.LinkedList;
+import java.io.Reader;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.StringTokenizer;
 
+/**
+ * Hand-written, single-pass scanner.  Characters are pulled from a
+ * {@link Reader} or {@link CharSequence} through a fixed-size buffer, and
+ * tokens are produced lazily, one at a time, as the parser asks for them.
+ * Parentheses are returned as the strings "(" and ")"; everything else is
+ * converted to an atom.  Integer literals become exact integers, and other
+ * numeric literals become doubles.
+ */
 public class Lexer {
 
+	/** Lexical category of a token */
+	public enum TokenType {
+		OPEN,
+		CLOSE,
+		ATOM
+	}
+
+	static final String OPEN_PAREN = "(";
+	static final String CLOSE_PAREN = ")";
+
 	private static final String DOT = ".";
 	private static final String TRUE = "#t";
 	private static final String FALSE = "#f";
 
-	private final List<String> tokens;
-	private int index;
+	private static final int BUFFER_SIZE = 8192;
+
+	/** Source of characters, if scanning a stream */
+	private final Reader reader;
+
+	/** Source of characters, if scanning an in-memory program */
+	private final CharSequence program;
+	private int programOffset;
+
+	private final char[] buffer;
+	private int position;
+	private int limit;
+	private boolean endOfInput;
+
+	/** Scratch space for the lexeme currently being scanned */
+	private final StringBuilder lexeme = new StringBuilder();
 
-	public Lexer(final String program) {
-		tokens = tokenize(program);
-		index = 0;
+	/** Tokens scanned but not yet consumed */
+	private final List<Object> pending = new ArrayList<Object>();
+	private int pendingIndex;
+
+	/** Number of tokens consumed so far */
+	private int consumed;
+
+	public Lexer(final CharSequence program) {
+		this.reader = null;
+		this.program = program;
+		this.buffer = new char[Math.min(BUFFER_SIZE,
+				Math.max(program.length(), 1))];
+	}
+
+	public Lexer(final Reader reader) {
+		this.reader = reader;
+		this.program = null;
+		this.buffer = new char[BUFFER_SIZE];
 	}
 
-	static List<String> tokenize(String program) {
-		program = program.replaceAll("\\(", " ( ")
-				         .replaceAll("\\)", " ) ");
-		final List<String> result = new LinkedList<String>();
-		final StringTokenizer tokenizer = new StringTokenizer(program);
-		while (tokenizer.hasMoreTokens()) {
-			result.add(tokenizer.nextToken());
+	static List<Object> tokenize(final CharSequence program) {
+		final Lexer lexer = new Lexer(program);
+		final List<Object> result = new ArrayList<Object>();
+		while (lexer.hasMoreTokens()) {
+			result.add(lexer.consumeToken());
 		}
 		return result;
 	}
 
+	/**
+	 * @return total number of tokens in the program.  Scans (and buffers)
+	 * the remainder of the input, so it is intended for diagnostics only.
+	 */
 	public int size() {
-		return tokens.size();
+		while (scanAhead()) {
+			// keep buffering
+		}
+		return consumed + pending.size() - pendingIndex;
 	}
 
 	public boolean hasMoreTokens() {
-		return (index < tokens.size());
+		return pendingIndex < pending.size() || scanAhead();
+	}
+
+	public TokenType peekType() throws ParseException {
+		return typeOf(peekToken());
 	}
 
 	public Object peekToken() throws ParseException {
 		if (!hasMoreTokens()) {
 			throw new ParseException(Errors.PREMATURE_END_OF_PROGRAM);
 		}
-		final String input = tokens.get(index);
-		if (("(".equals(input)) || ")".equals(input))
-		 {
-			return input;  // as is
-		}
-		return toAtom(input);
+		return pending.get(pendingIndex);
 	}
 
 	public Object consumeToken() throws ParseException {
-		if (!hasMoreTokens()) {
-			throw new ParseException(Errors.PREMATURE_END_OF_PROGRAM);
-		}
-		final String input = tokens.get(index++);
-		if (("(".equals(input)) || ")".equals(input))
-		 {
-			return input;  // as is
+		final Object token = peekToken();
+		++pendingIndex;
+		++consumed;
+		if (pendingIndex == pending.size()) {
+			pending.clear();
+			pendingIndex = 0;
 		}
-		return toAtom(input);
+		return token;
 	}
 
 	public Object toAtom(final String input) {
-		try {
-			return Double.parseDouble(input);
-		} catch (NumberFormatException ignore) { }
-
-		if (TRUE.equals(input)) {
+		if (isNumber(input)) {
+			return isInteger(input)
+					? Numbers.parseInteger(input) : Double.parseDouble(input);
+		} else if (TRUE.equals(input)) {
 			return Boolean.TRUE;
 		} else if (FALSE.equals(input)) {
 			return Boolean.FALSE;
@@ -96,7 +146,7 @@ public class Lexer {
 			return new Dot(input.substring(1, input.length()));
 		} else {
 			SpecialForm sf = SpecialForm.getByLiteralVal(input);
-			return (sf != null ? sf : new Symbol(input));
+			return (sf != null ? sf : Symbol.intern(input));
 		}
 	}
 
@@ -107,12 +157,202 @@ public class Lexer {
 		}
 	}
 
+	/**
+	 * Prints the tokens which have not yet been consumed.
+	 */
 	public void print(final PrintStream out) {
+		size();
 		String separator = "";
-		for (String token : tokens) {
-			out.print(separator + " \"" + token + "\"");
+		for (int i=pendingIndex; i<pending.size(); ++i) {
+			out.print(separator + " \"" + pending.get(i) + "\"");
 			separator = ",";
 		}
 	}
 
+	//
+	// Scanner
+	//
+
+	private static TokenType typeOf(final Object token) {
+		if (token == OPEN_PAREN) {
+			return TokenType.OPEN;
+		} else if (token == CLOSE_PAREN) {
+			return TokenType.CLOSE;
+		}
+		return TokenType.ATOM;
+	}
+
+	/**
+	 * Scans the next token from the input onto the end of the pending list.
+	 * @return false if the input is exhausted
+	 */
+	private boolean scanAhead() {
+		// Skip whitespace
+		for (;;) {
+			if (position == limit && !fill()) {
+				return false;
+			}
+			if (!isWhitespace(buffer[position])) {
+				break;
+			}
+			++position;
+		}
+
+		final char c = buffer[position];
+		if (c == '(') {
+			++position;
+			pending.add(OPEN_PAREN);
+			return true;
+		} else if (c == ')') {
+			++position;
+			pending.add(CLOSE_PAREN);
+			return true;
+		}
+
+		// Atom: runs until whitespace, a parenthesis or end of input
+		lexeme.setLength(0);
+		for (;;) {
+			final int start = position;
+			while (position < limit && !isDelimiter(buffer[position])) {
+				++position;
+			}
+			lexeme.append(buffer, start, position - start);
+			if (position < limit || !fill()) {
+				break;
+			}
+		}
+		pending.add(toAtom(lexeme.toString()));
+		return true;
+	}
+
+	/**
+	 * Refills the character buffer.
+	 * @return false if there is no more input
+	 */
+	private boolean fill() {
+		if (endOfInput) {
+			return false;
+		}
+		position = 0;
+		limit = 0;
+		if (reader != null) {
+			try {
+				int read;
+				do {
+					read = reader.read(buffer, 0, buffer.length);
+				} while (read == 0);
+				if (read > 0) {
+					limit = read;
+				}
+			} catch (IOException e) {
+				throw new ParseException(Errors.READ_ERROR, e.getMessage());
+			}
+		} else {
+			final int count = Math.min(buffer.length,
+					program.length() - programOffset);
+			if (program instanceof String) {
+				((String) program).getChars(programOffset,
+						programOffset + count, buffer, 0);
+			} else {
+				for (int i=0; i<count; ++i) {
+					buffer[i] = program.charAt(programOffset + i);
+				}
+			}
+			programOffset += count;
+			limit = count;
+		}
+		if (limit == 0) {
+			endOfInput = true;
+			return false;
+		}
+		return true;
+	}
+
+	private static boolean isWhitespace(final char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+	}
+
+	private static boolean isDelimiter(final char c) {
+		return c == '(' || c == ')' || isWhitespace(c);
+	}
+
+	/**
+	 * Recognises decimal floating point literals, i.e.
+	 * <tt>[+-]? (digits ('.' digits?)? | '.' digits) ([eE] [+-]? digits)?</tt>
+	 * plus the special values <tt>NaN</tt> and <tt>Infinity</tt>.  Anything
+	 * accepted here can be handed to {@link Double#parseDouble(String)}
+	 * without it throwing.
+	 */
+	static boolean isNumber(final String input) {
+		final int length = input.length();
+		int i = 0;
+		if (i < length && (input.charAt(i) == '+' || input.charAt(i) == '-')) {
+			++i;
+		}
+		if (i == length) {
+			return false;
+		}
+
+		final char first = input.charAt(i);
+		if (first == 'N' || first == 'I') {
+			return input.startsWith("NaN", i) && i + 3 == length
+					|| input.startsWith("Infinity", i) && i + 8 == length;
+		}
+
+		int digits = 0;
+		while (i < length && isDigit(input.charAt(i))) {
+			++i;
+			++digits;
+		}
+		if (i < length && input.charAt(i) == '.') {
+			++i;
+			while (i < length && isDigit(input.charAt(i))) {
+				++i;
+				++digits;
+			}
+		}
+		if (digits == 0) {
+			return false;
+		}
+
+		if (i < length && (input.charAt(i) == 'e' || input.charAt(i) == 'E')) {
+			++i;
+			if (i < length
+					&& (input.charAt(i) == '+' || input.charAt(i) == '-')) {
+				++i;
+			}
+			int exponentDigits = 0;
+			while (i < length && isDigit(input.charAt(i))) {
+				++i;
+				++exponentDigits;
+			}
+			if (exponentDigits == 0) {
+				return false;
+			}
+		}
+		return i == length;
+	}
+
+	/**
+	 * Recognises exact integer literals, i.e. <tt>[+-]? digits</tt>.
+	 */
+	static boolean isInteger(final String input) {
+		final int length = input.length();
+		int i = 0;
+		if (i < length && (input.charAt(i) == '+' || input.charAt(i) == '-')) {
+			++i;
+		}
+		if (i == length) {
+			return false;
+		}
+		while (i < length && isDigit(input.charAt(i))) {
+			++i;
+		}
+		return i == length;
+	}
+
+	private static boolean isDigit(final char c) {
+		return c >= '0' && c <= '9';
+	}
+
 }
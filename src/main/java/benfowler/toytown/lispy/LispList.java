@@ -0,0 +1,180 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import java.util.AbstractSequentialList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable, persistent singly-linked list: either the empty list
+ * ({@link Nil}) or a {@link Pair} of a head element and a tail list.  Tails
+ * are shared rather than copied, so <tt>cons</tt>, <tt>car</tt> and
+ * <tt>cdr</tt> are all constant-time.  Lists are also read-only
+ * {@link java.util.List}s, for the benefit of Java interop.
+ */
+public abstract class LispList extends AbstractSequentialList<Object> {
+
+	LispList() {
+	}
+
+	/**
+	 * @return a new list with the given element in front of this one
+	 */
+	public Pair cons(final Object head) {
+		return new Pair(head, this);
+	}
+
+	public static LispList of(final Object... elements) {
+		LispList result = Nil.NIL;
+		for (int i=elements.length - 1; i>=0; --i) {
+			result = result.cons(elements[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the given list as a {@link LispList}, copying only if needed
+	 */
+	public static LispList fromList(final List<?> list) {
+		if (list instanceof LispList) {
+			return (LispList) list;
+		}
+		return of(list.toArray());
+	}
+
+	@Override
+	public ListIterator<Object> listIterator(final int index) {
+		if (index < 0 || index > size()) {
+			throw new IndexOutOfBoundsException(Integer.toString(index));
+		}
+		return new Cursor(this, index);
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof List)) {
+			return false;
+		}
+		final List<?> other = (List<?>) obj;
+		if (other instanceof LispList && other.size() != size()) {
+			return false;
+		}
+		final Iterator<?> i = iterator();
+		final Iterator<?> j = other.iterator();
+		while (i.hasNext() && j.hasNext()) {
+			final Object a = i.next();
+			final Object b = j.next();
+			if (!(a == null ? b == null : a.equals(b))) {
+				return false;
+			}
+		}
+		return !(i.hasNext() || j.hasNext());
+	}
+
+	/**
+	 * Read-only iterator which walks the pairs of a list.
+	 */
+	private static final class Cursor implements ListIterator<Object> {
+
+		private final LispList head;
+
+		private LispList current;
+
+		private int index;
+
+		Cursor(final LispList head, final int index) {
+			this.head = head;
+			this.current = head;
+			while (this.index < index) {
+				current = ((Pair) current).cdr();
+				++this.index;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return current instanceof Pair;
+		}
+
+		@Override
+		public Object next() {
+			if (!(current instanceof Pair)) {
+				throw new NoSuchElementException();
+			}
+			final Pair pair = (Pair) current;
+			current = pair.cdr();
+			++index;
+			return pair.car();
+		}
+
+		@Override
+		public boolean hasPrevious() {
+			return index > 0;
+		}
+
+		@Override
+		public Object previous() {
+			if (index == 0) {
+				throw new NoSuchElementException();
+			}
+			--index;
+			current = head;
+			for (int i=0; i<index; ++i) {
+				current = ((Pair) current).cdr();
+			}
+			return ((Pair) current).car();
+		}
+
+		@Override
+		public int nextIndex() {
+			return index;
+		}
+
+		@Override
+		public int previousIndex() {
+			return index - 1;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void set(final Object o) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void add(final Object o) {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+}
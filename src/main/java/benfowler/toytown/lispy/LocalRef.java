@@ -0,0 +1,84 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+/**
+ * Reference to a local variable, by lexical address: the number of frames
+ * to walk out from the current one, and the slot within that frame.
+ * <p>
+ * A name defined within a procedure body has no value until its definition
+ * is made, which might be never.  Until then, a reference to it falls back
+ * on whatever the name means outside the procedure: another
+ * <code>LocalRef</code>, or a {@link Symbol} for a global.
+ */
+public final class LocalRef {
+
+	private final Symbol name;
+
+	private final int depth;
+
+	private final int slot;
+
+	private final Object fallback;
+
+	public LocalRef(final Symbol name, final int depth, final int slot) {
+		this(name, depth, slot, null);
+	}
+
+	/**
+	 * @param fallback reference to use while the slot is empty, or null if
+	 * an empty slot is an error
+	 */
+	public LocalRef(final Symbol name, final int depth, final int slot,
+			final Object fallback) {
+		this.name = name;
+		this.depth = depth;
+		this.slot = slot;
+		this.fallback = fallback;
+	}
+
+	public Symbol getName() {
+		return name;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public int getSlot() {
+		return slot;
+	}
+
+	/**
+	 * @return a {@link LocalRef} or {@link Symbol} to use while the slot is
+	 * empty, or null
+	 */
+	public Object getFallback() {
+		return fallback;
+	}
+
+	@Override
+	public String toString() {
+		return name.toString();
+	}
+
+}
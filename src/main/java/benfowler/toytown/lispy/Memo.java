@@ -0,0 +1,331 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package benfowler.toytown.lispy;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A procedure wrapped by the <tt>memoize</tt> builtin, which remembers the
+ * results of calls by their arguments.  Arguments are compared with
+ * <tt>equals</tt>, so the procedure should be pure.
+ * <p>
+ * The cache holds at most a given number of results, evicting either the
+ * least recently used or the least frequently used.  Results may be held
+ * weakly, so that the garbage collector can reclaim them.  The cache is
+ * split into segments, each behind a lock of its own, and the procedure is
+ * called outside any lock, so a memoized procedure may be called from
+ * several threads at once, and may call itself recursively.  Two threads
+ * making the same call at once may both call the procedure.
+ */
+final class Memo extends Builtin {
+
+	enum Eviction { LRU, LFU }
+
+	static final int DEFAULT_SIZE = 1000;
+
+	/** Stands in for a null result */
+	private static final Object NULL = new Object();
+
+	/** Most results held by one segment */
+	private static final int SEGMENT_SIZE = 64;
+
+	private static final int MAXIMUM_SEGMENTS = 16;
+
+	private final Object procedure;
+
+	private final int maximumSize;
+
+	private final Eviction eviction;
+
+	private final boolean weak;
+
+	private final Store[] segments;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	Memo(final Object procedure, final int maximumSize,
+			final Eviction eviction, final boolean weak) {
+		super("memoized", 0, VARIADIC);
+		if (!(procedure instanceof Proc || procedure instanceof Builtin)) {
+			throw new EvalException(Errors.PROC_EXPECTED);
+		}
+		this.procedure = procedure;
+		this.maximumSize = maximumSize;
+		this.eviction = eviction;
+		this.weak = weak;
+		final int count = Math.max(1,
+				Math.min(MAXIMUM_SEGMENTS, maximumSize / SEGMENT_SIZE));
+		segments = new Store[count];
+		for (int i=0; i<count; ++i) {
+			final int capacity = maximumSize / count
+					+ (i < maximumSize % count ? 1 : 0);
+			segments[i] = eviction == Eviction.LRU
+					? new LruStore(capacity) : new LfuStore(capacity);
+		}
+	}
+
+	@Override
+	protected Object apply(final Object[] args) {
+		final Key key = new Key(args);
+		final Store segment = segments[(key.hash & 0x7fffffff)
+				% segments.length];
+		synchronized (segment) {
+			final Object cached = unwrap(segment.find(key));
+			if (cached != null) {
+				hits.increment();
+				return cached == NULL ? null : cached;
+			}
+		}
+
+		misses.increment();
+		final Object result = Interpreter.apply(procedure, args);
+		final Object value = result == null ? NULL : result;
+		synchronized (segment) {
+			segment.keep(key, weak ? new WeakReference<Object>(value) : value);
+		}
+		return result;
+	}
+
+	private static Object unwrap(final Object stored) {
+		return stored instanceof Reference
+				? ((Reference<?>) stored).get() : stored;
+	}
+
+	Object getProcedure() {
+		return procedure;
+	}
+
+	int getMaximumSize() {
+		return maximumSize;
+	}
+
+	int size() {
+		int size = 0;
+		for (final Store segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	long getHits() {
+		return hits.sum();
+	}
+
+	long getMisses() {
+		return misses.sum();
+	}
+
+	long getEvictions() {
+		return evictions.sum();
+	}
+
+	/** @return fraction of calls answered from the cache */
+	double getHitRate() {
+		final long hits = getHits();
+		final long total = hits + getMisses();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("#<memoized %s %s size=%d/%d hits=%d misses=%d"
+				+ " evictions=%d>", procedure, eviction.name().toLowerCase(),
+				size(), maximumSize, getHits(), getMisses(), getEvictions());
+	}
+
+	/**
+	 * Arguments of a call, compared element by element
+	 */
+	private static final class Key {
+
+		private final Object[] args;
+
+		private final int hash;
+
+		Key(final Object[] args) {
+			this.args = args;
+			this.hash = Arrays.hashCode(args);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			return obj instanceof Key && hash == ((Key) obj).hash
+					&& Arrays.equals(args, ((Key) obj).args);
+		}
+
+	}
+
+	/**
+	 * One segment of the cache.  Callers hold its lock.
+	 */
+	private interface Store {
+
+		Object find(Key key);
+
+		void keep(Key key, Object value);
+
+		int size();
+
+	}
+
+	private final class LruStore extends LinkedHashMap<Key, Object>
+			implements Store {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		LruStore(final int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		public Object find(final Key key) {
+			return get(key);
+		}
+
+		@Override
+		public void keep(final Key key, final Object value) {
+			put(key, value);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(
+				final Map.Entry<Key, Object> eldest) {
+			if (size() > capacity) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+
+	}
+
+	/**
+	 * Least-frequently-used store.  Keys are kept in buckets by the number
+	 * of times they have been used, oldest first, so that finding the key to
+	 * evict takes constant time.
+	 */
+	private final class LfuStore implements Store {
+
+		private final int capacity;
+
+		private final Map<Key, Object> values = new HashMap<Key, Object>();
+
+		private final Map<Key, Integer> counts = new HashMap<Key, Integer>();
+
+		private final Map<Integer, LinkedHashSet<Key>> buckets =
+				new HashMap<Integer, LinkedHashSet<Key>>();
+
+		/** Least count of any key held */
+		private int minimum;
+
+		LfuStore(final int capacity) {
+			this.capacity = capacity;
+		}
+
+		@Override
+		public Object find(final Key key) {
+			final Object value = values.get(key);
+			if (value != null) {
+				used(key);
+			}
+			return value;
+		}
+
+		@Override
+		public void keep(final Key key, final Object value) {
+			if (values.put(key, value) != null) {
+				used(key);
+				return;
+			}
+			if (values.size() > capacity) {
+				evict();
+			}
+			counts.put(key, 1);
+			bucket(1).add(key);
+			minimum = 1;
+		}
+
+		@Override
+		public int size() {
+			return values.size();
+		}
+
+		private void used(final Key key) {
+			final int count = counts.get(key);
+			final LinkedHashSet<Key> bucket = buckets.get(count);
+			bucket.remove(key);
+			if (bucket.isEmpty()) {
+				buckets.remove(count);
+				if (minimum == count) {
+					minimum = count + 1;
+				}
+			}
+			counts.put(key, count + 1);
+			bucket(count + 1).add(key);
+		}
+
+		private void evict() {
+			final LinkedHashSet<Key> bucket = buckets.get(minimum);
+			final Iterator<Key> oldest = bucket.iterator();
+			final Key key = oldest.next();
+			oldest.remove();
+			if (bucket.isEmpty()) {
+				buckets.remove(minimum);
+			}
+			values.remove(key);
+			counts.remove(key);
+			evictions.increment();
+		}
+
+		private LinkedHashSet<Key> bucket(final int count) {
+			LinkedHashSet<Key> bucket = buckets.get(count);
+			if (bucket == null) {
+				bucket = new LinkedHashSet<Key>();
+				buckets.put(count, bucket);
+			}
+			return bucket;
+		}
+
+	}
+
+}
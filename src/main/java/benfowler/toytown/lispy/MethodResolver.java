@@ -0,0 +1,509 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Overload resolution for the 'dot' special form.  Methods are chosen the
+ * way the Java compiler would choose them, taking the runtime class of each
+ * argument as its static type: first by subtyping alone, then allowing
+ * unboxing and primitive widening, then allowing an integer to narrow to a
+ * smaller integral type, and finally allowing variable arity invocation.
+ * Within the first phase that finds any applicable methods, the most
+ * specific one wins.
+ * <p>
+ * Narrowing lets an integer, which is always a {@link Long} in Lisp, be
+ * passed as an <tt>int</tt>, <tt>short</tt>, <tt>byte</tt> or
+ * <tt>char</tt>, as in <tt>(.charAt s 1)</tt>.  Whether the value fits is
+ * checked as each call is made.
+ * <p>
+ * Methods declared by the class, its superclasses and its interfaces are
+ * all candidates.  Each resolution is cached against the class, method
+ * name and argument classes it was made for, so it is only worked out once
+ * per shape of call.  The cache is kept with each class through a
+ * {@link ClassValue}, so that it doesn't keep the class from being
+ * unloaded, and holds at most {@value #MAXIMUM_SHAPES} shapes per class.
+ */
+final class MethodResolver {
+
+	/** Shape of every adapted handle: (receiver, arguments) -> result */
+	static final MethodType INVOKER_TYPE = MethodType.methodType(
+			Object.class, Object.class, Object[].class);
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	/** Most shapes of call cached for any one class */
+	static final int MAXIMUM_SHAPES = 64;
+
+	private static final ClassValue<ConcurrentMap<Shape, Resolution>>
+			RESOLVED = new ClassValue<ConcurrentMap<Shape, Resolution>>() {
+				@Override
+				protected ConcurrentMap<Shape, Resolution> computeValue(
+						final Class<?> type) {
+					return new ConcurrentHashMap<Shape, Resolution>();
+				}
+			};
+
+	/** Primitive types each primitive type widens to */
+	private static final Map<Class<?>, Set<Class<?>>> WIDENINGS =
+			new HashMap<Class<?>, Set<Class<?>>>();
+
+	/** Integral types each integral type narrows to */
+	private static final Map<Class<?>, Set<Class<?>>> NARROWINGS =
+			new HashMap<Class<?>, Set<Class<?>>>();
+
+	private static final Map<Class<?>, Class<?>> UNBOXED =
+			new HashMap<Class<?>, Class<?>>();
+
+	/** {@link #narrow(String, Class, Object)} */
+	private static final MethodHandle NARROW;
+
+	static {
+		widens(byte.class, short.class, int.class, long.class, float.class,
+				double.class);
+		widens(short.class, int.class, long.class, float.class, double.class);
+		widens(char.class, int.class, long.class, float.class, double.class);
+		widens(int.class, long.class, float.class, double.class);
+		widens(long.class, float.class, double.class);
+		widens(float.class, double.class);
+
+		narrows(byte.class, char.class);
+		narrows(short.class, byte.class, char.class);
+		narrows(int.class, byte.class, short.class, char.class);
+		narrows(long.class, byte.class, short.class, char.class, int.class);
+
+		UNBOXED.put(Boolean.class, boolean.class);
+		UNBOXED.put(Byte.class, byte.class);
+		UNBOXED.put(Short.class, short.class);
+		UNBOXED.put(Character.class, char.class);
+		UNBOXED.put(Integer.class, int.class);
+		UNBOXED.put(Long.class, long.class);
+		UNBOXED.put(Float.class, float.class);
+		UNBOXED.put(Double.class, double.class);
+
+		try {
+			NARROW = LOOKUP.findStatic(MethodResolver.class, "narrow",
+					MethodType.methodType(long.class, String.class,
+							Class.class, Object.class));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Phases of overload resolution, as in JLS 15.12.2, with narrowing
+	 * added before variable arity invocation
+	 */
+	private enum Phase {
+		SUBTYPING,
+		CONVERSION,
+		NARROWING,
+		VARIABLE_ARITY
+	}
+
+	private MethodResolver() { }
+
+	/**
+	 * @param targetClass class of the receiver, or the class named for a
+	 * static call
+	 * @param methodName name of the method
+	 * @param argClasses runtime classes of the arguments, with null standing
+	 * for a null argument; the array must not be modified afterwards
+	 * @return the method to invoke, with a handle adapted to
+	 * {@link #INVOKER_TYPE}
+	 */
+	static Resolution resolve(final Class<?> targetClass,
+			final String methodName, final Class<?>[] argClasses)
+	throws IllegalAccessException {
+		final ConcurrentMap<Shape, Resolution> resolved =
+				RESOLVED.get(targetClass);
+		final Shape shape = new Shape(methodName, argClasses);
+		Resolution resolution = resolved.get(shape);
+		if (resolution == null) {
+			resolution = resolveUncached(targetClass, methodName, argClasses);
+			final Iterator<Shape> shapes = resolved.keySet().iterator();
+			while (resolved.size() >= MAXIMUM_SHAPES && shapes.hasNext()) {
+				shapes.next();
+				shapes.remove();
+			}
+			final Resolution raced = resolved.putIfAbsent(shape, resolution);
+			if (raced != null) {
+				resolution = raced;
+			}
+		}
+		return resolution;
+	}
+
+	/** @return number of shapes of call cached for the class */
+	static int size(final Class<?> targetClass) {
+		return RESOLVED.get(targetClass).size();
+	}
+
+	private static Resolution resolveUncached(final Class<?> targetClass,
+			final String methodName, final Class<?>[] argClasses)
+	throws IllegalAccessException {
+		final List<Method> candidates = candidates(targetClass, methodName);
+		for (final Phase phase : Phase.values()) {
+			final List<Method> applicable = new ArrayList<Method>();
+			for (final Method candidate : candidates) {
+				if (isApplicable(candidate, argClasses, phase)) {
+					applicable.add(candidate);
+				}
+			}
+			if (!applicable.isEmpty()) {
+				final boolean varargs = phase == Phase.VARIABLE_ARITY;
+				final Method method = mostSpecific(targetClass, methodName,
+						applicable, argClasses.length, varargs);
+				return new Resolution(method,
+						adapt(method, argClasses, varargs));
+			}
+		}
+
+		final List<String> argClassNames = new ArrayList<String>();
+		for (final Class<?> argClass : argClasses) {
+			argClassNames.add(argClass == null ? "null" : argClass.getName());
+		}
+		throw new EvalException(Errors.NO_APPLICABLE_METHOD,
+				targetClass.getName(), methodName, argClassNames);
+	}
+
+	/**
+	 * Collect the accessible methods of the given name declared by the
+	 * class and its supertypes.  Where a method is overridden, only the most
+	 * derived accessible declaration is kept.
+	 */
+	private static List<Method> candidates(final Class<?> targetClass,
+			final String methodName) {
+		final List<Method> candidates = new ArrayList<Method>();
+		final Set<List<Class<?>>> signatures = new HashSet<List<Class<?>>>();
+		final Set<Class<?>> visited = new HashSet<Class<?>>();
+		final LinkedList<Class<?>> pending = new LinkedList<Class<?>>();
+		pending.add(targetClass);
+		while (!pending.isEmpty()) {
+			final Class<?> c = pending.removeFirst();
+			if (!visited.add(c)) {
+				continue;
+			}
+			for (final Method method : c.getDeclaredMethods()) {
+				if (method.getName().equals(methodName)
+						&& !method.isBridge() && !method.isSynthetic()
+						&& isAccessible(c, method)
+						&& signatures.add(
+								Arrays.asList(method.getParameterTypes()))) {
+					candidates.add(method);
+				}
+			}
+			if (c.getSuperclass() != null) {
+				pending.add(c.getSuperclass());
+			}
+			pending.addAll(Arrays.asList(c.getInterfaces()));
+		}
+		return candidates;
+	}
+
+	/**
+	 * Public methods of public types are accessible, as is anything short
+	 * of private within the interpreter's own package.
+	 */
+	private static boolean isAccessible(final Class<?> declaringClass,
+			final Method method) {
+		final int modifiers = method.getModifiers();
+		if (Modifier.isPublic(modifiers)
+				&& Modifier.isPublic(declaringClass.getModifiers())) {
+			return true;
+		}
+		return !Modifier.isPrivate(modifiers) && declaringClass.getPackage()
+				== MethodResolver.class.getPackage();
+	}
+
+	private static boolean isApplicable(final Method method,
+			final Class<?>[] argClasses, final Phase phase) {
+		final Class<?>[] paramClasses = method.getParameterTypes();
+		final boolean varargs = phase == Phase.VARIABLE_ARITY;
+		if (varargs) {
+			if (!method.isVarArgs()
+					|| argClasses.length < paramClasses.length - 1) {
+				return false;
+			}
+		} else if (argClasses.length != paramClasses.length) {
+			return false;
+		}
+		for (int i=0; i<argClasses.length; ++i) {
+			if (!isConvertible(argClasses[i],
+					parameterType(paramClasses, i, varargs), phase)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param argClass runtime class of the argument, or null for null
+	 * @param paramClass declared type of the parameter
+	 * @param phase phase of resolution, which decides the conversions
+	 * allowed
+	 */
+	private static boolean isConvertible(final Class<?> argClass,
+			final Class<?> paramClass, final Phase phase) {
+		if (argClass == null) {
+			return !paramClass.isPrimitive();
+		}
+		if (!paramClass.isPrimitive()) {
+			return paramClass.isAssignableFrom(argClass);
+		}
+		final Class<?> primitive = UNBOXED.get(argClass);
+		if (phase == Phase.SUBTYPING || primitive == null) {
+			return false;
+		}
+		return primitive == paramClass || widensTo(primitive, paramClass)
+				|| (phase != Phase.CONVERSION
+						&& narrowsTo(primitive, paramClass));
+	}
+
+	/**
+	 * Pick the most specific of the applicable methods.
+	 * @throws EvalException if there is no single most specific method
+	 */
+	private static Method mostSpecific(final Class<?> targetClass,
+			final String methodName, final List<Method> applicable,
+			final int argCount, final boolean varargs) {
+		Method best = null;
+		for (final Method method : applicable) {
+			boolean maximal = true;
+			for (final Method other : applicable) {
+				if (other != method
+						&& isMoreSpecific(other, method, argCount, varargs)
+						&& !isMoreSpecific(method, other, argCount, varargs)) {
+					maximal = false;
+					break;
+				}
+			}
+			if (maximal) {
+				if (best != null) {
+					throw new EvalException(Errors.AMBIGUOUS_METHOD_CALL,
+							targetClass.getName(), methodName, best, method);
+				}
+				best = method;
+			}
+		}
+		return best;
+	}
+
+	private static boolean isMoreSpecific(final Method m1, final Method m2,
+			final int argCount, final boolean varargs) {
+		final Class<?>[] params1 = m1.getParameterTypes();
+		final Class<?>[] params2 = m2.getParameterTypes();
+		final int count = varargs ? argCount : params1.length;
+		for (int i=0; i<count; ++i) {
+			if (!isSubtype(parameterType(params1, i, varargs),
+					parameterType(params2, i, varargs))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isSubtype(final Class<?> t1, final Class<?> t2) {
+		if (t1 == t2) {
+			return true;
+		}
+		if (t1.isPrimitive() || t2.isPrimitive()) {
+			return t1.isPrimitive() && t2.isPrimitive() && widensTo(t1, t2);
+		}
+		return t2.isAssignableFrom(t1);
+	}
+
+	/**
+	 * @return the type of the i'th parameter, expanding a trailing array
+	 * parameter into its component type for variable arity invocation
+	 */
+	private static Class<?> parameterType(final Class<?>[] paramClasses,
+			final int i, final boolean varargs) {
+		final int last = paramClasses.length - 1;
+		if (varargs && i >= last) {
+			return paramClasses[last].getComponentType();
+		}
+		return paramClasses[i];
+	}
+
+	private static boolean widensTo(final Class<?> from, final Class<?> to) {
+		final Set<Class<?>> widenings = WIDENINGS.get(from);
+		return widenings != null && widenings.contains(to);
+	}
+
+	private static void widens(final Class<?> from, final Class<?>... to) {
+		WIDENINGS.put(from, new HashSet<Class<?>>(Arrays.asList(to)));
+	}
+
+	private static boolean narrowsTo(final Class<?> from, final Class<?> to) {
+		final Set<Class<?>> narrowings = NARROWINGS.get(from);
+		return narrowings != null && narrowings.contains(to);
+	}
+
+	private static void narrows(final Class<?> from, final Class<?>... to) {
+		NARROWINGS.put(from, new HashSet<Class<?>>(Arrays.asList(to)));
+	}
+
+	/**
+	 * Adapt the method to take the receiver (ignored for static methods)
+	 * and an array of exactly as many arguments as there are argument
+	 * classes, unboxing, narrowing and collecting variable arguments as
+	 * needed.
+	 */
+	private static MethodHandle adapt(final Method method,
+			final Class<?>[] argClasses, final boolean varargs)
+	throws IllegalAccessException {
+		final int argCount = argClasses.length;
+		final Class<?>[] paramClasses = method.getParameterTypes();
+		MethodHandle handle = LOOKUP.unreflect(method).asFixedArity();
+		if (varargs) {
+			final int last = paramClasses.length - 1;
+			handle = handle.asCollector(paramClasses[last], argCount - last);
+		}
+		final int first = Modifier.isStatic(method.getModifiers()) ? 0 : 1;
+		for (int i=0; i<argCount; ++i) {
+			final Class<?> paramClass = parameterType(paramClasses, i, varargs);
+			final Class<?> primitive = argClasses[i] == null
+					? null : UNBOXED.get(argClasses[i]);
+			if (primitive != null && narrowsTo(primitive, paramClass)) {
+				handle = MethodHandles.filterArguments(handle, first + i,
+						narrowing(method.getName(), paramClass));
+			}
+		}
+		if (first == 0) {
+			handle = MethodHandles.dropArguments(handle, 0, Object.class);
+		}
+		return handle.asSpreader(Object[].class, argCount)
+				.asType(INVOKER_TYPE);
+	}
+
+	/**
+	 * @return a handle which takes a boxed integer, and gives its value as
+	 * the given integral type
+	 */
+	private static MethodHandle narrowing(final String methodName,
+			final Class<?> type) {
+		return MethodHandles.explicitCastArguments(
+				MethodHandles.insertArguments(NARROW, 0, methodName, type),
+				MethodType.methodType(type, Object.class));
+	}
+
+	/**
+	 * @return the integer, once it is known to fit in the given integral
+	 * type
+	 * @throws EvalException if it doesn't fit
+	 */
+	@SuppressWarnings("unused")
+	private static long narrow(final String methodName, final Class<?> type,
+			final Object value) {
+		final long n = ((Number) value).longValue();
+		final boolean fits;
+		if (type == char.class) {
+			fits = n >= Character.MIN_VALUE && n <= Character.MAX_VALUE;
+		} else if (type == byte.class) {
+			fits = n >= Byte.MIN_VALUE && n <= Byte.MAX_VALUE;
+		} else if (type == short.class) {
+			fits = n >= Short.MIN_VALUE && n <= Short.MAX_VALUE;
+		} else {
+			fits = n >= Integer.MIN_VALUE && n <= Integer.MAX_VALUE;
+		}
+		if (!fits) {
+			throw new EvalException(Errors.BAD_ARGUMENT_TYPE, methodName,
+					type.getName(), value);
+		}
+		return n;
+	}
+
+	/**
+	 * A resolved method, together with a handle ready to invoke it.
+	 */
+	static final class Resolution {
+
+		private final Method method;
+
+		private final MethodHandle handle;
+
+		Resolution(final Method method, final MethodHandle handle) {
+			this.method = method;
+			this.handle = handle;
+		}
+
+		Method getMethod() {
+			return method;
+		}
+
+		MethodHandle getHandle() {
+			return handle;
+		}
+
+	}
+
+	/** Cache key: the method name and argument classes of a call */
+	private static final class Shape {
+
+		private final String methodName;
+
+		private final Class<?>[] argClasses;
+
+		private final int hash;
+
+		Shape(final String methodName, final Class<?>[] argClasses) {
+			this.methodName = methodName;
+			this.argClasses = argClasses;
+			this.hash = methodName.hashCode() * 31
+					+ Arrays.hashCode(argClasses);
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof Shape)) {
+				return false;
+			}
+			final Shape other = (Shape) o;
+			return methodName.equals(other.methodName)
+					&& Arrays.equals(argClasses, other.argClasses);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+	}
+
+}
@@ -0,0 +1,232 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package benfowler.toytown.lispy;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters of what the interpreter is doing, kept only while enabled.  When
+ * disabled, as it is by default, each event costs one test of a flag.
+ * <p>
+ * Metrics are enabled by the {@value #PROPERTY} system property, or by
+ * {@link #setEnabled(boolean)}, which also registers the counters with the
+ * platform MBean server as a {@link MetricsMXBean}.  The counters are
+ * striped {@link LongAdder}s, so that concurrent evaluations don't contend
+ * over them, and are totted up only when read.
+ */
+public final class Metrics implements MetricsMXBean {
+
+	/** System property enabling metrics from startup */
+	public static final String PROPERTY = "toytown.metrics";
+
+	public static final String OBJECT_NAME =
+			"benfowler.toytown.lispy:type=Metrics";
+
+	/** Key under which calls to anonymous procedures are counted */
+	static final String ANONYMOUS = "(lambda)";
+
+	private static final Metrics INSTANCE = new Metrics();
+
+	private static volatile boolean enabled;
+
+	private static boolean registered;
+
+	private final LongAdder evals = new LongAdder();
+	private final LongAdder evalTime = new LongAdder();
+	private final LongAdder frames = new LongAdder();
+	private final AtomicInteger maxDepth = new AtomicInteger();
+
+	private final ConcurrentMap<String, LongAdder> procedureCalls =
+			new ConcurrentHashMap<String, LongAdder>();
+	private final ConcurrentMap<String, LongAdder> dotInvocations =
+			new ConcurrentHashMap<String, LongAdder>();
+
+	/** Procedure calls in progress on each thread */
+	private final ThreadLocal<int[]> depth = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
+
+	static {
+		if (Boolean.getBoolean(PROPERTY)) {
+			INSTANCE.setEnabled(true);
+		}
+	}
+
+	private Metrics() { }
+
+	/** @return the interpreter's metrics */
+	public static Metrics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Tested before recording each event, so that recording costs nothing
+	 * much while disabled.
+	 */
+	static boolean on() {
+		return enabled;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(final boolean enabled) {
+		if (enabled) {
+			register();
+		}
+		Metrics.enabled = enabled;
+	}
+
+	@Override
+	public long getEvalCount() {
+		return evals.sum();
+	}
+
+	@Override
+	public long getEvalTimeNanos() {
+		return evalTime.sum();
+	}
+
+	@Override
+	public long getFramesCreated() {
+		return frames.sum();
+	}
+
+	@Override
+	public int getMaxRecursionDepth() {
+		return maxDepth.get();
+	}
+
+	@Override
+	public Map<String, Long> getProcedureCalls() {
+		return snapshot(procedureCalls);
+	}
+
+	@Override
+	public Map<String, Long> getDotInvocations() {
+		return snapshot(dotInvocations);
+	}
+
+	@Override
+	public void reset() {
+		evals.reset();
+		evalTime.reset();
+		frames.reset();
+		maxDepth.set(0);
+		procedureCalls.clear();
+		dotInvocations.clear();
+	}
+
+	//
+	// Events, recorded by the interpreter once it has checked on()
+	//
+
+	static void evaluated(final long nanos) {
+		INSTANCE.evals.increment();
+		INSTANCE.evalTime.add(nanos);
+	}
+
+	static void frameCreated() {
+		INSTANCE.frames.increment();
+	}
+
+	static void procedureCalled(final Lambda lambda) {
+		final Symbol name = lambda.getName();
+		increment(INSTANCE.procedureCalls,
+				name != null ? name.toString() : ANONYMOUS);
+	}
+
+	static void dotInvoked(final String method) {
+		increment(INSTANCE.dotInvocations, method);
+	}
+
+	/**
+	 * Note that a procedure has been entered other than by a tail call,
+	 * which must be matched by a call to {@link #procedureExited()}.
+	 */
+	static void procedureEntered() {
+		final int[] current = INSTANCE.depth.get();
+		final int depth = ++current[0];
+		final AtomicInteger max = INSTANCE.maxDepth;
+		for (int seen = max.get(); depth > seen; seen = max.get()) {
+			if (max.compareAndSet(seen, depth)) {
+				break;
+			}
+		}
+	}
+
+	static void procedureExited() {
+		--INSTANCE.depth.get()[0];
+	}
+
+	private static void increment(final ConcurrentMap<String, LongAdder> map,
+			final String key) {
+		LongAdder counter = map.get(key);
+		if (counter == null) {
+			final LongAdder created = new LongAdder();
+			counter = map.putIfAbsent(key, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		counter.increment();
+	}
+
+	private static Map<String, Long> snapshot(
+			final Map<String, LongAdder> counters) {
+		final Map<String, Long> result = new TreeMap<String, Long>();
+		for (final Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().sum());
+		}
+		return result;
+	}
+
+	private static synchronized void register() {
+		if (registered) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE,
+					new ObjectName(OBJECT_NAME));
+		} catch (JMException e) {
+			// Metrics are still available through getInstance()
+		}
+		registered = true;
+	}
+
+}
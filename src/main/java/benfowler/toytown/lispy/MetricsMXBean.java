@@ -0,0 +1,57 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package benfowler.toytown.lispy;
+
+import java.util.Map;
+
+/**
+ * Management interface of the interpreter's {@link Metrics}, registered as
+ * <tt>benfowler.toytown.lispy:type=Metrics</tt>.
+ */
+public interface MetricsMXBean {
+
+	boolean isEnabled();
+
+	void setEnabled(boolean enabled);
+
+	/** @return number of top-level evaluations */
+	long getEvalCount();
+
+	/** @return total time spent in top-level evaluations, in nanoseconds */
+	long getEvalTimeNanos();
+
+	/** @return number of activation frames created for procedure calls */
+	long getFramesCreated();
+
+	/** @return greatest number of procedure calls in progress on a thread */
+	int getMaxRecursionDepth();
+
+	/** @return calls made to each procedure, by the name it was defined as */
+	Map<String, Long> getProcedureCalls();
+
+	/** @return calls made by the dot form to each Java method */
+	Map<String, Long> getDotInvocations();
+
+	void reset();
+
+}
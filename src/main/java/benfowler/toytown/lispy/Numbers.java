@@ -0,0 +1,233 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import java.math.BigInteger;
+
+/**
+ * Arithmetic over the numeric tower.  Exact integers are held as
+ * {@link Long}, and promoted to {@link BigInteger} when a result overflows a
+ * long; results which fit in a long again are demoted, so that every exact
+ * integer has a single representation.  Inexact numbers are held as
+ * {@link Double}, and any operation involving one gives an inexact result.
+ * <p>
+ * Other integral {@link Number} types (as returned by Java methods) are
+ * treated as exact; everything else is treated as inexact.
+ */
+public final class Numbers {
+
+	/** Range of exact integers which are boxed once and shared */
+	static final long CACHE_LOW = -1024;
+	static final long CACHE_HIGH = 8191;
+
+	private static final Long[] CACHE =
+			new Long[(int) (CACHE_HIGH - CACHE_LOW + 1)];
+
+	private static final BigInteger LONG_MIN =
+			BigInteger.valueOf(Long.MIN_VALUE);
+	private static final BigInteger LONG_MAX =
+			BigInteger.valueOf(Long.MAX_VALUE);
+
+	static {
+		for (int i=0; i<CACHE.length; ++i) {
+			CACHE[i] = Long.valueOf(CACHE_LOW + i);
+		}
+	}
+
+	private Numbers() { }
+
+	/**
+	 * @return the boxed exact integer, shared if it is small
+	 */
+	public static Long valueOf(final long value) {
+		if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+			return CACHE[(int) (value - CACHE_LOW)];
+		}
+		return Long.valueOf(value);
+	}
+
+	/**
+	 * @return the exact integer as a Long if it fits, else as a BigInteger
+	 */
+	public static Number normalize(final BigInteger value) {
+		if (value.compareTo(LONG_MIN) >= 0 && value.compareTo(LONG_MAX) <= 0) {
+			return valueOf(value.longValue());
+		}
+		return value;
+	}
+
+	/**
+	 * Parse an integer literal of any size.
+	 */
+	static Number parseInteger(final String literal) {
+		try {
+			return valueOf(Long.parseLong(literal));
+		} catch (NumberFormatException e) {
+			return normalize(new BigInteger(literal));
+		}
+	}
+
+	public static Number add(final Number a, final Number b) {
+		if (a instanceof Long && b instanceof Long) {
+			final long x = a.longValue();
+			final long y = b.longValue();
+			final long r = x + y;
+			if (((x ^ r) & (y ^ r)) >= 0) {
+				return valueOf(r);
+			}
+		} else if (!isExact(a) || !isExact(b)) {
+			return a.doubleValue() + b.doubleValue();
+		}
+		return normalize(toBigInteger(a).add(toBigInteger(b)));
+	}
+
+	public static Number subtract(final Number a, final Number b) {
+		if (a instanceof Long && b instanceof Long) {
+			final long x = a.longValue();
+			final long y = b.longValue();
+			final long r = x - y;
+			if (((x ^ y) & (x ^ r)) >= 0) {
+				return valueOf(r);
+			}
+		} else if (!isExact(a) || !isExact(b)) {
+			return a.doubleValue() - b.doubleValue();
+		}
+		return normalize(toBigInteger(a).subtract(toBigInteger(b)));
+	}
+
+	public static Number multiply(final Number a, final Number b) {
+		if (a instanceof Long && b instanceof Long) {
+			final long x = a.longValue();
+			final long y = b.longValue();
+			final long r = x * y;
+			// As in Math.multiplyExact: small operands cannot overflow
+			if ((Math.abs(x) | Math.abs(y)) >>> 31 == 0
+					|| (y == 0 || r / y == x)
+						&& !(x == Long.MIN_VALUE && y == -1)) {
+				return valueOf(r);
+			}
+		} else if (!isExact(a) || !isExact(b)) {
+			return a.doubleValue() * b.doubleValue();
+		}
+		return normalize(toBigInteger(a).multiply(toBigInteger(b)));
+	}
+
+	/**
+	 * Division is exact only where both operands are exact and the quotient
+	 * is an integer; otherwise it is inexact.  Division by exact zero gives
+	 * an infinity or NaN, as it does for inexact numbers.
+	 */
+	public static Number divide(final Number a, final Number b) {
+		if (isExact(a) && isExact(b) && !isZero(b)) {
+			if (a instanceof Long && b instanceof Long) {
+				final long x = a.longValue();
+				final long y = b.longValue();
+				if (x % y == 0 && !(x == Long.MIN_VALUE && y == -1)) {
+					return valueOf(x / y);
+				}
+			}
+			final BigInteger[] qr =
+					toBigInteger(a).divideAndRemainder(toBigInteger(b));
+			if (qr[1].signum() == 0) {
+				return normalize(qr[0]);
+			}
+		}
+		return a.doubleValue() / b.doubleValue();
+	}
+
+	/**
+	 * Remainder, taking the sign of the dividend as Java's % does.
+	 */
+	public static Number remainder(final Number a, final Number b) {
+		if (isExact(a) && isExact(b) && !isZero(b)) {
+			if (a instanceof Long && b instanceof Long) {
+				return valueOf(a.longValue() % b.longValue());
+			}
+			return normalize(toBigInteger(a).remainder(toBigInteger(b)));
+		}
+		return a.doubleValue() % b.doubleValue();
+	}
+
+	public static boolean lessThan(final Number a, final Number b) {
+		if (!isExact(a) || !isExact(b)) {
+			return a.doubleValue() < b.doubleValue();
+		}
+		return compareExact(a, b) < 0;
+	}
+
+	public static boolean greaterThan(final Number a, final Number b) {
+		if (!isExact(a) || !isExact(b)) {
+			return a.doubleValue() > b.doubleValue();
+		}
+		return compareExact(a, b) > 0;
+	}
+
+	public static boolean lessOrEqual(final Number a, final Number b) {
+		if (!isExact(a) || !isExact(b)) {
+			return a.doubleValue() <= b.doubleValue();
+		}
+		return compareExact(a, b) <= 0;
+	}
+
+	public static boolean greaterOrEqual(final Number a, final Number b) {
+		if (!isExact(a) || !isExact(b)) {
+			return a.doubleValue() >= b.doubleValue();
+		}
+		return compareExact(a, b) >= 0;
+	}
+
+	/**
+	 * Numeric equality, as for '=': 1 and 1.0 are equal.
+	 */
+	public static boolean numericEquals(final Number a, final Number b) {
+		if (!isExact(a) || !isExact(b)) {
+			return a.doubleValue() == b.doubleValue();
+		}
+		return compareExact(a, b) == 0;
+	}
+
+	public static boolean isExact(final Number n) {
+		return n instanceof Long || n instanceof Integer
+				|| n instanceof BigInteger || n instanceof Short
+				|| n instanceof Byte;
+	}
+
+	private static boolean isZero(final Number exact) {
+		return exact instanceof BigInteger
+				? ((BigInteger) exact).signum() == 0 : exact.longValue() == 0;
+	}
+
+	private static int compareExact(final Number a, final Number b) {
+		if (a instanceof BigInteger || b instanceof BigInteger) {
+			return toBigInteger(a).compareTo(toBigInteger(b));
+		}
+		final long x = a.longValue();
+		final long y = b.longValue();
+		return x < y ? -1 : (x == y ? 0 : 1);
+	}
+
+	private static BigInteger toBigInteger(final Number exact) {
+		return exact instanceof BigInteger
+				? (BigInteger) exact : BigInteger.valueOf(exact.longValue());
+	}
+
+}
@@ -0,0 +1,569 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Optional pass over a resolved program, run before it is evaluated when
+ * {@link Interpreter#isOptimizing()} is set; see {@link #PROPERTY}.
+ * <ul>
+ * <li>Calls to pure builtins with constant arguments are replaced by their
+ * results, as in <tt>(* 60 60 24)</tt>.  A call which fails is left to fail
+ * at run time.</li>
+ * <li>An <tt>if</tt> with a constant condition is replaced by the branch
+ * it would take.</li>
+ * <li>Nested <tt>begin</tt>s are flattened, and constants which aren't
+ * the last form of a <tt>begin</tt> are dropped.</li>
+ * <li>A local defined as a constant in the body of a procedure is
+ * replaced by its value in the forms which follow the definition, provided
+ * it is defined only once and never <tt>set!</tt>.  Globals are never
+ * replaced, as they may be assigned by procedures defined elsewhere.</li>
+ * <li>Calls within a procedure to small, non-recursive procedures, which
+ * are defined as locals in the same way, are inlined; see
+ * {@link #INLINE_PROPERTY}.  So is a lambda expression called directly.
+ * Global procedures are never inlined, as they may be redefined.</li>
+ * </ul>
+ * Builtins are folded only in the forms which run as the program does,
+ * and never in the bodies of procedures, which may be called after the
+ * names have been rebound.  A builtin is only folded if
+ * the program never defines or assigns its name.  The names folded are
+ * recorded with the optimized program, which is only run in an environment
+ * where they are still bound to the builtins; see
+ * {@link Program#isValidIn(Environment)}.
+ */
+final class Optimizer {
+
+	/** System property which turns on optimization: "true" or "false" */
+	static final String PROPERTY = "toytown.optimize";
+
+	/**
+	 * System property holding the size, in atoms and forms, of the largest
+	 * procedure body to inline, or 0 to turn inlining off
+	 */
+	static final String INLINE_PROPERTY = "toytown.inline.size";
+
+	static final int DEFAULT_INLINE_SIZE = 24;
+
+	private static volatile int inlineSize =
+			Integer.getInteger(INLINE_PROPERTY, DEFAULT_INLINE_SIZE);
+
+	/**
+	 * Builtins which have no side effects, and whose results depend only on
+	 * their arguments.  Builtins which allocate a new list are left out, so
+	 * that each call still gives a list of its own.
+	 */
+	private static final Set<Symbol> PURE = symbols("+", "-", "*", "/", "%",
+			"<", ">", "<=", ">=", "=", "equal?", "eq?", "not", "length", "car",
+			"cdr", "list?", "null?", "symbol?");
+
+	/**
+	 * Slots of the frame of the lambda being optimized, together with any
+	 * constants known to be in them
+	 */
+	private static final class Scope {
+
+		private final Scope parent;
+
+		/** Whether each slot is a local defined once, and never assigned */
+		private final boolean[] fixed;
+
+		/** Value of each slot, if known to be a constant */
+		private final Object[] constants;
+
+		/** Lambda of each slot, if known to hold a procedure to inline */
+		private final Lambda[] procedures;
+
+		/** Size of the frame, grown by each call inlined */
+		private int frameSize;
+
+		Scope(final Scope parent, final Lambda lambda) {
+			this.parent = parent;
+			this.fixed = fixedSlots(lambda);
+			this.constants = new Object[lambda.getFrameSize()];
+			this.procedures = new Lambda[lambda.getFrameSize()];
+			this.frameSize = lambda.getFrameSize();
+		}
+
+		Scope ancestor(final int depth) {
+			Scope scope = this;
+			for (int i=0; i<depth; ++i) {
+				scope = scope.parent;
+			}
+			return scope;
+		}
+
+	}
+
+	/** Globals defined or assigned by the program */
+	private final Set<Symbol> defined = new HashSet<Symbol>();
+
+	/** Builtins folded */
+	private final Set<Symbol> assumed = new LinkedHashSet<Symbol>();
+
+	private Optimizer() {
+	}
+
+	/**
+	 * @return an optimized copy of the program
+	 */
+	static Program optimize(final Program program) {
+		final Optimizer optimizer = new Optimizer();
+		final Object resolved = program.getResolved();
+		optimizer.collectGlobals(resolved);
+		final Object optimized = optimizer.body(resolved, null);
+		return new Program(program.getForm(), optimized,
+				optimizer.assumed.toArray(new Symbol[0]));
+	}
+
+	private Object optimize(final Object form, final Scope scope) {
+		if (form instanceof LocalRef) {
+			final LocalRef ref = (LocalRef) form;
+			final Scope s = scope.ancestor(ref.getDepth());
+			final Object constant = ref.getSlot() < s.constants.length
+					? s.constants[ref.getSlot()] : null;
+			return constant != null ? constant : form;
+		} else if (form instanceof Lambda) {
+			final Lambda lambda = (Lambda) form;
+			final Scope inner = new Scope(scope, lambda);
+			final Object body = body(lambda.getBody(), inner);
+			return new Lambda(lambda.getName(), lambda.getFormalArguments(),
+					lambda.isBoundAllArgsAsList(), inner.frameSize, body);
+		} else if (!(form instanceof List) || ((List<?>) form).isEmpty()) {
+			return form;
+		}
+
+		final List<?> list = (List<?>) form;
+		final Object head = list.get(0);
+		if (head == SpecialForm.IF && list.size() >= 3 && list.size() <= 4) {
+			final Object condition = optimize(list.get(1), scope);
+			if (condition == Boolean.TRUE) {
+				return optimize(list.get(2), scope);
+			} else if (condition == Boolean.FALSE && list.size() == 4) {
+				return optimize(list.get(3), scope);
+			}
+			final Object[] result = new Object[list.size()];
+			result[0] = head;
+			result[1] = condition;
+			for (int i=2; i<result.length; ++i) {
+				result[i] = optimize(list.get(i), scope);
+			}
+			return new Form(result);
+		} else if (isBegin(list)) {
+			final List<Object> elements = new ArrayList<Object>();
+			flatten(list, elements);
+			for (int i=0; i<elements.size(); ++i) {
+				elements.set(i, optimize(elements.get(i), scope));
+			}
+			return begin(elements);
+		} else if ((head == SpecialForm.DEFINE || head == SpecialForm.SET_)
+				&& list.size() == 3) {
+			// Leave the name alone, even if it is a constant
+			return new Form(head, list.get(1), optimize(list.get(2), scope));
+		} else if (head instanceof Dot && list.size() >= 2) {
+			// Likewise the target, which may be a class name
+			final Object[] result = list.toArray();
+			for (int i=2; i<result.length; ++i) {
+				result[i] = optimize(result[i], scope);
+			}
+			return new Form(result);
+		} else if (head instanceof SpecialForm) {
+			return form;
+		}
+
+		final Object[] result = new Object[list.size()];
+		for (int i=0; i<result.length; ++i) {
+			result[i] = optimize(list.get(i), scope);
+		}
+		final Object folded = scope == null ? fold(result) : null;
+		if (folded != null) {
+			return folded;
+		}
+		final Object inlined = inline(result, scope);
+		return inlined != null ? inlined : new Form(result);
+	}
+
+	/**
+	 * Optimize the body of a procedure, or a whole program.  Local
+	 * constants defined by the forms of a procedure's body are substituted
+	 * into the forms which follow them.  Definitions anywhere else, say in one branch of
+	 * an <tt>if</tt>, might not be made, and so are left alone.
+	 */
+	private Object body(final Object form, final Scope scope) {
+		if (!(form instanceof List) || !isBegin((List<?>) form)) {
+			return define(optimize(form, scope), scope);
+		}
+		final List<Object> elements = new ArrayList<Object>();
+		flatten((List<?>) form, elements);
+		for (int i=0; i<elements.size(); ++i) {
+			elements.set(i, define(optimize(elements.get(i), scope), scope));
+		}
+		return begin(elements);
+	}
+
+	/**
+	 * Record the value of an optimized definition of a local, if it is a
+	 * constant which is never changed.
+	 * @return the definition
+	 */
+	private Object define(final Object form, final Scope scope) {
+		if (!(form instanceof List) || ((List<?>) form).size() != 3
+				|| ((List<?>) form).get(0) != SpecialForm.DEFINE) {
+			return form;
+		}
+		final Object target = ((List<?>) form).get(1);
+		final Object value = ((List<?>) form).get(2);
+		if (!isConstant(value) && !(value instanceof Lambda)) {
+			return form;
+		}
+		if (scope != null && target instanceof LocalRef
+				&& ((LocalRef) target).getDepth() == 0
+				&& ((LocalRef) target).getSlot() < scope.fixed.length
+				&& scope.fixed[((LocalRef) target).getSlot()]) {
+			final int slot = ((LocalRef) target).getSlot();
+			if (value instanceof Lambda) {
+				if (isInlinable((Lambda) value, slot)) {
+					scope.procedures[slot] = (Lambda) value;
+				}
+			} else {
+				scope.constants[slot] = value;
+			}
+		}
+		return form;
+	}
+
+	/**
+	 * @return the result of a call to a pure builtin with constant
+	 * arguments, as a constant, or null if the call can't be folded
+	 */
+	private Object fold(final Object[] call) {
+		final Object head = call[0];
+		if (!PURE.contains(head) || defined.contains(head)) {
+			return null;
+		}
+		final Object[] args = new Object[call.length - 1];
+		for (int i=0; i<args.length; ++i) {
+			if (!isConstant(call[i + 1])) {
+				return null;
+			}
+			args[i] = value(call[i + 1]);
+		}
+		final Builtin builtin = (Builtin)
+				Builtins.getBaseEnvironment().get((Symbol) head);
+		final Object result;
+		try {
+			result = builtin.call(args);
+		} catch (final RuntimeException e) {
+			// Leave the error to be raised at run time, as usual
+			return null;
+		}
+		if (result == null) {
+			return null;
+		}
+		assumed.add((Symbol) head);
+		return result instanceof Number || result instanceof Boolean
+				? result : new Form(SpecialForm.QUOTE, result);
+	}
+
+	/**
+	 * Inline a call to a known local procedure, or to a lambda expression.  The
+	 * procedure's arguments and local names are given slots of their own at
+	 * the end of the caller's frame, so they can't clash with the caller's
+	 * names, and the arguments are each evaluated once, in order, just as
+	 * for a call.  The body's references are moved to match.
+	 * @return the inlined body, or null if the call isn't inlined
+	 */
+	private Object inline(final Object[] call, final Scope scope) {
+		if (scope == null || inlineSize <= 0) {
+			// A top-level frame has no slots to put arguments in
+			return null;
+		}
+
+		// The procedure, and the distance to the scope it was defined in
+		final Object head = call[0];
+		final Lambda callee;
+		int distance = 0;
+		if (head instanceof Lambda) {
+			callee = isInlinable((Lambda) head, -1) ? (Lambda) head : null;
+		} else if (head instanceof LocalRef) {
+			final LocalRef ref = (LocalRef) head;
+			final Scope s = scope.ancestor(ref.getDepth());
+			callee = ref.getSlot() < s.procedures.length
+					? s.procedures[ref.getSlot()] : null;
+			distance = ref.getDepth();
+		} else {
+			return null;
+		}
+		if (callee == null
+				|| callee.getFormalArguments().size() != call.length - 1) {
+			return null;
+		}
+
+		final int base = scope.frameSize;
+		scope.frameSize += callee.getFrameSize();
+		final List<Object> elements = new ArrayList<Object>();
+		for (int i=1; i<call.length; ++i) {
+			elements.add(new Form(SpecialForm.DEFINE,
+					new LocalRef(callee.getFormalArguments().get(i - 1), 0,
+							base + i - 1),
+					call[i]));
+		}
+		elements.add(relocate(callee.getBody(), 0, base, distance));
+		return elements.size() == 1
+				? elements.get(0) : begin(elements);
+	}
+
+	/**
+	 * Move the references in a procedure body being inlined.  Those to the
+	 * procedure's own frame are moved to the caller's, at the given base
+	 * slot.  Those to the frames around the procedure are reached through
+	 * the caller's frame, which is the given distance inside them.
+	 * @param level number of lambdas within the body enclosing the form
+	 */
+	private static Object relocate(final Object form, final int level,
+			final int base, final int distance) {
+		if (form instanceof LocalRef) {
+			final LocalRef ref = (LocalRef) form;
+			final Object fallback =
+					relocate(ref.getFallback(), level, base, distance);
+			if (ref.getDepth() < level) {
+				return new LocalRef(ref.getName(), ref.getDepth(),
+						ref.getSlot(), fallback);
+			} else if (ref.getDepth() == level) {
+				return new LocalRef(ref.getName(), level,
+						base + ref.getSlot(), fallback);
+			}
+			return new LocalRef(ref.getName(),
+					ref.getDepth() - 1 + distance, ref.getSlot(), fallback);
+		} else if (form instanceof Lambda) {
+			final Lambda lambda = (Lambda) form;
+			return new Lambda(lambda.getName(), lambda.getFormalArguments(),
+					lambda.isBoundAllArgsAsList(), lambda.getFrameSize(),
+					relocate(lambda.getBody(), level + 1, base, distance));
+		} else if (!(form instanceof List) || ((List<?>) form).isEmpty()
+				|| ((List<?>) form).get(0) == SpecialForm.QUOTE) {
+			return form;
+		}
+		final Object[] result = ((List<?>) form).toArray();
+		for (int i=0; i<result.length; ++i) {
+			result[i] = relocate(result[i], level, base, distance);
+		}
+		return new Form(result);
+	}
+
+	/**
+	 * @return true if a lambda is small enough to inline, binds its
+	 * arguments individually, and doesn't call itself
+	 * @param slot slot of the lambda, if bound to a local
+	 */
+	private boolean isInlinable(final Lambda lambda, final int slot) {
+		return inlineSize > 0 && !lambda.isBoundAllArgsAsList()
+				&& size(lambda.getBody()) <= inlineSize
+				&& !refersTo(lambda.getBody(), 1, slot);
+	}
+
+	/**
+	 * @return true if a form refers to the given slot of the frame the given
+	 * number of lambdas out
+	 */
+	private static boolean refersTo(final Object form, final int depth,
+			final int slot) {
+		if (form instanceof LocalRef) {
+			return ((LocalRef) form).getDepth() == depth
+					&& ((LocalRef) form).getSlot() == slot
+					|| refersTo(((LocalRef) form).getFallback(), depth, slot);
+		} else if (form instanceof Lambda) {
+			return refersTo(((Lambda) form).getBody(), depth + 1, slot);
+		} else if (form instanceof List) {
+			for (final Object o : (List<?>) form) {
+				if (refersTo(o, depth, slot)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return number of atoms and forms in a form
+	 */
+	private static int size(final Object form) {
+		if (form instanceof Lambda) {
+			return 1 + size(((Lambda) form).getBody());
+		} else if (!(form instanceof List)) {
+			return 1;
+		}
+		int result = 1;
+		for (final Object o : (List<?>) form) {
+			result += size(o);
+		}
+		return result;
+	}
+
+	/**
+	 * Find the globals the program defines or assigns, anywhere in it
+	 */
+	private void collectGlobals(final Object form) {
+		if (form instanceof Lambda) {
+			collectGlobals(((Lambda) form).getBody());
+			return;
+		} else if (!(form instanceof List) || ((List<?>) form).isEmpty()) {
+			return;
+		}
+		final List<?> list = (List<?>) form;
+		final Object head = list.get(0);
+		if (head == SpecialForm.QUOTE) {
+			return;
+		} else if ((head == SpecialForm.DEFINE || head == SpecialForm.SET_)
+				&& list.size() > 1 && list.get(1) instanceof Symbol) {
+			defined.add((Symbol) list.get(1));
+		}
+		for (final Object o : list) {
+			collectGlobals(o);
+		}
+	}
+
+	/**
+	 * @return for each slot of the lambda's frame, whether it holds a name
+	 * defined just once in the body, and never assigned, even by a nested
+	 * lambda
+	 */
+	private static boolean[] fixedSlots(final Lambda lambda) {
+		final int[] definitions = new int[lambda.getFrameSize()];
+		final boolean[] assignments = new boolean[lambda.getFrameSize()];
+		collectLocals(lambda.getBody(), 0, definitions, assignments);
+		final boolean[] result = new boolean[lambda.getFrameSize()];
+		for (int i=lambda.getFormalArguments().size(); i<result.length; ++i) {
+			result[i] = definitions[i] == 1 && !assignments[i];
+		}
+		return result;
+	}
+
+	private static void collectLocals(final Object form, final int depth,
+			final int[] definitions, final boolean[] assignments) {
+		if (form instanceof Lambda) {
+			collectLocals(((Lambda) form).getBody(), depth + 1, definitions,
+					assignments);
+			return;
+		} else if (!(form instanceof List) || ((List<?>) form).isEmpty()) {
+			return;
+		}
+		final List<?> list = (List<?>) form;
+		final Object head = list.get(0);
+		if (head == SpecialForm.QUOTE) {
+			return;
+		} else if ((head == SpecialForm.DEFINE || head == SpecialForm.SET_)
+				&& list.size() > 1 && list.get(1) instanceof LocalRef
+				&& ((LocalRef) list.get(1)).getDepth() == depth) {
+			final int slot = ((LocalRef) list.get(1)).getSlot();
+			if (head == SpecialForm.SET_) {
+				assignments[slot] = true;
+			} else {
+				++definitions[slot];
+			}
+		}
+		for (final Object o : list) {
+			collectLocals(o, depth, definitions, assignments);
+		}
+	}
+
+	static int getInlineSize() {
+		return inlineSize;
+	}
+
+	/**
+	 * @param inlineSize size of the largest procedure body to inline, or 0
+	 * to turn inlining off
+	 */
+	static void setInlineSize(final int inlineSize) {
+		Optimizer.inlineSize = inlineSize;
+	}
+
+	//
+	// Helpers
+	//
+
+	private static boolean isBegin(final List<?> list) {
+		return list.size() >= 2 && list.get(0) == SpecialForm.BEGIN;
+	}
+
+	/**
+	 * Add the forms of a <tt>begin</tt> to a list, along with the forms of
+	 * any <tt>begin</tt> nested directly within it
+	 */
+	private static void flatten(final List<?> begin,
+			final List<Object> elements) {
+		for (int i=1; i<begin.size(); ++i) {
+			final Object form = begin.get(i);
+			if (form instanceof List && isBegin((List<?>) form)) {
+				flatten((List<?>) form, elements);
+			} else {
+				elements.add(form);
+			}
+		}
+	}
+
+	/**
+	 * @return a <tt>begin</tt> of the given forms, less any constants whose
+	 * values would be discarded
+	 */
+	private static Object begin(final List<Object> elements) {
+		final List<Object> result = new ArrayList<Object>(elements.size());
+		result.add(SpecialForm.BEGIN);
+		final int last = elements.size() - 1;
+		for (int i=0; i<last; ++i) {
+			final Object form = elements.get(i);
+			if (!isConstant(form) && !(form instanceof Lambda)) {
+				result.add(form);
+			}
+		}
+		if (result.size() == 1) {
+			return elements.get(last);
+		}
+		result.add(elements.get(last));
+		return new Form(result.toArray());
+	}
+
+	private static boolean isConstant(final Object form) {
+		return form instanceof Number || form instanceof Boolean
+				|| form instanceof List && ((List<?>) form).size() == 2
+						&& ((List<?>) form).get(0) == SpecialForm.QUOTE;
+	}
+
+	private static Object value(final Object constant) {
+		return constant instanceof List
+				? ((List<?>) constant).get(1) : constant;
+	}
+
+	private static Set<Symbol> symbols(final String... names) {
+		final Set<Symbol> result = new HashSet<Symbol>();
+		for (final String name : names) {
+			result.add(Symbol.intern(name));
+		}
+		return result;
+	}
+
+}
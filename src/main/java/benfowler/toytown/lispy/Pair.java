@@ -0,0 +1,60 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+/**
+ * Non-empty list cell: a head element, and a (shared) tail.
+ */
+public final class Pair extends LispList {
+
+	private final Object car;
+
+	private final LispList cdr;
+
+	/** Cached, since lists are immutable */
+	private final int size;
+
+	public Pair(final Object car, final LispList cdr) {
+		this.car = car;
+		this.cdr = cdr;
+		this.size = cdr.size() + 1;
+	}
+
+	public Object car() {
+		return car;
+	}
+
+	public LispList cdr() {
+		return cdr;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return false;
+	}
+
+}
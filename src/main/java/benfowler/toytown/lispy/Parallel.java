@@ -0,0 +1,217 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package benfowler.toytown.lispy;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The parallel list builtins, <tt>pmap</tt>, <tt>pfilter</tt> and
+ * <tt>preduce</tt>.  The list is split in halves, recursively, until the
+ * pieces are no longer than the threshold, and the pieces are worked on by
+ * the common {@link ForkJoinPool}.  Results come back in list order.
+ * <p>
+ * The threshold is taken from the {@value #PROPERTY} system property.  The
+ * procedure is called from several threads at once, so it should do no more
+ * than read the global environment and the variables it closes over.
+ */
+final class Parallel {
+
+	/** System property holding the most elements worked on by one task */
+	static final String PROPERTY = "toytown.parallel.threshold";
+
+	static final int DEFAULT_THRESHOLD = 16;
+
+	private static volatile int threshold =
+			Math.max(1, Integer.getInteger(PROPERTY, DEFAULT_THRESHOLD));
+
+	private Parallel() { }
+
+	static int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * @param threshold most elements worked on by one task, and so the
+	 * longest list dealt with on the calling thread alone
+	 */
+	static void setThreshold(final int threshold) {
+		if (threshold < 1) {
+			throw new IllegalArgumentException("threshold: " + threshold);
+		}
+		Parallel.threshold = threshold;
+	}
+
+	/**
+	 * @return list of the results of applying the procedure to each element
+	 */
+	static LispList map(final Object procedure, final LispList list) {
+		final Object[] elements = list.toArray();
+		final Object[] results = new Object[elements.length];
+		new ForEach(threshold, 0, elements.length, new Body() {
+			@Override
+			public void apply(final int i) {
+				results[i] = Interpreter.apply(procedure, elements[i]);
+			}
+		}).invoke();
+		return LispList.of(results);
+	}
+
+	/**
+	 * @return list of the elements the predicate holds for
+	 */
+	static LispList filter(final Object predicate, final LispList list) {
+		final Object[] elements = list.toArray();
+		final boolean[] kept = new boolean[elements.length];
+		new ForEach(threshold, 0, elements.length, new Body() {
+			@Override
+			public void apply(final int i) {
+				kept[i] = test(Interpreter.apply(predicate, elements[i]));
+			}
+		}).invoke();
+		LispList result = Nil.NIL;
+		for (int i=elements.length - 1; i>=0; --i) {
+			if (kept[i]) {
+				result = result.cons(elements[i]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Combine the elements with a two-argument procedure.  Each piece of the
+	 * list is folded from the identity, and the pieces' results are then
+	 * combined pairwise, so the procedure must be associative and the
+	 * identity must leave any value unchanged, as with <tt>+</tt> and 0.
+	 */
+	static Object reduce(final Object procedure, final Object identity,
+			final LispList list) {
+		final Object[] elements = list.toArray();
+		return new Reduce(threshold, 0, elements.length, procedure, identity,
+				elements).invoke();
+	}
+
+	private static boolean test(final Object result) {
+		if (!(result instanceof Boolean)) {
+			throw new EvalException(Errors.BAD_ARGUMENT_TYPE, "pfilter",
+					"Boolean", result);
+		}
+		return ((Boolean) result).booleanValue();
+	}
+
+	/** Work done for one element */
+	private interface Body {
+
+		void apply(int i);
+
+	}
+
+	/**
+	 * Apply a body to each index in a range.  Invoked from outside the
+	 * pool, the calling thread works on the first piece while the rest are
+	 * picked up by the pool's threads.
+	 */
+	private static final class ForEach extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int threshold;
+
+		private final int from;
+
+		private final int to;
+
+		private final Body body;
+
+		ForEach(final int threshold, final int from, final int to,
+				final Body body) {
+			this.threshold = threshold;
+			this.from = from;
+			this.to = to;
+			this.body = body;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= threshold) {
+				for (int i=from; i<to; ++i) {
+					body.apply(i);
+				}
+				return;
+			}
+			final int middle = (from + to) >>> 1;
+			invokeAll(new ForEach(threshold, from, middle, body),
+					new ForEach(threshold, middle, to, body));
+		}
+
+	}
+
+	private static final class Reduce extends RecursiveTask<Object> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int threshold;
+
+		private final int from;
+
+		private final int to;
+
+		private final Object procedure;
+
+		private final Object identity;
+
+		private final Object[] elements;
+
+		Reduce(final int threshold, final int from, final int to,
+				final Object procedure, final Object identity,
+				final Object[] elements) {
+			this.threshold = threshold;
+			this.from = from;
+			this.to = to;
+			this.procedure = procedure;
+			this.identity = identity;
+			this.elements = elements;
+		}
+
+		@Override
+		protected Object compute() {
+			if (to - from <= threshold) {
+				Object result = identity;
+				for (int i=from; i<to; ++i) {
+					result = Interpreter.apply(procedure, result, elements[i]);
+				}
+				return result;
+			}
+			final int middle = (from + to) >>> 1;
+			final Reduce right = new Reduce(threshold, middle, to, procedure,
+					identity, elements);
+			right.fork();
+			final Object left = new Reduce(threshold, from, middle, procedure,
+					identity, elements).compute();
+			return Interpreter.apply(procedure, left, right.join());
+		}
+
+	}
+
+}
@@ -23,64 +23,96 @@ package benfowler.toytown.lispy;
 
 import java.util.List;
 
+/**
+ * Procedure: a {@link Lambda}, closed over the frame it was created in.
+ */
 public class Proc {
 
-	private final List<String> formalArguments;
+	private final Lambda lambda;
+
+	private final Frame frame;
 
-	private final Environment environment;
+	/** Number of calls, up to the point the lambda is compiled */
+	private int invocations;
 
-	private final Object body;
+	public Proc(final Lambda lambda, final Frame frame) {
+		this.lambda = lambda;
+		this.frame = frame;
+	}
+
+	public Lambda getLambda() {
+		return lambda;
+	}
 
-	private boolean boundAllArgsAsList = false;
+	public Frame getFrame() {
+		return frame;
+	}
+
+	/**
+	 * Count a call to the procedure, compiling its lambda to bytecode once
+	 * the procedure is hot; see {@link BytecodeCompiler}.  The count is kept
+	 * loosely, as losing the odd update to a race does no harm.  The call is
+	 * also recorded in the {@link Metrics}, if enabled.
+	 */
+	void invoked() {
+		if (Metrics.on()) {
+			Metrics.procedureCalled(lambda);
+		}
+		final int threshold = BytecodeCompiler.getThreshold();
+		if (threshold > 0 && invocations < threshold
+				&& ++invocations == threshold) {
+			lambda.compileToBytecode();
+		}
+	}
 
-	public Proc(final List<String> formalArguments,
-			final Environment environment, final Object body,
-			final boolean boundAllArgsAsList) {
-		this(formalArguments, environment, body);
-		this.boundAllArgsAsList = boundAllArgsAsList;
+	int getInvocationCount() {
+		return invocations;
 	}
 
-	public Proc(final List<String> formalArguments,
-			final Environment environment, final Object body) {
-		this.formalArguments = formalArguments;
-		this.environment = environment;
-		this.body = body;
+	/**
+	 * Bind actual arguments to formal arguments, in a new frame for a call.
+	 * @param actualArgs evaluated arguments, in an array allocated by
+	 * {@link Lambda#newArguments(int)}
+	 * @param numOfActualArgs number of actual arguments
+	 * @return frame to execute the body in
+	 */
+	public Frame bind(final Object[] actualArgs, final int numOfActualArgs) {
+		final Object[] slots;
+		if (lambda.isBoundAllArgsAsList()) {
+			// Turn all actual arguments into list, pass as sole parameter
+			slots = new Object[lambda.getFrameSize()];
+			slots[0] = LispList.of(actualArgs);
+		} else {
+			// Bind each argument to different formal argument
+			final int numOfFormalArgs = lambda.getFormalArguments().size();
+			if (numOfFormalArgs != numOfActualArgs) {
+				throw new EvalException(Errors.INVALID_NUMBER_OF_ARGUMENTS,
+						numOfFormalArgs, numOfFormalArgs, numOfActualArgs);
+			}
+			slots = actualArgs;
+		}
+		return new Frame(frame, slots);
 	}
 
-	public List<String> getFormalArguments() {
-		return formalArguments;
+	public List<Symbol> getFormalArguments() {
+		return lambda.getFormalArguments();
 	}
 
 	public Environment getEnvironment() {
-		return environment;
+		return frame.getEnvironment();
 	}
 
 	public Object getBody() {
-		return body;
+		return lambda.getBody();
 	}
 
 	public boolean isBoundAllArgsAsList() {
-		return boundAllArgsAsList;
+		return lambda.isBoundAllArgsAsList();
 	}
 
 	@Override
 	public String toString() {
-		StringBuilder builder = new StringBuilder();
-		builder.append("(lambda ");
-
-		if (formalArguments != null) {
-			builder.append(formalArguments.toString());
-			if (boundAllArgsAsList) {
-				builder.append("*");
-			}
-		} else {
-			builder.append("<<null formalArgs>>");
-		}
-
-		builder.append(" ")
-			.append(body != null ? body.toString() : "<<null body>>")
-			.append(")");
-		return builder.toString();
+		return lambda.toString();
 	}
 
 }
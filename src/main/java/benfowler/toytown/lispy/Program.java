@@ -0,0 +1,113 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package benfowler.toytown.lispy;
+
+/**
+ * A parsed top-level form, together with the forms derived from it for
+ * each engine: resolved for the tree-walker, and analyzed for the closure
+ * compiler.  These are worked out on first use, and are independent of the
+ * environment, so a program held by a {@link ProgramCache} can be run any
+ * number of times, in any environment, by any number of threads.
+ */
+final class Program {
+
+	private static final Symbol[] NO_ASSUMPTIONS = new Symbol[0];
+
+	private final Object form;
+
+	/** Builtins whose bindings the resolved form relies on */
+	private final Symbol[] assumptions;
+
+	private volatile Object resolved;
+
+	private volatile Node analyzed;
+
+	private volatile Program optimized;
+
+	Program(final Object form) {
+		this.form = form;
+		this.assumptions = NO_ASSUMPTIONS;
+	}
+
+	/**
+	 * Build an optimized program; see {@link Optimizer}
+	 * @param assumptions names which must still be bound to the builtins
+	 * for the optimized form to be run
+	 */
+	Program(final Object form, final Object optimized,
+			final Symbol[] assumptions) {
+		this.form = form;
+		this.resolved = optimized;
+		this.assumptions = assumptions;
+		this.optimized = this;
+	}
+
+	Object getForm() {
+		return form;
+	}
+
+	Object getResolved() {
+		Object result = resolved;
+		if (result == null) {
+			result = Resolver.resolve(form);
+			resolved = result;
+		}
+		return result;
+	}
+
+	Node getAnalyzed() {
+		Node result = analyzed;
+		if (result == null) {
+			result = Analyzer.analyze(getResolved());
+			analyzed = result;
+		}
+		return result;
+	}
+
+	/**
+	 * @return this program, as optimized by the {@link Optimizer}
+	 */
+	Program getOptimized() {
+		Program result = optimized;
+		if (result == null) {
+			result = Optimizer.optimize(this);
+			optimized = result;
+		}
+		return result;
+	}
+
+	/**
+	 * @return true if the names this program assumes are bound to builtins
+	 * are still bound to them in the given environment
+	 */
+	boolean isValidIn(final Environment env) {
+		final Environment base = Builtins.getBaseEnvironment();
+		for (final Symbol name : assumptions) {
+			if (env.lookup(name) != base.lookup(name)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
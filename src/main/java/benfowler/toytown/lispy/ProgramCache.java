@@ -0,0 +1,230 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package benfowler.toytown.lispy;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of programs by source text, so that a program seen before
+ * is neither scanned, parsed nor analyzed again.  Once installed with
+ * {@link Interpreter#setProgramCache(ProgramCache)}, or by setting the
+ * {@value #PROPERTY} system property to the number of programs to keep, it
+ * is used by {@link Interpreter#parse(String)},
+ * {@link Interpreter#eval(String, Environment)} and everything built on
+ * them.  A form handed out by the cache is also known by identity, so that
+ * {@link Interpreter#eval(Object, Environment)} runs the cached program,
+ * without resolving or analyzing it again.
+ * <p>
+ * The cache is split into segments by hash code, each a least-recently-used
+ * map behind a lock of its own, so that threads rarely wait on one another.
+ * Eviction is least-recently-used within each segment, which is close to
+ * it overall.  Programs which fail to parse are not cached.
+ */
+public final class ProgramCache {
+
+	/** System property giving the size of the cache installed at startup */
+	public static final String PROPERTY = "toytown.program.cache";
+
+	private static final int MAXIMUM_SEGMENTS = 16;
+
+	private final int maximumSize;
+
+	private final Segment[] segments;
+
+	/** Cached programs by form, split likewise by identity hash code */
+	private final FormIndex[] forms;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maximumSize most programs to keep
+	 */
+	public ProgramCache(final int maximumSize) {
+		if (maximumSize < 1) {
+			throw new IllegalArgumentException("maximumSize: " + maximumSize);
+		}
+		this.maximumSize = maximumSize;
+		final int count = Math.min(MAXIMUM_SEGMENTS, maximumSize);
+		segments = new Segment[count];
+		forms = new FormIndex[count];
+		for (int i=0; i<count; ++i) {
+			// Share out the capacity, giving the first segments any left over
+			segments[i] = new Segment(maximumSize / count
+					+ (i < maximumSize % count ? 1 : 0));
+			forms[i] = new FormIndex();
+		}
+	}
+
+	/**
+	 * @return the program with the given source, parsed if it isn't cached
+	 * @throws ParseException if the program can't be parsed
+	 */
+	Program get(final String source) throws EvalException {
+		final Segment segment = segmentFor(source);
+		synchronized (segment) {
+			final Program cached = segment.get(source);
+			if (cached != null) {
+				hits.increment();
+				return cached;
+			}
+		}
+
+		misses.increment();
+		final Program parsed = new Program(Interpreter.parseSource(source));
+		synchronized (segment) {
+			// Another thread may have got here first; keep whichever was
+			final Program raced = segment.get(source);
+			if (raced != null) {
+				return raced;
+			}
+			segment.put(source, parsed);
+			final FormIndex index = indexFor(parsed.getForm());
+			synchronized (index) {
+				index.put(parsed.getForm(), parsed);
+			}
+		}
+		return parsed;
+	}
+
+	/**
+	 * @return the cached program whose form is the very one given, as
+	 * returned by {@link Interpreter#parse(String)}, or null if there is none
+	 */
+	Program find(final Object form) {
+		final FormIndex index = indexFor(form);
+		final Program cached;
+		synchronized (index) {
+			cached = index.get(form);
+		}
+		if (cached != null) {
+			hits.increment();
+		}
+		return cached;
+	}
+
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	public int size() {
+		int size = 0;
+		for (final Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public void clear() {
+		for (final Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+		for (final FormIndex index : forms) {
+			synchronized (index) {
+				index.clear();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ProgramCache[size=%d/%d hits=%d misses=%d"
+				+ " evictions=%d]", size(), maximumSize, getHits(),
+				getMisses(), getEvictions());
+	}
+
+	private Segment segmentFor(final String source) {
+		final int hash = source.hashCode();
+		return segments[((hash ^ (hash >>> 16)) & 0x7fffffff)
+				% segments.length];
+	}
+
+	private FormIndex indexFor(final Object form) {
+		final int hash = System.identityHashCode(form);
+		return forms[((hash ^ (hash >>> 16)) & 0x7fffffff) % forms.length];
+	}
+
+	/**
+	 * Least-recently-used map, guarded by its own monitor
+	 */
+	private final class Segment extends LinkedHashMap<String, Program> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		Segment(final int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(
+				final Map.Entry<String, Program> eldest) {
+			if (size() > capacity) {
+				evictions.increment();
+				final Program evicted = eldest.getValue();
+				final FormIndex index = indexFor(evicted.getForm());
+				synchronized (index) {
+					// Unless another source gave the same form, as for a symbol
+					index.remove(evicted.getForm(), evicted);
+				}
+				return true;
+			}
+			return false;
+		}
+
+	}
+
+	/**
+	 * Programs by the identity of their forms, guarded by its own monitor.
+	 * It is only changed while the segment holding the program is locked.
+	 */
+	private static final class FormIndex
+	extends IdentityHashMap<Object, Program> {
+
+		private static final long serialVersionUID = 1L;
+
+	}
+
+}
@@ -0,0 +1,222 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolution pass, run over each top-level form before it is evaluated.
+ *
+ * References to procedure arguments, and to names defined inside procedure
+ * bodies, are replaced by {@link LocalRef}s holding their lexical address.
+ * Lambda expressions are replaced by {@link Lambda}s, which record how many
+ * slots their activation frames need.  Anything not bound locally is left
+ * as a {@link Symbol}, and is looked up by name in the global
+ * {@link Environment} at run time.
+ *
+ * A name defined in a procedure body is read from its slot once defined.
+ * Before then, as when it is read ahead of its definition or the definition
+ * is in a branch not taken, it means what it means outside the procedure;
+ * see {@link LocalRef#getFallback()}.
+ */
+final class Resolver {
+
+	/**
+	 * Names bound by one enclosing lambda, and their slots
+	 */
+	private static final class Scope {
+
+		private final Scope parent;
+
+		private final Map<Symbol, Integer> slots =
+				new HashMap<Symbol, Integer>();
+
+		/** Number of formal arguments, which take the first slots */
+		private final int formals;
+
+		private int size;
+
+		Scope(final Scope parent, final List<Symbol> formalArguments) {
+			this.parent = parent;
+			for (final Symbol name : formalArguments) {
+				// Each argument takes a slot, though a repeated name can
+				// only refer to the first
+				if (!slots.containsKey(name)) {
+					slots.put(name, size);
+				}
+				++size;
+			}
+			this.formals = size;
+		}
+
+		/**
+		 * Give a name defined in the body a slot, unless it has one
+		 */
+		void define(final Symbol name) {
+			if (!slots.containsKey(name)) {
+				slots.put(name, size++);
+			}
+		}
+
+	}
+
+	private Resolver() {
+	}
+
+	static Object resolve(final Object form) {
+		return resolve(form, null);
+	}
+
+	private static Object resolve(final Object form, final Scope scope) {
+		if (form instanceof Symbol) {
+			return reference((Symbol) form, scope);
+		} else if (!(form instanceof List)) {
+			return form;
+		}
+
+		final List<?> list = (List<?>) form;
+		if (list.isEmpty()) {
+			return form;
+		}
+
+		final Object head = list.get(0);
+		if (head == SpecialForm.QUOTE) {
+			return form;
+		} else if (head == SpecialForm.LAMBDA) {
+			return lambda(list, scope, null);
+		} else if (head == SpecialForm.DEFINE && list.size() == 3
+				&& list.get(1) instanceof Symbol && isLambda(list.get(2))) {
+			// Name the procedure after the variable it is defined as
+			return new Form(new Object[] {
+					head,
+					reference((Symbol) list.get(1), scope),
+					lambda((List<?>) list.get(2), scope, (Symbol) list.get(1))
+			});
+		}
+
+		final Object[] result = new Object[list.size()];
+		for (int i=0; i<result.length; ++i) {
+			result[i] = resolve(list.get(i), scope);
+		}
+		return new Form(result);
+	}
+
+	private static Object reference(final Symbol name, final Scope scope) {
+		return reference(name, scope, 0);
+	}
+
+	private static Object reference(final Symbol name, final Scope scope,
+			final int depth) {
+		if (scope == null) {
+			return name;
+		}
+		final Integer slot = scope.slots.get(name);
+		if (slot == null) {
+			return reference(name, scope.parent, depth + 1);
+		} else if (slot < scope.formals) {
+			return new LocalRef(name, depth, slot);
+		}
+		return new LocalRef(name, depth, slot,
+				reference(name, scope.parent, depth + 1));
+	}
+
+	private static boolean isLambda(final Object form) {
+		return form instanceof List && !((List<?>) form).isEmpty()
+				&& ((List<?>) form).get(0) == SpecialForm.LAMBDA;
+	}
+
+	private static Lambda lambda(final List<?> args, final Scope scope,
+			final Symbol name) {
+		if (args.size() != 3) {
+			throw new EvalException(Errors.INVALID_NUMBER_OF_ARGUMENTS,
+					3, 3, args.size()-1);
+		}
+		if (!(args.get(1) instanceof List || args.get(1) instanceof Symbol)) {
+			throw new EvalException(Errors.EXPECTED_LIST_OF_ARGUMENTS,
+					args.get(1));
+		}
+
+		if (args.get(1) instanceof List) {
+			// If formal args appear as list, bind each variable individually.
+
+			final List<?> formalArgs = (List<?>) args.get(1);
+			final List<Symbol> formalArgNames =
+					new ArrayList<Symbol>(formalArgs.size());
+			for (final Object o : formalArgs) {
+				if (!(o instanceof Symbol)) {
+					throw new EvalException(Errors.EXPECTED_LIST_OF_ARGUMENTS,
+							o);
+				}
+				formalArgNames.add((Symbol)o);
+			}
+			return lambda(formalArgNames, false, args.get(2), scope, name);
+
+		} else {
+
+			 // If formal arg is a symbol, then all arguments are bound to a
+			 // single variable when invoked.
+			return lambda(Collections.singletonList((Symbol)args.get(1)),
+					true, args.get(2), scope, name);
+		}
+	}
+
+	private static Lambda lambda(final List<Symbol> formalArguments,
+			final boolean boundAllArgsAsList, final Object body,
+			final Scope scope, final Symbol name) {
+		final Scope inner = new Scope(scope, formalArguments);
+		collectDefinitions(body, inner);
+		final Object resolvedBody = resolve(body, inner);
+		return new Lambda(name, formalArguments, boundAllArgsAsList,
+				inner.size, resolvedBody);
+	}
+
+	/**
+	 * Find the names defined directly within a procedure body (that is, not
+	 * inside a nested lambda), which will be given slots in its frame.
+	 */
+	private static void collectDefinitions(final Object form,
+			final Scope scope) {
+		if (!(form instanceof List)) {
+			return;
+		}
+		final List<?> list = (List<?>) form;
+		if (list.isEmpty()) {
+			return;
+		}
+		final Object head = list.get(0);
+		if (head == SpecialForm.QUOTE || head == SpecialForm.LAMBDA) {
+			return;
+		}
+		if (head == SpecialForm.DEFINE && list.size() == 3
+				&& list.get(1) instanceof Symbol) {
+			scope.define((Symbol) list.get(1));
+		}
+		for (final Object o : list) {
+			collectDefinitions(o, scope);
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import java.io.Reader;
+import java.util.Iterator;
+
+/**
+ * A sequence of evaluations sharing one global environment, so that
+ * definitions made by one evaluation are visible to the next.  Creating a
+ * session is cheap: its environment starts out empty, layered over the
+ * builtins, which are built once and shared by every session.
+ * <p>
+ * A session may be used from several threads at once, in which case they
+ * share its definitions; see {@link Environment} for what each thread can
+ * expect to see of the others' definitions.  Use a session per request to
+ * keep requests' definitions apart.
+ */
+public class Session {
+
+	private final Environment env;
+
+	Session() {
+		this(Builtins.getGlobalEnvironment());
+	}
+
+	Session(final Environment env) {
+		this.env = env;
+	}
+
+	/**
+	 * Parse and evaluate a program.
+	 */
+	public Object eval(final String program) throws LispException {
+		return Interpreter.eval(program, env);
+	}
+
+	/**
+	 * Evaluate an already-parsed form.
+	 */
+	public Object eval(final Object form) throws EvalException {
+		return Interpreter.eval(form, env);
+	}
+
+	/**
+	 * Read and evaluate a program one form at a time; see
+	 * {@link FormReader}.
+	 * @return result of the last form, or null if there are none
+	 */
+	public Object load(final Reader reader) throws LispException {
+		return Interpreter.load(new FormReader(reader), env);
+	}
+
+	/**
+	 * @return the results of each form of a program, each read and
+	 * evaluated as it is asked for
+	 */
+	public Iterator<Object> evalEach(final Reader reader) {
+		return Interpreter.evalEach(new FormReader(reader), env);
+	}
+
+	public Environment getEnvironment() {
+		return env;
+	}
+
+}
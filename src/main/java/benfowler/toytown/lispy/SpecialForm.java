@@ -21,6 +21,9 @@
 
 package benfowler.toytown.lispy;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Special forms supported by the interpreter
  */
@@ -35,6 +38,15 @@ public enum SpecialForm {
 	PROC("proc"),
 	DOT(".");
 
+	private static final Map<String, SpecialForm> BY_LITERAL_VAL =
+			new HashMap<String, SpecialForm>();
+
+	static {
+		for (SpecialForm sf : values()) {
+			BY_LITERAL_VAL.put(sf.getLiteralVal(), sf);
+		}
+	}
+
 	private final String literalVal;
 
 	SpecialForm(final String literalVal) {
@@ -46,12 +58,7 @@ public enum SpecialForm {
 	}
 
 	public static SpecialForm getByLiteralVal(final String literalVal) {
-		for (SpecialForm sf : values()) {
-			if (sf.getLiteralVal().equals(literalVal)) {
-				return sf;
-			}
-		}
-		return null;
+		return BY_LITERAL_VAL.get(literalVal);
 	}
 
 	@Override
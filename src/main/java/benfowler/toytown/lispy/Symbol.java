@@ -21,12 +21,41 @@
 
 package benfowler.toytown.lispy;
 
-public class Symbol {
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interned symbol.  There is exactly one instance per name, obtained through
+ * {@link #intern(String)}, so symbols may be compared by identity.
+ */
+public final class Symbol {
+
+	/** Global symbol table */
+	private static final ConcurrentMap<String, Symbol> SYMBOLS =
+			new ConcurrentHashMap<String, Symbol>();
 
 	private final String symbol;
 
-	public Symbol(final String symbol) {
+	private final int hash;
+
+	private Symbol(final String symbol) {
 		this.symbol = symbol;
+		this.hash = symbol.hashCode();
+	}
+
+	/**
+	 * @return the canonical symbol with the given name
+	 */
+	public static Symbol intern(final String symbol) {
+		Symbol result = SYMBOLS.get(symbol);
+		if (result == null) {
+			final Symbol created = new Symbol(symbol);
+			result = SYMBOLS.putIfAbsent(symbol, created);
+			if (result == null) {
+				result = created;
+			}
+		}
+		return result;
 	}
 
 	@Override
@@ -36,32 +65,12 @@ public class Symbol {
 
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((symbol == null) ? 0 : symbol.hashCode());
-		return result;
+		return hash;
 	}
 
 	@Override
 	public boolean equals(final Object obj) {
-		if (this == obj) {
-			return true;
-		}
-		if (obj == null) {
-			return false;
-		}
-		if (getClass() != obj.getClass()) {
-			return false;
-		}
-		Symbol other = (Symbol) obj;
-		if (symbol == null) {
-			if (other.symbol != null) {
-				return false;
-			}
-		} else if (!symbol.equals(other.symbol)) {
-			return false;
-		}
-		return true;
+		return this == obj;
 	}
 
 }
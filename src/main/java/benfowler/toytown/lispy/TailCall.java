@@ -0,0 +1,68 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+/**
+ * Call in tail position, which the closure-compiling engine returns from a
+ * procedure body rather than making itself.  The caller, further down the
+ * Java stack, makes the call instead; see {@link #run(Lambda, Frame)}.  This
+ * keeps the Java stack from growing with each tail call.
+ */
+final class TailCall {
+
+	private final Lambda lambda;
+
+	private final Frame frame;
+
+	TailCall(final Lambda lambda, final Frame frame) {
+		this.lambda = lambda;
+		this.frame = frame;
+	}
+
+	/**
+	 * Execute the body of a procedure, along with any tail calls it makes
+	 * @param lambda procedure's code
+	 * @param frame frame holding the procedure's arguments
+	 * @return result of the procedure
+	 */
+	static Object run(final Lambda lambda, final Frame frame) {
+		if (!Metrics.on()) {
+			return execute(lambda, frame);
+		}
+		Metrics.procedureEntered();
+		try {
+			return execute(lambda, frame);
+		} finally {
+			Metrics.procedureExited();
+		}
+	}
+
+	private static Object execute(final Lambda lambda, final Frame frame) {
+		Object result = lambda.getCompiledBody().execute(frame);
+		while (result instanceof TailCall) {
+			final TailCall call = (TailCall) result;
+			result = call.lambda.getCompiledBody().execute(call.frame);
+		}
+		return result;
+	}
+
+}
@@ -21,44 +21,34 @@
 
 package benfowler.toytown.lispy;
 
-import static benfowler.toytown.lispy.Interpreter.eval;
-import static benfowler.toytown.lispy.Interpreter.read;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 
 import org.junit.Test;
 
 
 public abstract class AbstractExternalFileTest {
 
-	private String readFile(final String path) throws IOException {
-		final InputStream stream = getClass().getClassLoader()
-				.getResourceAsStream(path);
-		final BufferedReader reader = new BufferedReader(
-				new InputStreamReader(stream));
-		final StringBuilder builder = new StringBuilder();
-
+	/**
+	 * Evaluate a script, one form at a time as it is read.
+	 * @return result of the last form
+	 */
+	private Object evalFile(final String path) throws IOException {
+		final FormReader forms = new FormReader(getClass().getClassLoader()
+				.getResourceAsStream(path));
 		try {
-			String line;
-			while ((line = reader.readLine()) != null) {
-				builder.append(line);
-			}
+			return Interpreter.load(forms,
+					Interpreter.getGlobalEnvironment());
 		} finally {
-			stream.close();
+			forms.close();
 		}
-
-		return builder.toString();
 	}
 
 	@Test
 	public void test() throws EvalException, IOException {
-		final String program = readFile(getPathToScriptResource());
-		Object o = eval(read(program));
+		final Object o = evalFile(getPathToScriptResource());
 		assertTrue(o != null);
 		assertEquals(getTestResult(), o);
 	}
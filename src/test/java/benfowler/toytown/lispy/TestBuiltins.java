@@ -0,0 +1,96 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestBuiltins {
+
+	@Test
+	public void testVariadicArithmetic() throws LispException {
+		assertEquals(6L, eval("(+ 1 2 3)"));
+		assertEquals(0L, eval("(+)"));
+		assertEquals(-5L, eval("(- 5)"));
+		assertEquals(4L, eval("(- 10 5 1)"));
+		assertEquals(24L, eval("(* 2 3 4)"));
+		assertEquals(1L, eval("(*)"));
+		assertEquals(.5, eval("(/ 2)"));
+		assertEquals(2L, eval("(/ 12 3 2)"));
+	}
+
+	@Test
+	public void testChainedComparisons() throws LispException {
+		assertEquals(true, eval("(< 1 2 3)"));
+		assertEquals(false, eval("(< 1 3 2)"));
+		assertEquals(true, eval("(<= 1 1 2)"));
+		assertEquals(true, eval("(= 2 2 2)"));
+		assertEquals(false, eval("(= 2 2 3)"));
+		assertEquals(true, eval("(> 3)"));
+	}
+
+	@Test
+	public void testLists() throws LispException {
+		assertEquals(Arrays.asList(1L, 2L, 3L),
+				eval("(append (list 1) (quote ()) (list 2 3))"));
+		assertEquals(Arrays.asList(1L, 2L), eval("(cons 1 (list 2))"));
+		assertEquals(2L, eval("(car (cdr (list 1 2)))"));
+		assertEquals(true, eval("(null? (cdr (list 1)))"));
+		assertEquals(true, eval("(list? (list))"));
+		assertEquals(3L, eval("(length (list 1 2 3))"));
+	}
+
+	@Test
+	public void testBuiltinsAreFirstClass() throws LispException {
+		assertEquals(Arrays.asList(3L, -1L),
+				eval("((lambda (f g) (list (f 1 2) (g 1 2))) + -)"));
+	}
+
+	@Test
+	public void testBadArgumentType() throws LispException {
+		try {
+			eval("(+ 1 (quote a))");
+			fail("EvalException should have been thrown.");
+		} catch (EvalException e) {
+			assertEquals(Errors.BAD_ARGUMENT_TYPE, e.getError());
+		}
+	}
+
+	@Test
+	public void testBadArgumentCount() throws LispException {
+		try {
+			eval("(car (list 1) (list 2))");
+			fail("EvalException should have been thrown.");
+		} catch (EvalException e) {
+			assertEquals(Errors.INVALID_NUMBER_OF_ARGUMENTS, e.getError());
+		}
+	}
+
+	private static Object eval(final String program) {
+		return Interpreter.eval(Interpreter.read(program));
+	}
+
+}
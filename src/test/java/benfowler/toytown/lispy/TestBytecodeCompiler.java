@@ -0,0 +1,168 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestBytecodeCompiler {
+
+	private int previousThreshold;
+
+	private Session session;
+
+	@Before
+	public void setup() {
+		previousThreshold = BytecodeCompiler.getThreshold();
+		BytecodeCompiler.setThreshold(1);
+		session = Interpreter.newSession();
+	}
+
+	@After
+	public void tearDown() {
+		BytecodeCompiler.setThreshold(previousThreshold);
+	}
+
+	@Test
+	public void testCompiledOnceHot() throws LispException {
+		BytecodeCompiler.setThreshold(3);
+		session.eval("(define sq (lambda (x) (* x x)))");
+		session.eval("(sq 2)");
+		session.eval("(sq 2)");
+		assertFalse(isCompiled("sq"));
+		assertEquals(9L, session.eval("(sq 3)"));
+		assertTrue(isCompiled("sq"));
+		assertEquals(3, proc("sq").getInvocationCount());
+		assertEquals(16L, session.eval("(sq 4)"));
+	}
+
+	@Test
+	public void testThresholdOfZeroDisablesCompilation()
+	throws LispException {
+		assertEquals(0, BytecodeCompiler.DEFAULT_THRESHOLD);
+		BytecodeCompiler.setThreshold(0);
+		session.eval("(define sq (lambda (x) (* x x)))");
+		for (int i=0; i<10; ++i) {
+			session.eval("(sq 2)");
+		}
+		assertFalse(isCompiled("sq"));
+	}
+
+	@Test
+	public void testRecursion() throws LispException {
+		session.eval("(define fib (lambda (n) " +
+				"(if (< n 2) n (+ (fib (- n 1)) (fib (- n 2))))))");
+		assertEquals(6765L, session.eval("(fib 20)"));
+		assertTrue(isCompiled("fib"));
+	}
+
+	@Test
+	public void testTailCalls() throws LispException {
+		session.eval("(define loop (lambda (n acc) " +
+				"(if (= n 0) acc (loop (- n 1) (+ acc 1)))))");
+		assertEquals(1000000L, session.eval("(loop 1000000 0)"));
+		assertTrue(isCompiled("loop"));
+	}
+
+	@Test
+	public void testLocalsAndClosures() throws LispException {
+		session.eval("(define make-counter (lambda () (begin " +
+				"(define n 0) " +
+				"(lambda () (begin (set! n (+ n 1)) n)))))");
+		session.eval("(define c (make-counter))");
+		session.eval("(c)");
+		session.eval("(c)");
+		assertEquals(3L, session.eval("(c)"));
+		assertTrue(isCompiled("make-counter"));
+		assertTrue(isCompiled("c"));
+	}
+
+	@Test
+	public void testUnsupportedFormsAreInterpreted() throws LispException {
+		session.eval("(define f (lambda (x) (list (quote (1 2)) " +
+				"(.valueOf java.lang.String x) (if #f 1))))");
+		session.eval("(f 1)");
+		assertEquals(Arrays.asList(Arrays.asList(1L, 2L), "2", null),
+				session.eval("(f 2)"));
+		assertTrue(isCompiled("f"));
+	}
+
+	@Test
+	public void testRebindingBuiltin() throws LispException {
+		session.eval("(define f (lambda (x y) (+ x y)))");
+		assertEquals(5L, session.eval("(f 2 3)"));
+		assertTrue(isCompiled("f"));
+		session.eval("(set! + *)");
+		assertEquals(6L, session.eval("(f 2 3)"));
+	}
+
+	@Test
+	public void testErrors() throws LispException {
+		session.eval("(define f (lambda (x) (if x (undefined-thing) 1)))");
+		assertEquals(1L, session.eval("(f #f)"));
+		assertTrue(isCompiled("f"));
+		try {
+			session.eval("(f #t)");
+			fail("EvalException should have been thrown.");
+		} catch (EvalException e) {
+			assertEquals(Errors.SYMBOL_NOT_FOUND, e.getError());
+		}
+		try {
+			session.eval("(f 1)");
+			fail("EvalException should have been thrown.");
+		} catch (EvalException e) {
+			assertEquals(Errors.BAD_IF_CONDITION, e.getError());
+		}
+	}
+
+	@Test
+	public void testFailuresAreCountedAndInterpreted() throws LispException {
+		final int failures = BytecodeCompiler.getFailureCount();
+		// Too long to fit in one method
+		final StringBuilder calls = new StringBuilder("(begin");
+		for (int i=0; i<5000; ++i) {
+			calls.append(" (g x)");
+		}
+		session.eval("(define f (lambda (x) (if x " + calls + ") x)))");
+		assertEquals(false, session.eval("(f #f)"));
+		assertFalse(isCompiled("f"));
+		assertEquals(failures + 1, BytecodeCompiler.getFailureCount());
+		assertEquals(false, session.eval("(f #f)"));
+	}
+
+	private Proc proc(final String name) {
+		return (Proc) session.getEnvironment().get(Symbol.intern(name));
+	}
+
+	private boolean isCompiled(final String name) {
+		return proc(name).getLambda().isBytecodeCompiled();
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collection;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Runs Peter Norvig's test suite against the closure-compiling engine.
+ */
+@RunWith(Parameterized.class)
+public class TestClosureCompiler {
+
+    @Parameters(name="testName={0}")
+    public static Collection<Object[]> data() {
+    	return TestLispyTestSuite.data();
+    }
+
+    private final String testName;
+    private final String input;
+    private final Object expectedOutput;
+
+    /**
+     * Test environment, threaded through the test cases in order
+     */
+    private static Environment testEnv;
+
+    private static Engine previousEngine;
+
+    @BeforeClass
+	public static void setup() {
+    	previousEngine = Interpreter.getEngine();
+    	Interpreter.setEngine(Engine.CLOSURE_COMPILER);
+    	testEnv = Interpreter.getGlobalEnvironment();
+	}
+
+    @AfterClass
+    public static void tearDown() {
+    	Interpreter.setEngine(previousEngine);
+    }
+
+    public TestClosureCompiler(final String testName, final String input,
+    		final Object expectedOutput) {
+    	this.testName = testName;
+    	this.input = input;
+    	this.expectedOutput = expectedOutput;
+    }
+
+    @Test
+	public void testEval() throws LispException {
+		assertEquals(testName, expectedOutput,
+				Interpreter.eval(Interpreter.read(input), testEnv));
+    }
+
+}
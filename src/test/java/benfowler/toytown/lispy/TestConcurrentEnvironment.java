@@ -0,0 +1,131 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package benfowler.toytown.lispy;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestConcurrentEnvironment {
+
+	private static final int THREADS = 8;
+
+	private static final int DEFINITIONS = 500;
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testConcurrentDefinitionsAreAllKept() throws Exception {
+		final Session session = Interpreter.newSession();
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Future<Object>> results = new ArrayList<Future<Object>>();
+		for (int t=0; t<THREADS; ++t) {
+			final int thread = t;
+			results.add(executor.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					start.await();
+					for (int i=0; i<DEFINITIONS; ++i) {
+						session.eval("(define v" + thread + "_" + i + " "
+								+ i + ")");
+					}
+					return null;
+				}
+			}));
+		}
+		start.countDown();
+		for (final Future<Object> result : results) {
+			result.get();
+		}
+
+		for (int t=0; t<THREADS; ++t) {
+			for (int i=0; i<DEFINITIONS; ++i) {
+				assertEquals((long) i, session.eval("v" + t + "_" + i));
+			}
+		}
+	}
+
+	@Test
+	public void testSharedProceduresWhileOthersDefine() throws Exception {
+		final Session session = Interpreter.newSession();
+		session.eval("(define fib (lambda (n)"
+				+ " (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2))))))");
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Future<Object>> results = new ArrayList<Future<Object>>();
+		for (int t=0; t<THREADS; ++t) {
+			final int thread = t;
+			results.add(executor.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					start.await();
+					Object result = null;
+					for (int i=0; i<20; ++i) {
+						// Each new name invalidates cached global lookups
+						session.eval("(define w" + thread + "_" + i + " 0)");
+						result = session.eval("(fib 15)");
+					}
+					return result;
+				}
+			}));
+		}
+		start.countDown();
+		for (final Future<Object> result : results) {
+			assertEquals(610L, result.get());
+		}
+	}
+
+	@Test
+	public void testShadowingSeenByOtherThreads() throws Exception {
+		final Session session = Interpreter.newSession();
+		session.eval("(define f (lambda (x) (car x)))");
+		assertEquals(1L, session.eval("(f (quote (1 2)))"));
+		executor.submit(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return session.eval("(define car cdr)");
+			}
+		}).get();
+		assertEquals(LispList.of(2L), session.eval("(f (quote (1 2)))"));
+	}
+
+}
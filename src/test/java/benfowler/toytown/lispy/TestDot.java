@@ -0,0 +1,216 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestDot {
+
+	@Test
+	public void testStaticCall() throws LispException {
+		assertEquals("1.5", eval("(.valueOf java.lang.String 1.5)"));
+	}
+
+	@Test
+	public void testInstanceCall() throws LispException {
+		assertEquals(4, eval(
+				"((lambda (s) (.length s)) (.valueOf java.lang.String 12.5))"));
+	}
+
+	@Test
+	public void testMonomorphicSite() throws LispException {
+		final Environment env = Builtins.getGlobalEnvironment();
+		final Object lambda = Interpreter.parse("(lambda (x) (.toString x))");
+		env.put(Symbol.intern("str"), Interpreter.eval(lambda, env));
+
+		for (int i=0; i<10; ++i) {
+			assertEquals(String.valueOf(i), Interpreter.eval(
+					Interpreter.parse("(str " + i + ")"), env));
+		}
+		assertEquals(1, callSiteOf(lambda).size());
+	}
+
+	@Test
+	public void testPolymorphicSite() throws LispException {
+		final Environment env = Builtins.getGlobalEnvironment();
+		final Object lambda = Interpreter.parse("(lambda (x) (.toString x))");
+		env.put(Symbol.intern("str"), Interpreter.eval(lambda, env));
+		final DotCallSite callSite = callSiteOf(lambda);
+
+		final String[] arguments = {
+			"1", "#t", "(quote a)", "(list 1)", "(quote ())"
+		};
+		for (final String argument : arguments) {
+			Interpreter.eval(Interpreter.parse("(str " + argument + ")"), env);
+		}
+		assertEquals(arguments.length, callSite.size());
+		assertFalse(callSite.isMegamorphic());
+
+		// One shape too many; the site still works, but stops caching
+		assertEquals("bar", Interpreter.eval(
+				Interpreter.parse("(str (.valueOf java.lang.String (quote bar)))"),
+				env));
+		assertEquals(arguments.length, callSite.size());
+		assertTrue(callSite.isMegamorphic());
+		assertEquals("true", Interpreter.eval(
+				Interpreter.parse("(str #t)"), env));
+		assertEquals("1.5", Interpreter.eval(
+				Interpreter.parse("(str 1.5)"), env));
+		assertEquals(arguments.length, callSite.size());
+	}
+
+	@Test
+	public void testClassNotFound() throws LispException {
+		try {
+			eval("(.foo no.such.Class)");
+			fail("EvalException should have been thrown.");
+		} catch (EvalException e) {
+			assertEquals(Errors.INSTANCE_OR_CLASSNAME_NOT_FOUND, e.getError());
+		}
+	}
+
+	@Test
+	public void testNonStaticCallInStaticContext() throws LispException {
+		try {
+			eval("(.length java.lang.String)");
+			fail("EvalException should have been thrown.");
+		} catch (EvalException e) {
+			assertEquals(Errors.NONSTATIC_CALL_IN_STATIC_CTX, e.getError());
+		}
+	}
+
+	@Test
+	public void testUnboxing() throws LispException {
+		assertEquals(4., eval("(.sqrt java.lang.Math 16)"));
+		assertEquals(3L, eval("(.max java.lang.Math 2 3)"));
+	}
+
+	@Test
+	public void testNarrowing() throws Exception {
+		assertEquals('2', eval("((lambda (s) (.charAt s 1))"
+				+ " (.valueOf java.lang.String 12.5))"));
+		assertEquals(2L, eval("((lambda (l) (.get l 1))"
+				+ " (.asList java.util.Arrays 1 2 3))"));
+		assertEquals("2.5", eval("((lambda (s) (.substring s 1))"
+				+ " (.valueOf java.lang.String 12.5))"));
+		assertEquals("2.", eval("((lambda (s) (.substring s 1 3))"
+				+ " (.valueOf java.lang.String 12.5))"));
+
+		// Widening is preferred, so abs(long) is chosen over abs(int)
+		assertEquals(long.class, parameterOf(Math.class, "abs", Long.class));
+	}
+
+	@Test
+	public void testNarrowingChecksRange() throws LispException {
+		try {
+			eval("((lambda (s) (.charAt s 4294967297))"
+					+ " (.valueOf java.lang.String 12.5))");
+			fail("EvalException should have been thrown.");
+		} catch (EvalException e) {
+			assertEquals(Errors.BAD_ARGUMENT_TYPE, e.getError());
+		}
+	}
+
+	@Test
+	public void testVarargs() throws LispException {
+		assertEquals(Arrays.asList(1L, 2L, 3L),
+				eval("(.asList java.util.Arrays 1 2 3)"));
+		assertEquals(Arrays.asList(),
+				eval("(.asList java.util.Arrays)"));
+	}
+
+	@Test
+	public void testInterfaceMethod() throws LispException {
+		// Arrays.asList returns a private class; size() is found on List
+		assertEquals(3, eval("((lambda (l) (.size l)) " +
+				"(.asList java.util.Arrays 1 2 3))"));
+	}
+
+	@Test
+	public void testMostSpecificOverload() throws Exception {
+		// append(Object), append(CharSequence) and append(String) all apply
+		assertEquals(String.class, parameterOf(StringBuilder.class, "append",
+				String.class));
+
+		// println(double) would need unboxing, so println(Object) is chosen,
+		// just as it would be for a Double in Java
+		assertEquals(Object.class, parameterOf(PrintStream.class, "println",
+				Double.class));
+	}
+
+	@Test
+	public void testResolutionIsCached() throws Exception {
+		final Class<?>[] argClasses = { Double.class };
+		assertSame(MethodResolver.resolve(Math.class, "abs", argClasses),
+				MethodResolver.resolve(Math.class, "abs",
+						new Class<?>[] { Double.class }));
+	}
+
+	@Test
+	public void testResolutionCacheIsBounded() throws Exception {
+		// Arrays.asList takes any number of arguments, a shape for each
+		for (int i=0; i<MethodResolver.MAXIMUM_SHAPES * 2; ++i) {
+			final Class<?>[] argClasses = new Class<?>[i];
+			Arrays.fill(argClasses, Long.class);
+			MethodResolver.resolve(Arrays.class, "asList", argClasses);
+			assertTrue(MethodResolver.size(Arrays.class)
+					<= MethodResolver.MAXIMUM_SHAPES);
+		}
+	}
+
+	@Test
+	public void testNoApplicableMethod() throws LispException {
+		try {
+			eval("(.sqrt java.lang.Math #t)");
+			fail("EvalException should have been thrown.");
+		} catch (EvalException e) {
+			assertEquals(Errors.NO_APPLICABLE_METHOD, e.getError());
+		}
+	}
+
+	private static Class<?> parameterOf(final Class<?> targetClass,
+			final String methodName, final Class<?> argClass)
+	throws Exception {
+		return MethodResolver.resolve(targetClass, methodName,
+				new Class<?>[] { argClass }).getMethod().getParameterTypes()[0];
+	}
+
+	private static DotCallSite callSiteOf(final Object lambda) {
+		final List<?> body = (List<?>) ((List<?>) lambda).get(2);
+		return ((Dot) body.get(0)).getCallSite();
+	}
+
+	private static Object eval(final String program) {
+		return Interpreter.eval(Interpreter.read(program));
+	}
+
+}
@@ -95,7 +95,7 @@ public class TestEval {
 	public void setup() {
     	if (testEnv == null) {
     		testEnv = Interpreter.getGlobalEnvironment();
-    		testEnv.put("pi", 3.14);
+    		testEnv.put(Symbol.intern("pi"), 3.14);
     	}
 	}
 
@@ -140,7 +140,7 @@ public class TestEval {
     }
 
 	private static Symbol sym(final String lexeme) {
-		return new Symbol(lexeme);
+		return Symbol.intern(lexeme);
 	}
 
 }
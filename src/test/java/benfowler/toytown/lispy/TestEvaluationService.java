@@ -0,0 +1,168 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package benfowler.toytown.lispy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestEvaluationService {
+
+	private static final AtomicInteger RUNNING = new AtomicInteger();
+
+	private static final AtomicInteger MAX_RUNNING = new AtomicInteger();
+
+	private EvaluationService service;
+
+	@Before
+	public void setUp() {
+		service = new EvaluationService(2);
+		RUNNING.set(0);
+		MAX_RUNNING.set(0);
+	}
+
+	@After
+	public void tearDown() {
+		service.close();
+	}
+
+	/**
+	 * Called through the dot form, to see how many evaluations overlap
+	 */
+	public static long work() throws InterruptedException {
+		final int running = RUNNING.incrementAndGet();
+		for (int max = MAX_RUNNING.get(); running > max;
+				max = MAX_RUNNING.get()) {
+			MAX_RUNNING.compareAndSet(max, running);
+		}
+		Thread.sleep(20);
+		RUNNING.decrementAndGet();
+		return running;
+	}
+
+	@Test
+	public void testEvaluatesSourceWithBindings() throws Exception {
+		final Map<String, Object> bindings = new HashMap<String, Object>();
+		bindings.put("x", 6L);
+		bindings.put("y", 7L);
+		assertEquals(42L, service.submit("(* x y)", bindings).get());
+	}
+
+	@Test
+	public void testEvaluatesParsedForm() throws Exception {
+		final Object form = Interpreter.parse("(+ x 1)");
+		assertEquals(2L, service.submit(form,
+				Collections.singletonMap("x", 1L)).get());
+		assertEquals(3L, service.submit(form,
+				Collections.singletonMap("x", 2L)).get());
+	}
+
+	@Test
+	public void testEvaluationsAreIsolated() throws Exception {
+		service.submit("(define z 1)").get();
+		try {
+			service.submit("z").get();
+			fail("ExecutionException should have been thrown.");
+		} catch (ExecutionException e) {
+			assertEquals(Errors.SYMBOL_NOT_FOUND,
+					((EvalException) e.getCause()).getError());
+		}
+		assertEquals(1, service.getStats().getFailed());
+	}
+
+	@Test
+	public void testConcurrencyIsBounded() throws Exception {
+		final List<CompletableFuture<Object>> results =
+				new ArrayList<CompletableFuture<Object>>();
+		for (int i=0; i<8; ++i) {
+			results.add(service.submit(
+					"(.work benfowler.toytown.lispy.TestEvaluationService)"));
+		}
+		for (final CompletableFuture<Object> result : results) {
+			result.get();
+		}
+		assertTrue(MAX_RUNNING.get() <= 2);
+
+		final EvaluationService.Stats stats = service.getStats();
+		assertEquals(8, stats.getSubmitted());
+		assertEquals(8, stats.getCompleted());
+		assertEquals(0, stats.getRunning());
+		assertTrue(stats.getMaxRunTime() >= 20000000L);
+		assertTrue(stats.getMeanRunTime() > 0);
+	}
+
+	@Test
+	public void testParseErrorsCompleteExceptionally()
+			throws InterruptedException {
+		final CompletableFuture<Object> result = service.submit("(+ 1");
+		try {
+			result.get();
+			fail("ExecutionException should have been thrown.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ParseException);
+		}
+		assertFalse(service.getStats().getFailed() == 0);
+	}
+
+	@Test
+	public void testStackSizeUsesPlatformThreads() throws Exception {
+		final EvaluationService platform =
+				new EvaluationService(1, 4 * 1024 * 1024);
+		try {
+			assertFalse(platform.isVirtual());
+			assertEquals(3L, platform.submit("(+ 1 2)").get());
+		} finally {
+			platform.close();
+		}
+	}
+
+	@Test
+	public void testCloseTimesOut() throws Exception {
+		final CompletableFuture<Object> result =
+				service.submit("(.sleep java.lang.Thread 60000)");
+		Thread.sleep(20);
+		assertFalse(service.close(10, TimeUnit.MILLISECONDS));
+		try {
+			result.get(10, TimeUnit.SECONDS);
+			fail("ExecutionException should have been thrown.");
+		} catch (ExecutionException e) {
+			// Interrupted
+		}
+	}
+
+}
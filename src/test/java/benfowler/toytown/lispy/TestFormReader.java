@@ -0,0 +1,121 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+public class TestFormReader {
+
+	@Test
+	public void testReadsEachForm() {
+		final FormReader forms = new FormReader(
+				"(define x 1)\n42 sym (quote (a b))\n\n  (+ x 1)");
+		assertEquals(Interpreter.parse("(define x 1)"), forms.next());
+		assertEquals(42L, forms.next());
+		assertEquals(Symbol.intern("sym"), forms.next());
+		assertEquals(Interpreter.parse("(quote (a b))"), forms.next());
+		assertEquals(Interpreter.parse("(+ x 1)"), forms.next());
+		assertFalse(forms.hasNext());
+		assertEquals(5, forms.getCount());
+	}
+
+	@Test
+	public void testEmptyProgram() throws LispException {
+		assertFalse(new FormReader("  \n ").hasNext());
+		assertNull(Interpreter.newSession().load(new StringReader("")));
+	}
+
+	@Test
+	public void testInputStream() throws Exception {
+		final FormReader forms = new FormReader(new ByteArrayInputStream(
+				"(a b) (c)".getBytes("UTF-8")));
+		try {
+			assertEquals(Interpreter.parse("(a b)"), forms.next());
+			assertEquals(Interpreter.parse("(c)"), forms.next());
+			assertFalse(forms.hasNext());
+		} finally {
+			forms.close();
+		}
+	}
+
+	@Test
+	public void testLoad() throws LispException {
+		final Session session = Interpreter.newSession();
+		assertEquals(120L, session.load(new StringReader(
+				"(define fact (lambda (n)"
+				+ " (if (<= n 1) 1 (* n (fact (- n 1))))))\n"
+				+ "(define n 5)\n"
+				+ "(fact n)\n")));
+		assertEquals(5L, session.eval("n"));
+	}
+
+	@Test
+	public void testResultsAreAvailableAsEachFormIsEvaluated() {
+		final Session session = Interpreter.newSession();
+		final Iterator<Object> results = session.evalEach(new StringReader(
+				"(define x 1) (set! x (+ x 1)) x (oops"));
+		results.next();
+		assertEquals(1L, session.eval("x"));
+		results.next();
+		assertEquals(2L, results.next());
+		assertTrue(results.hasNext());
+		try {
+			results.next();
+			fail("Expected ParseException");
+		} catch (final ParseException e) {
+			assertEquals(Errors.PREMATURE_END_OF_PROGRAM, e.getError());
+		}
+	}
+
+	@Test
+	public void testLargeProgram() throws LispException {
+		final StringBuilder program = new StringBuilder("(define n 0)\n");
+		for (int i=0; i<20000; ++i) {
+			program.append("(set! n (+ n 1))\n");
+		}
+		assertEquals(20000L, Interpreter.newSession().load(
+				new StringReader(program.append("n").toString())));
+	}
+
+	@Test
+	public void testStrayCloseParenthesis() {
+		final FormReader forms = new FormReader("(a) )");
+		forms.next();
+		try {
+			forms.next();
+			fail("Expected ParseException");
+		} catch (final ParseException e) {
+			assertEquals(Errors.UNEXPECTED_TOKEN, e.getError());
+		}
+	}
+
+}
@@ -0,0 +1,199 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package benfowler.toytown.lispy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestGlobalCells {
+
+	private static final Symbol X = Symbol.intern("x");
+
+	private static final Symbol PLUS = Symbol.intern("+");
+
+	private Engine engine;
+
+	@Before
+	public void setUp() {
+		engine = Interpreter.getEngine();
+		Interpreter.setEngine(Engine.CLOSURE_COMPILER);
+	}
+
+	@After
+	public void tearDown() {
+		Interpreter.setEngine(engine);
+	}
+
+	@Test
+	public void testCellSurvivesRedefinition() {
+		final Environment env = Interpreter.getGlobalEnvironment();
+		env.put(X, 1L);
+		final GlobalCell cell = env.lookup(X);
+		env.put(X, 2L);
+		env.assign(X, 3L);
+		assertSame(cell, env.lookup(X));
+		assertEquals(3L, cell.get());
+	}
+
+	@Test
+	public void testSiteSeesRedefinition() {
+		final Environment env = Interpreter.getGlobalEnvironment();
+		final GlobalSite site = new GlobalSite(X);
+		env.put(X, 1L);
+		assertEquals(1L, site.get(env));
+		env.put(X, 2L);
+		assertEquals(2L, site.get(env));
+	}
+
+	@Test
+	public void testSiteSeesShadowingDefinition() {
+		final Environment env = Interpreter.getGlobalEnvironment();
+		final GlobalSite site = new GlobalSite(PLUS);
+		final Object builtin = site.get(env);
+		assertSame(Builtins.getBaseEnvironment().get(PLUS), builtin);
+		env.put(PLUS, 42L);
+		assertEquals(42L, site.get(env));
+	}
+
+	@Test
+	public void testSiteIsPerEnvironment() {
+		final Environment first = Interpreter.getGlobalEnvironment();
+		final Environment second = Interpreter.getGlobalEnvironment();
+		final GlobalSite site = new GlobalSite(X);
+		first.put(X, 1L);
+		second.put(X, 2L);
+		assertEquals(1L, site.get(first));
+		assertEquals(2L, site.get(second));
+		assertEquals(1L, site.get(first));
+	}
+
+	@Test
+	public void testSiteSeesDefinitionInOuterEnvironment() {
+		final Environment middle = Interpreter.getGlobalEnvironment();
+		final Environment inner = new Environment(middle);
+		final GlobalSite site = new GlobalSite(PLUS);
+		assertSame(Builtins.getBaseEnvironment().get(PLUS), site.get(inner));
+		middle.put(PLUS, 42L);
+		assertEquals(42L, site.get(inner));
+	}
+
+	@Test
+	public void testSiteRemembersSeveralEnvironments() {
+		final GlobalSite site = new GlobalSite(X);
+		final Environment[] envs = new Environment[GlobalSite.LIMIT + 1];
+		for (int i=0; i<envs.length; ++i) {
+			envs[i] = Interpreter.getGlobalEnvironment();
+			envs[i].put(X, (long) i);
+		}
+		for (int round=0; round<2; ++round) {
+			for (int i=0; i<GlobalSite.LIMIT; ++i) {
+				assertEquals((long) i, site.get(envs[i]));
+			}
+		}
+		assertEquals(GlobalSite.LIMIT, site.size());
+		assertEquals((long) GlobalSite.LIMIT, site.get(envs[GlobalSite.LIMIT]));
+		assertEquals(GlobalSite.LIMIT, site.size());
+		assertEquals(0L, site.get(envs[0]));
+	}
+
+	@Test
+	public void testSiteHoldsCellsWeakly() throws IllegalAccessException {
+		final GlobalSite site = new GlobalSite(X);
+		final Environment env = Interpreter.getGlobalEnvironment();
+		env.put(X, 1L);
+		site.get(env);
+		final WeakReference<?>[] entries = site.getEntries();
+		assertEquals(1, entries.length);
+		assertSame(env.lookup(X), entries[0].get());
+
+		// Nothing else the site holds leads back to the environment
+		for (final Object o : new Object[] { site, entries[0] }) {
+			for (final Field field : o.getClass().getDeclaredFields()) {
+				if (!Modifier.isStatic(field.getModifiers())) {
+					field.setAccessible(true);
+					assertFalse(field.get(o) instanceof Environment);
+					assertFalse(field.get(o) instanceof GlobalCell);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSiteHandlesClearedCell() {
+		final GlobalSite site = new GlobalSite(X);
+		final Environment env = Interpreter.getGlobalEnvironment();
+		env.put(X, 1L);
+		site.get(env);
+		site.getEntries()[0].clear();
+		assertEquals(1L, site.get(env));
+		assertEquals(1, site.size());
+		assertSame(env.lookup(X), site.getEntries()[0].get());
+	}
+
+	@Test
+	public void testAssignShadowsFrozenCell() {
+		final Environment env = Interpreter.getGlobalEnvironment();
+		final GlobalCell shared = env.lookup(PLUS);
+		env.assign(PLUS, 42L);
+		assertNotSame(shared, env.lookup(PLUS));
+		assertSame(Builtins.getBaseEnvironment().get(PLUS), shared.get());
+	}
+
+	@Test(expected=EvalException.class)
+	public void testUnboundSite() {
+		new GlobalSite(X).get(Interpreter.getGlobalEnvironment());
+	}
+
+	@Test
+	public void testCompiledCallerSeesRedefinedProcedure()
+			throws LispException {
+		final Session session = Interpreter.newSession();
+		session.eval("(define f (lambda (x) (+ x 1)))");
+		session.eval("(define g (lambda (x) (f x)))");
+		assertEquals(2L, session.eval("(g 1)"));
+		session.eval("(define f (lambda (x) (* x 10)))");
+		assertEquals(10L, session.eval("(g 1)"));
+		session.eval("(set! f (lambda (x) x))");
+		assertEquals(1L, session.eval("(g 1)"));
+	}
+
+	@Test
+	public void testCompiledCallerSeesShadowedBuiltin() throws LispException {
+		final Session session = Interpreter.newSession();
+		session.eval("(define g (lambda (x) (car x)))");
+		assertEquals(1L, session.eval("(g (quote (1 2)))"));
+		session.eval("(define car cdr)");
+		assertEquals(LispList.of(2L), session.eval("(g (quote (1 2)))"));
+	}
+
+}
@@ -0,0 +1,189 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestImage {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Session session;
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		session = Interpreter.newSession();
+		file = new File(folder.getRoot(), "session.image");
+	}
+
+	@Test
+	public void testData() throws Exception {
+		session.eval("(define n 42)");
+		session.eval("(define x 2.5)");
+		session.eval("(define big (* 99999999999 99999999999 99999999999))");
+		session.eval("(define yes #t)");
+		session.eval("(define data (quote (a (b 1) () c)))");
+		final Session loaded = saveAndLoad();
+		assertEquals(42L, loaded.eval("n"));
+		assertEquals(2.5, loaded.eval("x"));
+		assertEquals(new BigInteger("999999999970000000000299999999999"),
+				loaded.eval("big"));
+		assertEquals(true, loaded.eval("yes"));
+		assertEquals(session.eval("data"), loaded.eval("data"));
+		assertSame(Symbol.intern("a"), loaded.eval("(car data)"));
+	}
+
+	@Test
+	public void testRecursiveProcedure() throws Exception {
+		session.eval("(define fact (lambda (n)"
+				+ " (if (<= n 1) 1 (* n (fact (- n 1))))))");
+		final Session loaded = saveAndLoad();
+		assertEquals(3628800L, loaded.eval("(fact 10)"));
+		assertEquals(Symbol.intern("fact"),
+				((Proc) loaded.eval("fact")).getLambda().getName());
+	}
+
+	@Test
+	public void testClosuresShareFrames() throws Exception {
+		session.eval("(define make-counter (lambda ()"
+				+ " (begin (define count 0)"
+				+ " (list (lambda () (begin (set! count (+ count 1)) count))"
+				+ " (lambda () count)))))");
+		session.eval("(define counter (make-counter))");
+		session.eval("(define next (car counter))");
+		session.eval("(define peek (car (cdr counter)))");
+		session.eval("(next)");
+		session.eval("(next)");
+		final Session loaded = saveAndLoad();
+		assertEquals(3L, loaded.eval("(next)"));
+		assertEquals(3L, loaded.eval("(peek)"));
+		assertEquals(4L, loaded.eval("((car counter))"));
+		assertEquals(4L, loaded.eval("(peek)"));
+		// The original is unaffected
+		assertEquals(2L, session.eval("(peek)"));
+	}
+
+	@Test
+	public void testLocalRecursionAndGlobals() throws Exception {
+		session.eval("(define base 10)");
+		session.eval("(define sum-to (lambda (n) (begin"
+				+ " (define loop (lambda (i acc)"
+				+ " (if (> i n) acc (loop (+ i 1) (+ acc i)))))"
+				+ " (lambda () (+ base (loop 1 0))))))");
+		session.eval("(define sum-100 (sum-to 100))");
+		session.eval("(define plus +)");
+		session.eval("(define root (lambda (x) (.sqrt java.lang.Math x)))");
+		final Session loaded = saveAndLoad();
+		assertEquals(5060L, loaded.eval("(sum-100)"));
+		loaded.eval("(set! base 0)");
+		assertEquals(5050L, loaded.eval("(sum-100)"));
+		assertEquals(3L, loaded.eval("(plus 1 2)"));
+		assertSame(Builtins.getBaseEnvironment().get(Symbol.intern("+")),
+				loaded.eval("plus"));
+		assertEquals(3., loaded.eval("(root 9)"));
+	}
+
+	@Test
+	public void testJavaObjectCantBeSaved() throws Exception {
+		session.eval("(define n 1)");
+		session.getEnvironment().put(Symbol.intern("thing"), new Object());
+		try {
+			Image.save(session.getEnvironment(), file);
+			fail("Expected EvalException");
+		} catch (final EvalException e) {
+			assertEquals(Errors.UNSAVABLE_VALUE, e.getError());
+		}
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void testMemoizedProcedureCantBeSaved() throws Exception {
+		session.eval("(define m (list 1 (memoize (lambda (x) x))))");
+		try {
+			Image.save(session.getEnvironment(), file);
+			fail("Expected EvalException");
+		} catch (final EvalException e) {
+			assertEquals(Errors.UNSAVABLE_VALUE, e.getError());
+		}
+	}
+
+	@Test
+	public void testClosureOverAnotherEnvironmentCantBeSaved()
+			throws Exception {
+		final Session other = Interpreter.newSession();
+		other.eval("(define f (lambda () 1))");
+		session.getEnvironment().put(Symbol.intern("f"), other.eval("f"));
+		try {
+			Image.save(session.getEnvironment(), file);
+			fail("Expected EvalException");
+		} catch (final EvalException e) {
+			assertEquals(Errors.UNSAVABLE_VALUE, e.getError());
+		}
+	}
+
+	@Test
+	public void testBadImage() throws Exception {
+		session.eval("(define data (quote (1 2 3)))");
+		Image.save(session.getEnvironment(), file);
+		final FileOutputStream out = new FileOutputStream(file, true);
+		try {
+			out.getChannel().truncate(file.length() - 3);
+		} finally {
+			out.close();
+		}
+		try {
+			Image.load(file);
+			fail("Expected IOException");
+		} catch (final IOException e) {
+			// expected
+		}
+		final File other = folder.newFile("other");
+		try {
+			Image.load(other);
+			fail("Expected IOException");
+		} catch (final IOException e) {
+			// expected
+		}
+	}
+
+	private Session saveAndLoad() throws IOException {
+		Image.save(session.getEnvironment(), file);
+		return Interpreter.newSession(file);
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Scans a generated program several times larger than the lexer's buffer,
+ * both from a string and from a reader.
+ */
+public class TestLexer {
+
+	private static final int DEFINITIONS = 500;
+
+	/** Number of tokens in each generated definition */
+	private static final int TOKENS_PER_DEFINITION = 34;
+
+	private static String program;
+
+	@BeforeClass
+	public static void generateProgram() {
+		final StringBuilder builder = new StringBuilder();
+		builder.append("(begin\n");
+		for (int i=0; i<DEFINITIONS; ++i) {
+			builder.append("  (define rule").append(i)
+				.append(" (lambda (n acc)\n")
+				.append("    (if (<= n ").append(i % 100).append(".5e1)\n")
+				.append("      acc\n")
+				.append("      (rule").append(i)
+				.append(" (- n 1) (* acc #t -3.25)))))\n");
+		}
+		builder.append(")");
+		program = builder.toString();
+	}
+
+	@Test
+	public void testTokenizeString() {
+		assertEquals(DEFINITIONS * TOKENS_PER_DEFINITION + 3,
+				Lexer.tokenize(program).size());
+	}
+
+	@Test
+	public void testTokenizeReader() {
+		final Lexer lexer = new Lexer(new StringReader(program));
+		final List<Object> tokens = new ArrayList<Object>();
+		while (lexer.hasMoreTokens()) {
+			tokens.add(lexer.consumeToken());
+		}
+		assertEquals(Lexer.tokenize(program), tokens);
+	}
+
+	@Test
+	public void testParse() {
+		assertEquals(DEFINITIONS + 1,
+				((List<?>) Interpreter.parse(program)).size());
+	}
+
+}
@@ -0,0 +1,83 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.ListIterator;
+
+import org.junit.Test;
+
+public class TestLispList {
+
+	@Test
+	public void testConsSharesTail() {
+		final LispList tail = LispList.of(2., 3.);
+		final Pair list = tail.cons(1.);
+		assertSame(tail, list.cdr());
+		assertEquals(1., list.car());
+		assertEquals(3, list.size());
+		assertSame(tail, Builtins.cdr(list));
+		assertSame(Nil.NIL, Builtins.cdr(Nil.NIL));
+	}
+
+	@Test
+	public void testListView() {
+		final LispList list = LispList.of(1., 2., 3.);
+		assertEquals(Arrays.asList(1., 2., 3.), list);
+		assertEquals(list, Arrays.asList(1., 2., 3.));
+		assertEquals(Arrays.asList(1., 2., 3.).hashCode(), list.hashCode());
+		assertEquals(2., list.get(1));
+		assertTrue(!list.equals(LispList.of(1., 2.)));
+		assertTrue(Nil.NIL.equals(Arrays.asList()));
+
+		final ListIterator<Object> i = list.listIterator(1);
+		assertEquals(2., i.next());
+		assertEquals(2., i.previous());
+		assertEquals(1., i.previous());
+		assertTrue(!i.hasPrevious());
+	}
+
+	@Test
+	public void testAppendSharesLastList() {
+		final LispList last = LispList.of(3., 4.);
+		final LispList result = Builtins.append(
+				LispList.of(LispList.of(1.), Nil.NIL, LispList.of(2.), last));
+		assertEquals(Arrays.asList(1., 2., 3., 4.), result);
+		assertSame(last, ((Pair) ((Pair) result).cdr()).cdr());
+	}
+
+	@Test
+	public void testLongRecursiveList() throws LispException {
+		final Environment env = Interpreter.getGlobalEnvironment();
+		Interpreter.eval(Interpreter.read(
+				"(define seq (lambda (lo hi) (if (> lo hi) (quote ()) " +
+				"(cons lo (seq (+ lo 1) hi)))))"), env);
+		final Object result = Interpreter.eval(Interpreter.read(
+				"(length (seq 1 300))"), env);
+		assertEquals(300L, result);
+	}
+
+}
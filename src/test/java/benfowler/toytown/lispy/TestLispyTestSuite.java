@@ -23,6 +23,7 @@ package benfowler.toytown.lispy;
 
 import static org.junit.Assert.assertEquals;
 
+import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -42,28 +43,28 @@ import benfowler.toytown.lispy.Symbol;
 public class TestLispyTestSuite {
 
 	private static Object[][] LISPY_TESTS = {
-		new Object[] {"pn1", "(quote (testing 1 (2.0) -3.14e159))", list(sym("testing"), 1., list(2.), -3.14e159)},
-		new Object[] {"pn2", "(+ 2 2)", 4. },
-		new Object[] {"pn3", "(+ (* 2 100) (* 1 10))", 210.},
-		new Object[] {"pn4", "(if (> 6 5) (+ 1 1) (+ 2 2))", 2.},
-		new Object[] {"pn5", "(if (< 6 5) (+ 1 1) (+ 2 2))", 4.},
+		new Object[] {"pn1", "(quote (testing 1 (2.0) -3.14e159))", list(sym("testing"), 1L, list(2.), -3.14e159)},
+		new Object[] {"pn2", "(+ 2 2)", 4L },
+		new Object[] {"pn3", "(+ (* 2 100) (* 1 10))", 210L},
+		new Object[] {"pn4", "(if (> 6 5) (+ 1 1) (+ 2 2))", 2L},
+		new Object[] {"pn5", "(if (< 6 5) (+ 1 1) (+ 2 2))", 4L},
 		new Object[] {"pn6", "(define x 3)", null},
-		new Object[] {"pn6a", "x", 3.},
-		new Object[] {"pn6b", "(+ x x)", 6.},
-		new Object[] {"pn6c", "(begin (define x 1) (set! x (+ x 1)) (+ x 1))", 3.},
-		new Object[] {"pn7", "((lambda (x) (+ x x)) 5)", 10.},
+		new Object[] {"pn6a", "x", 3L},
+		new Object[] {"pn6b", "(+ x x)", 6L},
+		new Object[] {"pn6c", "(begin (define x 1) (set! x (+ x 1)) (+ x 1))", 3L},
+		new Object[] {"pn7", "((lambda (x) (+ x x)) 5)", 10L},
 		new Object[] {"pn8", "(define twice (lambda (x) (* 2 x)))", null},
-		new Object[] {"pn8a", "(twice 5)", 10.},
+		new Object[] {"pn8a", "(twice 5)", 10L},
 		new Object[] {"pn9", "(define compose (lambda (f g) (lambda (x) (f (g x)))))", null},
-		new Object[] {"pn10", "((compose list twice) 5)", list(10.)},
+		new Object[] {"pn10", "((compose list twice) 5)", list(10L)},
 		new Object[] {"pn11", "(define repeat (lambda (f) (compose f f)))", null},
-		new Object[] {"pn12", "((repeat twice) 5)", 20.},
-		new Object[] {"pn12a", "((repeat (repeat twice)) 5)", 80.},
+		new Object[] {"pn12", "((repeat twice) 5)", 20L},
+		new Object[] {"pn12a", "((repeat (repeat twice)) 5)", 80L},
 		new Object[] {"pn13", "(define fact (lambda (n) (if (<= n 1) 1 (* n (fact (- n 1))))))", null},
-		new Object[] {"pn14", "(fact 3)", 6.},
-		new Object[] {"pn15", "(fact 50)", 30414093201713378043612608166064768844377641568960512000000000000.},
+		new Object[] {"pn14", "(fact 3)", 6L},
+		new Object[] {"pn15", "(fact 50)", new BigInteger("30414093201713378043612608166064768844377641568960512000000000000")},
 		new Object[] {"pn16", "(define abs (lambda (n) ((if (> n 0) + -) 0 n)))", null},
-		new Object[] {"pn17", "(list (abs -3) (abs 0) (abs 3))", list (3., 0., 3.)},
+		new Object[] {"pn17", "(list (abs -3) (abs 0) (abs 3))", list (3L, 0L, 3L)},
 		new Object[] {"pn18",
 				"(define combine (lambda (f) " +
 				  "(lambda (x y) " +
@@ -73,17 +74,17 @@ public class TestLispyTestSuite {
 
 		new Object[] {"pn19", "(define zip (combine cons))", null},
 		new Object[] {"pn20", "(zip (list 1 2 3 4) (list 5 6 7 8))",
-				list ( list(1., 5.), list(2., 6.), list(3., 7.), list(4., 8.))},
+				list ( list(1L, 5L), list(2L, 6L), list(3L, 7L), list(4L, 8L))},
 		new Object[] {"pn21",
 				"(define riff-shuffle (lambda (deck) (begin " +
 						"(define take (lambda (n seq) (if (<= n 0) (quote ()) (cons (car seq) (take (- n 1) (cdr seq)))))) " +
 						"(define drop (lambda (n seq) (if (<= n 0) seq (drop (- n 1) (cdr seq)))))" +
 						"(define mid (lambda (seq) (/ (length seq) 2)))" +
 						"((combine append) (take (mid deck) deck) (drop (mid deck) deck)))))", null},
-		new Object[] {"pn22", "(riff-shuffle (list 1 2 3 4 5 6 7 8))", list (1., 5., 2., 6., 3., 7., 4., 8.)},
+		new Object[] {"pn22", "(riff-shuffle (list 1 2 3 4 5 6 7 8))", list (1L, 5L, 2L, 6L, 3L, 7L, 4L, 8L)},
 
-		new Object[] {"pn23", "((repeat riff-shuffle) (list 1 2 3 4 5 6 7 8))", list(1., 3., 5., 7., 2., 4., 6., 8.)},
-		new Object[] {"pn24", "(riff-shuffle (riff-shuffle (riff-shuffle (list 1 2 3 4 5 6 7 8))))", list(1., 2., 3., 4., 5., 6., 7., 8.)},
+		new Object[] {"pn23", "((repeat riff-shuffle) (list 1 2 3 4 5 6 7 8))", list(1L, 3L, 5L, 7L, 2L, 4L, 6L, 8L)},
+		new Object[] {"pn24", "(riff-shuffle (riff-shuffle (riff-shuffle (list 1 2 3 4 5 6 7 8))))", list(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L)},
 	};
 
     @Parameters(name="testName={0}")
@@ -111,7 +112,7 @@ public class TestLispyTestSuite {
 	public void setup() {
     	if (testEnv == null) {
     		testEnv = Interpreter.getGlobalEnvironment();
-    		testEnv.put("pi", 3.14);
+    		testEnv.put(Symbol.intern("pi"), 3.14);
     	}
 	}
 
@@ -140,7 +141,7 @@ public class TestLispyTestSuite {
     }
 
 	private static Symbol sym(final String lexeme) {
-		return new Symbol(lexeme);
+		return Symbol.intern(lexeme);
 	}
 
 }
@@ -0,0 +1,123 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package benfowler.toytown.lispy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestMemo {
+
+	private Session session;
+
+	@Before
+	public void setUp() throws LispException {
+		session = Interpreter.newSession();
+		session.eval("(define calls 0)");
+		session.eval("(define square (lambda (x)"
+				+ " (begin (set! calls (+ calls 1)) (* x x))))");
+	}
+
+	@Test
+	public void testRecursiveProcedure() throws LispException {
+		session.eval("(define fib (memoize (lambda (n)"
+				+ " (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2)))))))");
+		assertEquals(23416728348467685L, session.eval("(fib 80)"));
+	}
+
+	@Test
+	public void testRepeatCallsAreCached() throws LispException {
+		session.eval("(define m (memoize square))");
+		assertEquals(9L, session.eval("(m 3)"));
+		assertEquals(9L, session.eval("(m 3)"));
+		assertEquals(16L, session.eval("(m 4)"));
+		assertEquals(2L, session.eval("calls"));
+		assertEquals(1. / 3, (Double) session.eval("(memo-hit-rate m)"),
+				1e-9);
+	}
+
+	@Test
+	public void testArgumentTuples() throws LispException {
+		session.eval("(define m (memoize (lambda (a b)"
+				+ " (begin (set! calls (+ calls 1)) (append a b)))))");
+		session.eval("(m (quote (1)) (quote (2)))");
+		session.eval("(m (quote (1)) (quote (2)))");
+		session.eval("(m (quote (2)) (quote (1)))");
+		assertEquals(2L, session.eval("calls"));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() throws LispException {
+		session.eval("(define m (memoize square 2))");
+		session.eval("(begin (m 1) (m 2) (m 1) (m 3))");
+		assertEquals(3L, session.eval("calls"));
+		session.eval("(m 1)");
+		assertEquals(3L, session.eval("calls"));
+		session.eval("(m 2)");
+		assertEquals(4L, session.eval("calls"));
+	}
+
+	@Test
+	public void testLeastFrequentlyUsedEviction() throws LispException {
+		session.eval("(define m (memoize square 2 (quote lfu)))");
+		session.eval("(begin (m 1) (m 1) (m 1) (m 2) (m 2) (m 3))");
+		assertEquals(3L, session.eval("calls"));
+		// 3 replaced 2, the less used; 1 is still cached
+		session.eval("(m 1)");
+		assertEquals(3L, session.eval("calls"));
+		session.eval("(m 2)");
+		assertEquals(4L, session.eval("calls"));
+	}
+
+	@Test
+	public void testWeakValues() throws LispException {
+		session.eval("(define m (memoize square 10 (quote lru) #t))");
+		assertEquals(25L, session.eval("(m 5)"));
+		assertEquals(25L, session.eval("(m 5)"));
+	}
+
+	@Test
+	public void testConcurrentCalls() throws LispException {
+		session.eval("(define seq (lambda (from to) (if (> from to)"
+				+ " (quote ()) (cons from (seq (+ from 1) to)))))");
+		session.eval("(define m (memoize (lambda (x) (* x x)) 100))");
+		final Object expected = session.eval(
+				"(pmap (lambda (x) (* x x)) (seq 1 500))");
+		for (int i=0; i<3; ++i) {
+			assertEquals(expected, session.eval("(pmap m (seq 1 500))"));
+		}
+	}
+
+	@Test
+	public void testBadEvictionPolicy() {
+		try {
+			session.eval("(memoize square 10 (quote mru))");
+			fail("EvalException should have been thrown.");
+		} catch (EvalException e) {
+			assertEquals(Errors.BAD_ARGUMENT_TYPE, e.getError());
+		}
+	}
+
+}
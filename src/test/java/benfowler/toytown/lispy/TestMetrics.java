@@ -0,0 +1,125 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package benfowler.toytown.lispy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestMetrics {
+
+	private static final String FIB = "(define fib (lambda (n)"
+			+ " (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2))))))";
+
+	private final Metrics metrics = Metrics.getInstance();
+
+	private Session session;
+
+	@Before
+	public void setUp() {
+		metrics.setEnabled(true);
+		metrics.reset();
+		session = Interpreter.newSession();
+	}
+
+	@After
+	public void tearDown() {
+		metrics.setEnabled(false);
+		metrics.reset();
+	}
+
+	@Test
+	public void testCountsEvalsAndTime() throws LispException {
+		session.eval("(+ 1 2)");
+		session.eval("(* 3 4)");
+		assertEquals(2, metrics.getEvalCount());
+		assertTrue(metrics.getEvalTimeNanos() > 0);
+	}
+
+	@Test
+	public void testCountsCallsByProcedureName() throws LispException {
+		session.eval(FIB);
+		session.eval("((lambda (x) x) 1)");
+		assertEquals(6765L, session.eval("(fib 20)"));
+		assertEquals(Long.valueOf(21891),
+				metrics.getProcedureCalls().get("fib"));
+		assertEquals(Long.valueOf(1),
+				metrics.getProcedureCalls().get(Metrics.ANONYMOUS));
+		assertEquals(21892, metrics.getFramesCreated());
+	}
+
+	@Test
+	public void testCountsDotInvocationsByMethod() throws LispException {
+		session.eval("(.max java.lang.Math 2 3)");
+		session.eval("(.max java.lang.Math 2.0 3.0)");
+		session.eval("(.abs java.lang.Math -2)");
+		assertEquals(Long.valueOf(2),
+				metrics.getDotInvocations().get("java.lang.Math.max"));
+		assertEquals(Long.valueOf(1),
+				metrics.getDotInvocations().get("java.lang.Math.abs"));
+	}
+
+	@Test
+	public void testMaxRecursionDepth() throws LispException {
+		session.eval("(define count (lambda (n)"
+				+ " (if (= n 0) 0 (+ 1 (count (- n 1))))))");
+		session.eval("(count 100)");
+		assertEquals(101, metrics.getMaxRecursionDepth());
+	}
+
+	@Test
+	public void testTailCallsDontAddToDepth() throws LispException {
+		session.eval("(define loop (lambda (n)"
+				+ " (if (= n 0) 0 (loop (- n 1)))))");
+		session.eval("(loop 5000)");
+		assertEquals(1, metrics.getMaxRecursionDepth());
+	}
+
+	@Test
+	public void testNothingCountedWhenDisabled() throws LispException {
+		metrics.setEnabled(false);
+		session.eval(FIB);
+		session.eval("(fib 10)");
+		assertEquals(0, metrics.getEvalCount());
+		assertEquals(0, metrics.getFramesCreated());
+		assertTrue(metrics.getProcedureCalls().isEmpty());
+	}
+
+	@Test
+	public void testRegisteredAsMBean() throws Exception {
+		session.eval("(+ 1 2)");
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+		assertTrue(server.isRegistered(name));
+		assertEquals(1L, server.getAttribute(name, "EvalCount"));
+	}
+
+}
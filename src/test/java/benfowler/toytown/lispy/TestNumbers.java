@@ -0,0 +1,88 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+public class TestNumbers {
+
+	private static final BigInteger TWO_TO_THE_63 =
+			BigInteger.ONE.shiftLeft(63);
+
+	@Test
+	public void testLiterals() throws LispException {
+		assertEquals(42L, eval("42"));
+		assertEquals(-7L, eval("-7"));
+		assertEquals(42., eval("42.0"));
+		assertEquals(TWO_TO_THE_63, eval("9223372036854775808"));
+	}
+
+	@Test
+	public void testSmallValuesAreShared() {
+		assertSame(Numbers.valueOf(1000), Numbers.valueOf(1000));
+		assertSame(eval("(+ 500 500)"), eval("(* 10 100)"));
+	}
+
+	@Test
+	public void testOverflowPromotesToBigInteger() throws LispException {
+		assertEquals(TWO_TO_THE_63, eval("(+ 9223372036854775807 1)"));
+		assertEquals(TWO_TO_THE_63.negate().subtract(BigInteger.ONE),
+				eval("(- -9223372036854775808 1)"));
+		assertEquals(TWO_TO_THE_63, eval("(* 4294967296 2147483648)"));
+		assertEquals(TWO_TO_THE_63, eval("(* -1 -9223372036854775808)"));
+	}
+
+	@Test
+	public void testBigIntegerResultsAreDemoted() throws LispException {
+		assertEquals(Long.MAX_VALUE,
+				eval("(- 9223372036854775808 1)"));
+		assertEquals(2L, eval("(/ 18446744073709551616 9223372036854775808)"));
+	}
+
+	@Test
+	public void testDivision() throws LispException {
+		assertEquals(3L, eval("(/ 6 2)"));
+		assertEquals(2.5, eval("(/ 5 2)"));
+		assertEquals(1L, eval("(% 7 3)"));
+		assertEquals(Double.POSITIVE_INFINITY, eval("(/ 1 0)"));
+	}
+
+	@Test
+	public void testMixedMode() throws LispException {
+		assertEquals(3.5, eval("(+ 1 2.5)"));
+		assertEquals(0., eval("(- 9223372036854775808 9.223372036854775808e18)"));
+		assertEquals(true, eval("(= 1 1.0)"));
+		assertEquals(true, eval("(< 1 1.5 2)"));
+		assertEquals(true, eval("(< 9223372036854775807 9223372036854775808)"));
+		assertEquals(false, eval("(equal? 1 1.0)"));
+	}
+
+	private static Object eval(final String program) {
+		return Interpreter.eval(Interpreter.read(program));
+	}
+
+}
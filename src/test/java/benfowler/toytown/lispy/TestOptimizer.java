@@ -0,0 +1,352 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestOptimizer {
+
+	private static final String HELPERS = "(define square (lambda (x) (* x x)))"
+			+ " (define add (lambda (a b) (+ a b)))";
+
+	private boolean optimizing;
+
+	private int inlineSize;
+
+	@Before
+	public void setUp() {
+		optimizing = Interpreter.isOptimizing();
+		inlineSize = Optimizer.getInlineSize();
+		Interpreter.setOptimizing(true);
+		Optimizer.setInlineSize(Optimizer.DEFAULT_INLINE_SIZE);
+	}
+
+	@After
+	public void tearDown() {
+		Interpreter.setOptimizing(optimizing);
+		Optimizer.setInlineSize(inlineSize);
+	}
+
+	@Test
+	public void testFoldsPureBuiltins() {
+		assertEquals(86400L, optimize("(* 60 60 24)"));
+		assertEquals(true, optimize("(< 1 2 (+ 1 2))"));
+		assertEquals(optimize("(quote (2 3))"),
+				optimize("(cdr (quote (1 2 3)))"));
+		assertEquals(optimize("(quote b)"),
+				optimize("(car (cdr (quote (a b))))"));
+	}
+
+	@Test
+	public void testLeavesOtherCallsAlone() {
+		assertEquals(resolve("(+ x 1)"), optimize("(+ x 1)"));
+		assertEquals(resolve("(list 1 2)"), optimize("(list 1 2)"));
+		assertEquals(resolve("(display 1)"), optimize("(display 1)"));
+		assertEquals(resolve("(lambda (car) (car 1))").toString(),
+				optimize("(lambda (car) (car 1))").toString());
+	}
+
+	@Test
+	public void testErrorsAreRaisedAtRunTime() {
+		assertEquals(resolve("(car 1)"), optimize("(car 1)"));
+		try {
+			Interpreter.newSession().eval("(car 1)");
+			fail("Expected EvalException");
+		} catch (final EvalException e) {
+			assertEquals(Errors.BAD_ARGUMENT_TYPE, e.getError());
+		}
+	}
+
+	@Test
+	public void testDeadBranches() {
+		assertEquals(1L, optimize("(if (< 1 2) 1 (oops))"));
+		assertEquals(2L, optimize("(if #f (oops) (+ 1 1))"));
+		assertEquals(resolve("(if #f 1)"), optimize("(if #f 1)"));
+		assertEquals(resolve("(if x 1 2)"), optimize("(if x 1 2)"));
+	}
+
+	@Test
+	public void testFlattensBegin() {
+		assertEquals(resolve("(begin (f) (g) (h))"),
+				optimize("(begin (f) (begin 1 (g) (begin (h))))"));
+		assertEquals(3L, optimize("(begin (begin 1 2) (+ 1 2))"));
+	}
+
+	@Test
+	public void testGlobalsAreNotPropagated() {
+		assertEquals(resolve("(begin (define day 86400)"
+				+ " (define week (* 7 day)))").toString(),
+				optimize("(begin (define day (* 60 60 24))"
+				+ " (define week (* 7 day)))").toString());
+		final Session session = Interpreter.newSession();
+		session.eval("(begin (define day (* 60 60 24))"
+				+ " (define week (* 7 day)))");
+		assertEquals(604800L, session.eval("week"));
+	}
+
+	@Test
+	public void testGlobalsAssignedElsewhere() {
+		final Engine engine = Interpreter.getEngine();
+		try {
+			for (final Engine e : Engine.values()) {
+				Interpreter.setEngine(e);
+				final Session session = Interpreter.newSession();
+				session.eval("(define bump (lambda () (set! x (+ x 1))))");
+				assertEquals(6L, session.eval("(begin (define x 5) (bump) x)"));
+				assertEquals(7L, session.eval("(begin (define x 6) (bump) x)"));
+			}
+		} finally {
+			Interpreter.setEngine(engine);
+		}
+	}
+
+	@Test
+	public void testAssignedGlobalsAreNotPropagated() {
+		final String program = "(begin (define n 1)"
+				+ " (define inc (lambda () (set! n (+ n 1)))) (inc) n)";
+		assertEquals(resolve(program).toString(),
+				optimize(program).toString());
+		assertEquals(2L, Interpreter.newSession().eval(program));
+	}
+
+	@Test
+	public void testPropagatesLocalConstants() {
+		assertEquals(resolve("(lambda (x) (begin (define k 3) (* 3 x)))")
+				.toString(),
+				optimize("(lambda (x) (begin (define k 3) (* k x)))")
+				.toString());
+		final String assigned = "(lambda (x) (begin (define k 3)"
+				+ " (define f (lambda () (set! k x))) (* k x)))";
+		assertEquals(resolve(assigned).toString(),
+				optimize(assigned).toString());
+		// Only definitions which are always made are propagated
+		final String conditional =
+				"(lambda (x) (begin (if x (define k 3) 0) k))";
+		assertEquals(resolve(conditional).toString(),
+				optimize(conditional).toString());
+	}
+
+	@Test
+	public void testRebindingBuiltinInProgram() {
+		assertEquals(-1L, Interpreter.newSession().eval(
+				"(begin (define + -) (+ 1 2))"));
+		assertEquals(4L, Interpreter.newSession().eval(
+				"(begin (define f (lambda () (+ 1 2)))"
+				+ " (set! + *) (+ 1 (f) 2))"));
+	}
+
+	@Test
+	public void testProceduresAreNotFolded() {
+		assertEquals(resolve("(lambda () (+ 1 2))").toString(),
+				optimize("(lambda () (+ 1 2))").toString());
+	}
+
+	@Test
+	public void testProceduresSeeRebindings() throws LispException {
+		final Engine engine = Interpreter.getEngine();
+		try {
+			for (final Engine e : Engine.values()) {
+				Interpreter.setEngine(e);
+				Session session = Interpreter.newSession();
+				session.eval("(define t (lambda () (+ 1 2)))");
+				session.eval("(define + (lambda (a b) 42))");
+				assertEquals(42L, session.eval("(t)"));
+
+				session = Interpreter.newSession();
+				session.eval("(begin (define k 5) (define t (lambda () k)))");
+				session.eval("(set! k 6)");
+				assertEquals(6L, session.eval("(t)"));
+
+				session = Interpreter.newSession();
+				assertEquals(6L, session.load(new StringReader(
+						"(define k 5) (define t (lambda () (+ k 1)))"
+						+ " (define + -) (set! k 7) (t)")));
+			}
+		} finally {
+			Interpreter.setEngine(engine);
+		}
+	}
+
+	@Test
+	public void testBuiltinShadowedInEnvironment() {
+		final Program program = new Program(
+				Interpreter.parse("(car (quote (1 2)))"));
+		final Program optimized = program.getOptimized();
+		assertEquals(1L, optimized.getResolved());
+		assertSame(optimized, optimized.getOptimized());
+
+		final Session session = Interpreter.newSession();
+		assertTrue(optimized.isValidIn(session.getEnvironment()));
+		session.eval("(define car cdr)");
+		assertFalse(optimized.isValidIn(session.getEnvironment()));
+		assertEquals(session.eval("(quote (2))"),
+				session.eval("(car (quote (1 2)))"));
+	}
+
+	@Test
+	public void testEngines() {
+		final Engine engine = Interpreter.getEngine();
+		try {
+			for (final Engine e : Engine.values()) {
+				Interpreter.setEngine(e);
+				final Session session = Interpreter.newSession();
+				session.eval("(begin (define limit (* 10 10))"
+						+ " (define count (lambda (n acc)"
+						+ " (if (> n limit) acc"
+						+ " (count (+ n 1) (+ acc (if (< 1 2) 1 0)))))))");
+				assertEquals(100L, session.eval("(count 1 0)"));
+			}
+		} finally {
+			Interpreter.setEngine(engine);
+		}
+	}
+
+	@Test
+	public void testInlinesSmallProcedures() {
+		final String program = "(lambda (n) (begin " + HELPERS
+				+ " (add n (square n))))";
+		assertEquals("[begin, [define, a, n],"
+				+ " [define, b, [begin, [define, x, n], [*, x, x]]],"
+				+ " [+, a, b]]", last(optimize(program)).toString());
+		assertEquals(30L, Interpreter.newSession().eval(
+				"(" + program + " 5)"));
+	}
+
+	@Test
+	public void testGlobalProceduresAreNotInlined() throws LispException {
+		final Engine engine = Interpreter.getEngine();
+		try {
+			for (final Engine e : Engine.values()) {
+				Interpreter.setEngine(e);
+				final Session session = Interpreter.newSession();
+				session.eval("(begin (define g (lambda (x) (+ x 1)))"
+						+ " (define t (lambda (y) (g y))))");
+				assertEquals(3L, session.eval("(t 2)"));
+				session.eval("(define g (lambda (x) (* x 100)))");
+				assertEquals(200L, session.eval("(t 2)"));
+			}
+		} finally {
+			Interpreter.setEngine(engine);
+		}
+	}
+
+	@Test
+	public void testInlinedArgumentsKeepTheirOwnSlots() {
+		final Session session = Interpreter.newSession();
+		session.eval("(define g (lambda (x) (begin"
+				+ " (define minus (lambda (x y) (- x y))) (define y 10)"
+				+ " (+ (minus y x) (minus x y)))))");
+		assertEquals(0L, session.eval("(g 3)"));
+		// x, minus and y, plus x and y for each call to minus
+		assertEquals(7, ((Proc) session.eval("g")).getLambda()
+				.getFrameSize());
+	}
+
+	@Test
+	public void testArgumentsAreEvaluatedOnceInOrder() {
+		final Session session = Interpreter.newSession();
+		session.eval("(begin (define log (quote ()))"
+				+ " (define note (lambda (x)"
+				+ " (begin (set! log (cons x log)) x)))"
+				+ " (define f (lambda () (begin"
+				+ " (define first (lambda (a b) a))"
+				+ " (define double (lambda (x) (+ x x)))"
+				+ " (first (note 1) (double (note 2)))))))");
+		assertEquals(1L, session.eval("(f)"));
+		assertEquals(session.eval("(quote (2 1))"), session.eval("log"));
+	}
+
+	@Test
+	public void testInlinedClosures() {
+		final Session session = Interpreter.newSession();
+		session.eval("(define f (lambda () (begin"
+				+ " (define adder (lambda (n) (lambda (x) (+ x n))))"
+				+ " (list (adder 1) (adder 2)))))");
+		assertEquals(11L, session.eval("((car (f)) 10)"));
+		assertEquals(12L, session.eval("((car (cdr (f))) 10)"));
+	}
+
+	@Test
+	public void testInlinesLocalProcedures() {
+		final String program = "(lambda (k) (begin"
+				+ " (define scale (lambda (v) (* v k)))"
+				+ " (define g (lambda (w) (scale (scale w))))"
+				+ " (+ (scale 1) (g 1))))";
+		assertEquals(-1, optimize(program).toString().indexOf("[scale,"));
+		final Session session = Interpreter.newSession();
+		assertEquals(12L, session.eval("(" + program + " 3)"));
+		assertEquals(5L, session.eval("((lambda (x y) (+ x y)) 2 3)"));
+		assertEquals(3L, session.eval("((lambda (y)"
+				+ " ((lambda (x y) (- x y)) y 1)) 4)"));
+	}
+
+	@Test
+	public void testRecursiveProceduresAreNotInlined() {
+		final String program = "(lambda (n) (begin (define fact (lambda (n)"
+				+ " (if (<= n 1) 1 (* n (fact (- n 1)))))) (fact n)))";
+		assertEquals("[fact, n]", last(optimize(program)).toString());
+		assertEquals(720L, Interpreter.newSession().eval(
+				"(" + program + " 6)"));
+	}
+
+	@Test
+	public void testInlineSize() {
+		final String program = "(lambda (n) (begin " + HELPERS
+				+ " (square n)))";
+		Optimizer.setInlineSize(3);
+		assertEquals("[square, n]", last(optimize(program)).toString());
+		Optimizer.setInlineSize(0);
+		assertEquals("[square, n]", last(optimize(program)).toString());
+		Optimizer.setInlineSize(4);
+		assertEquals("[begin, [define, x, n], [*, x, x]]",
+				last(optimize(program)).toString());
+	}
+
+	/**
+	 * @return last form of the body of a lambda
+	 */
+	private static Object last(final Object lambda) {
+		final List<?> forms = (List<?>) ((Lambda) lambda).getBody();
+		return forms.get(forms.size() - 1);
+	}
+
+	private static Object resolve(final String program) {
+		return Resolver.resolve(Interpreter.parse(program));
+	}
+
+	private static Object optimize(final String program) {
+		return new Program(Interpreter.parse(program)).getOptimized()
+				.getResolved();
+	}
+
+}
@@ -0,0 +1,124 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package benfowler.toytown.lispy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestParallel {
+
+	private static final String SEQ = "(define seq (lambda (from to)"
+			+ " (if (> from to) (quote ()) (cons from (seq (+ from 1) to)))))";
+
+	private int threshold;
+
+	private Session session;
+
+	@Before
+	public void setUp() throws LispException {
+		threshold = Parallel.getThreshold();
+		Parallel.setThreshold(4);
+		session = Interpreter.newSession();
+		session.eval(SEQ);
+		session.eval("(define numbers (seq 1 1000))");
+	}
+
+	@After
+	public void tearDown() {
+		Parallel.setThreshold(threshold);
+	}
+
+	@Test
+	public void testMapKeepsOrder() throws LispException {
+		final Object result = session.eval(
+				"(pmap (lambda (x) (* x x)) numbers)");
+		assertEquals(session.eval(
+				"(begin (define squares (lambda (l) (if (null? l) (quote ())"
+				+ " (cons (* (car l) (car l)) (squares (cdr l))))))"
+				+ " (squares numbers))"), result);
+	}
+
+	@Test
+	public void testFilterKeepsOrder() throws LispException {
+		assertEquals(LispList.of(7L, 14L, 21L, 28L),
+				session.eval("(pfilter (lambda (x) (= (% x 7) 0))"
+						+ " (seq 1 30))"));
+	}
+
+	@Test
+	public void testReduce() throws LispException {
+		assertEquals(500500L, session.eval("(preduce + 0 numbers)"));
+		assertEquals(500500L, session.eval(
+				"(preduce (lambda (a b) (+ a b)) 0 numbers)"));
+		assertEquals(0L, session.eval("(preduce + 0 (quote ()))"));
+	}
+
+	@Test
+	public void testClosuresReadCapturedVariables() throws LispException {
+		session.eval("(define scale (lambda (k) (pmap (lambda (x) (* k x))"
+				+ " (seq 1 10))))");
+		assertEquals(LispList.of(3L, 6L, 9L, 12L, 15L, 18L, 21L, 24L, 27L,
+				30L), session.eval("(scale 3)"));
+	}
+
+	@Test
+	public void testNestedParallelCalls() throws LispException {
+		assertEquals(LispList.of(55L, 210L, 465L), session.eval(
+				"(pmap (lambda (n) (preduce + 0 (seq 1 n)))"
+				+ " (quote (10 20 30)))"));
+	}
+
+	@Test
+	public void testErrorsPropagate() {
+		try {
+			session.eval("(pmap car numbers)");
+			fail("EvalException should have been thrown.");
+		} catch (EvalException e) {
+			assertEquals(Errors.BAD_ARGUMENT_TYPE, e.getError());
+		}
+	}
+
+	@Test
+	public void testFilterNeedsBoolean() {
+		try {
+			session.eval("(pfilter (lambda (x) x) numbers)");
+			fail("EvalException should have been thrown.");
+		} catch (EvalException e) {
+			assertEquals(Errors.BAD_ARGUMENT_TYPE, e.getError());
+		}
+	}
+
+	@Test
+	public void testApply() throws LispException {
+		assertEquals(5L, Interpreter.apply(session.eval("+"), 2L, 3L));
+		assertEquals(6L, Interpreter.apply(
+				session.eval("(lambda (a b) (* a b))"), 2L, 3L));
+		assertEquals(LispList.of(1L, 2L), Interpreter.apply(
+				session.eval("(lambda args args)"), 1L, 2L));
+	}
+
+}
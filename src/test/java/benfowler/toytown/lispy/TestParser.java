@@ -25,9 +25,12 @@ import static benfowler.toytown.lispy.SpecialForm.DEFINE;
 import static benfowler.toytown.lispy.SpecialForm.IF;
 import static benfowler.toytown.lispy.SpecialForm.LAMBDA;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.StringReader;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Test;
@@ -50,8 +53,8 @@ public class TestParser {
 
 	private static final Object[] TEST_PRG_FACT_TOKENS =
 		{ "(", DEFINE, sym("fact"), "(", LAMBDA, "(", sym("n"),
-		")", "(", IF, "(", sym("<="), sym("n"), 1., ")", 1., "(",
-		sym("*"), sym("n"), "(", sym("fact"), "(", sym("-"), sym("n"), 1.,
+		")", "(", IF, "(", sym("<="), sym("n"), 1L, ")", 1L, "(",
+		sym("*"), sym("n"), "(", sym("fact"), "(", sym("-"), sym("n"), 1L,
 		")", ")", ")", ")", ")", ")" };
 
 
@@ -93,6 +96,23 @@ public class TestParser {
 		assertTrue("No s-expr returned", l.size() > 0);
 	}
 
+	@Test
+	public void testParserQuotedData() throws ParseException {
+		final Object parse = Interpreter.parse("(if x (quote (1 (2))) y)");
+		assertTrue("Code should be parsed into forms", parse instanceof Form);
+		final List<?> l = (List<?>)parse;
+		assertEquals(4, l.size());
+		assertEquals(sym("y"), l.get(3));
+
+		final List<?> quote = (List<?>)l.get(2);
+		assertTrue("Quote should be parsed into a form", quote instanceof Form);
+		assertTrue("Quoted data should be a list",
+				quote.get(1) instanceof List);
+		assertTrue("Quoted data should not be a form",
+				!(quote.get(1) instanceof Form));
+		assertEquals(Arrays.asList(1L, Arrays.asList(2L)), quote.get(1));
+	}
+
 	@Test
 	public void testParserExtraParens() throws ParseException {
 		try {
@@ -113,8 +133,44 @@ public class TestParser {
 		}
 	}
 
+	@Test
+	public void testNumberRecognition() {
+		final Lexer lexer = new Lexer("");
+		assertEquals(1L, lexer.toAtom("1"));
+		assertEquals(1., lexer.toAtom("1."));
+		assertEquals(.5, lexer.toAtom(".5"));
+		assertEquals(-3.14e159, lexer.toAtom("-3.14e159"));
+		assertEquals(2e-3, lexer.toAtom("+2E-3"));
+		assertEquals(Double.NaN, lexer.toAtom("NaN"));
+		assertEquals(Double.NEGATIVE_INFINITY, lexer.toAtom("-Infinity"));
+		assertEquals(sym("-"), lexer.toAtom("-"));
+		assertEquals(sym("+"), lexer.toAtom("+"));
+		assertEquals(sym("1e"), lexer.toAtom("1e"));
+		assertEquals(sym("e1"), lexer.toAtom("e1"));
+		assertEquals(sym("1+"), lexer.toAtom("1+"));
+		assertTrue(lexer.toAtom(".toString") instanceof Dot);
+		assertEquals(LAMBDA, lexer.toAtom("lambda"));
+	}
+
+	@Test
+	public void testSymbolsAreInterned() throws ParseException {
+		final List<?> l = (List<?>)Interpreter.parse("(fred (fred) fred)");
+		assertSame(sym("fred"), l.get(0));
+		assertSame(l.get(0), ((List<?>)l.get(1)).get(0));
+		assertSame(l.get(0), l.get(2));
+	}
+
+	@Test
+	public void testTokenizeReader() throws ParseException {
+		final Lexer lexer = new Lexer(new StringReader(TEST_PRG_FACT));
+		for (Object expectedToken : TEST_PRG_FACT_TOKENS) {
+			lexer.expect(expectedToken);
+		}
+		assertTrue("Unconsumed tokens", !lexer.hasMoreTokens());
+	}
+
 	private static Symbol sym(final String lexeme) {
-		return new Symbol(lexeme);
+		return Symbol.intern(lexeme);
 	}
 
 }
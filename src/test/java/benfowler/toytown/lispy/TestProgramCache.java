@@ -0,0 +1,144 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package benfowler.toytown.lispy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestProgramCache {
+
+	private ProgramCache previous;
+
+	private ProgramCache cache;
+
+	@Before
+	public void setUp() {
+		previous = Interpreter.getProgramCache();
+		cache = new ProgramCache(16);
+		Interpreter.setProgramCache(cache);
+	}
+
+	@After
+	public void tearDown() {
+		Interpreter.setProgramCache(previous);
+	}
+
+	@Test
+	public void testParseIsCached() {
+		final Object first = Interpreter.parse("(+ 1 2)");
+		assertSame(first, Interpreter.parse("(+ 1 2)"));
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testCachedProgramsRunInEachEnvironment()
+			throws LispException {
+		final String define = "(define f (lambda (n) (* n k)))";
+		final Session first = Interpreter.newSession();
+		final Session second = Interpreter.newSession();
+		first.eval("(define k 2)");
+		second.eval("(define k 3)");
+		first.eval(define);
+		second.eval(define);
+		assertEquals(10L, first.eval("(f 5)"));
+		assertEquals(15L, second.eval("(f 5)"));
+		assertEquals(10L, first.eval("(f 5)"));
+		assertEquals(3, cache.getHits());
+		assertEquals(4, cache.getMisses());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() {
+		final ProgramCache single = new ProgramCache(1);
+		Interpreter.setProgramCache(single);
+		Interpreter.parse("a");
+		Interpreter.parse("b");
+		Interpreter.parse("b");
+		Interpreter.parse("a");
+		assertEquals(2, single.getEvictions());
+		assertEquals(1, single.getHits());
+		assertEquals(3, single.getMisses());
+	}
+
+	@Test
+	public void testSizeIsBounded() {
+		for (int i=0; i<100; ++i) {
+			Interpreter.parse("(+ " + i + " 1)");
+		}
+		assertTrue(cache.size() <= cache.getMaximumSize());
+		assertEquals(100, cache.size() + cache.getEvictions());
+	}
+
+	@Test
+	public void testParsedFormsShareTheCachedProgram() throws LispException {
+		final Object form = Interpreter.parse("(* 6 7)");
+		final Program program = cache.find(form);
+		assertSame(program.getForm(), form);
+		assertEquals(42L, Interpreter.eval(form,
+				Interpreter.getGlobalEnvironment()));
+		assertSame(program, cache.find(form));
+		assertEquals(3, cache.getHits());
+
+		// An equal form from elsewhere is not the cached one
+		assertNull(cache.find(Interpreter.parseSource("(* 6 7)")));
+	}
+
+	@Test
+	public void testEvictedFormsAreForgotten() {
+		final ProgramCache single = new ProgramCache(1);
+		Interpreter.setProgramCache(single);
+		final Object first = Interpreter.parse("(a)");
+		Interpreter.parse("(b)");
+		assertNull(single.find(first));
+
+		// The same symbol, parsed from two sources
+		Interpreter.parse("c");
+		Interpreter.parse(" c");
+		assertNotNull(single.find(Symbol.intern("c")));
+	}
+
+	@Test
+	public void testParseErrorsAreNotCached() {
+		for (int i=0; i<2; ++i) {
+			try {
+				Interpreter.parse("(+ 1");
+				fail("ParseException should have been thrown.");
+			} catch (ParseException e) {
+				// expected
+			}
+		}
+		assertEquals(0, cache.size());
+		assertEquals(2, cache.getMisses());
+	}
+
+}
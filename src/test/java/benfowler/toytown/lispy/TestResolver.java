@@ -0,0 +1,131 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestResolver {
+
+	@Test
+	public void testLocalsAndGlobals() throws LispException {
+		final Lambda outer = (Lambda) Resolver.resolve(Interpreter.parse(
+				"(lambda (x y) (begin (define z (+ x y)) " +
+				"(lambda (x) (* x y z))))"));
+		assertEquals(3, outer.getFrameSize());
+
+		final List<?> begin = (List<?>) outer.getBody();
+		final List<?> define = (List<?>) begin.get(1);
+		assertLocal(define.get(1), 0, 2);
+		final List<?> plus = (List<?>) define.get(2);
+		assertSame(Symbol.intern("+"), plus.get(0));
+		assertLocal(plus.get(1), 0, 0);
+		assertLocal(plus.get(2), 0, 1);
+
+		final Lambda inner = (Lambda) begin.get(2);
+		assertEquals(1, inner.getFrameSize());
+		final List<?> times = (List<?>) inner.getBody();
+		assertLocal(times.get(1), 0, 0);
+		assertLocal(times.get(2), 1, 1);
+		assertLocal(times.get(3), 1, 2);
+	}
+
+	@Test
+	public void testQuotedSymbolsAreLeftAlone() throws LispException {
+		final Lambda lambda = (Lambda) Resolver.resolve(Interpreter.parse(
+				"(lambda (x) (quote (x)))"));
+		final List<?> quote = (List<?>) lambda.getBody();
+		assertEquals(Symbol.intern("x"), ((List<?>) quote.get(1)).get(0));
+	}
+
+	@Test
+	public void testClosuresAndShadowing() throws LispException {
+		final Environment env = Interpreter.getGlobalEnvironment();
+		eval("(define x 10)", env);
+		eval("(define adder (lambda (x) (lambda (y) (+ x y))))", env);
+		assertEquals(15L, eval("((adder 5) 10)", env));
+		assertEquals(10L, eval("x", env));
+		eval("(define counter (lambda () (begin (define n 0) " +
+				"(lambda () (begin (set! n (+ n 1)) n)))))", env);
+		eval("(define c (counter))", env);
+		eval("(c)", env);
+		assertEquals(2L, eval("(c)", env));
+		assertEquals(1L, eval("((counter))", env));
+	}
+
+	@Test
+	public void testUndefinedLocalsFallBackOnEnclosingBinding()
+	throws LispException {
+		final Engine engine = Interpreter.getEngine();
+		final int threshold = BytecodeCompiler.getThreshold();
+		try {
+			for (final Engine e : Engine.values()) {
+				for (final int t : new int[] { 0, 1 }) {
+					Interpreter.setEngine(e);
+					BytecodeCompiler.setThreshold(t);
+					final Environment env = Interpreter.getGlobalEnvironment();
+					eval("(define x 1)", env);
+					eval("(define f (lambda () (begin"
+							+ " (define y x) (define x 2) (+ y x))))", env);
+					assertEquals(3L, eval("(f)", env));
+					assertEquals(3L, eval("(f)", env));
+					eval("(define g (lambda (c) (begin"
+							+ " (if c (define x 2) 0) x)))", env);
+					assertEquals(1L, eval("(g #f)", env));
+					assertEquals(2L, eval("(g #t)", env));
+					eval("(define h (lambda (x) (lambda ()"
+							+ " (begin (define z x) (define x 3) z))))", env);
+					assertEquals(5L, eval("((h 5))", env));
+				}
+			}
+		} finally {
+			Interpreter.setEngine(engine);
+			BytecodeCompiler.setThreshold(threshold);
+		}
+	}
+
+	@Test
+	public void testFormalArgumentsHaveNoFallback() throws LispException {
+		final Lambda lambda = (Lambda) Resolver.resolve(Interpreter.parse(
+				"(lambda (x) (begin (define y 1) (+ x y)))"));
+		final List<?> plus = (List<?>) ((List<?>) lambda.getBody()).get(2);
+		assertEquals(null, ((LocalRef) plus.get(1)).getFallback());
+		assertSame(Symbol.intern("y"), ((LocalRef) plus.get(2)).getFallback());
+	}
+
+	private static void assertLocal(final Object ref, final int depth,
+			final int slot) {
+		assertTrue(ref + " should be local", ref instanceof LocalRef);
+		assertEquals(depth, ((LocalRef) ref).getDepth());
+		assertEquals(slot, ((LocalRef) ref).getSlot());
+	}
+
+	private static Object eval(final String program, final Environment env) {
+		return Interpreter.eval(Interpreter.read(program), env);
+	}
+
+}
@@ -0,0 +1,103 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class TestSession {
+
+	private static final Symbol PLUS = Symbol.intern("+");
+
+	@Test
+	public void testDefinitionsPersistWithinSession() throws LispException {
+		final Session session = Interpreter.newSession();
+		session.eval("(define square (lambda (x) (* x x)))");
+		assertEquals(49L, session.eval("(square 7)"));
+	}
+
+	@Test
+	public void testSessionsAreIsolated() throws LispException {
+		final Session first = Interpreter.newSession();
+		final Session second = Interpreter.newSession();
+		first.eval("(define x 1)");
+		assertTrue(first.getEnvironment().isBound(Symbol.intern("x")));
+		assertFalse(second.getEnvironment().isBound(Symbol.intern("x")));
+	}
+
+	@Test
+	public void testBuiltinsAreShared() {
+		final Environment first = Interpreter.getGlobalEnvironment();
+		final Environment second = Interpreter.getGlobalEnvironment();
+		assertNotSame(first, second);
+		assertTrue(first.isEmpty());
+		assertSame(first.get(PLUS), second.get(PLUS));
+	}
+
+	@Test
+	public void testSetOnBuiltinShadowsIt() throws LispException {
+		final Session session = Interpreter.newSession();
+		session.eval("(set! + -)");
+		assertEquals(1L, session.eval("(+ 3 2)"));
+		assertEquals(5L, Interpreter.newSession().eval("(+ 3 2)"));
+	}
+
+	@Test
+	public void testBaseEnvironmentIsReadOnly() {
+		final Environment base = Builtins.getBaseEnvironment();
+		assertTrue(base.isFrozen());
+		try {
+			base.put(PLUS, null);
+			fail("EvalException should have been thrown.");
+		} catch (EvalException e) {
+			assertEquals(Errors.ENVIRONMENT_FROZEN, e.getError());
+		}
+	}
+
+	@Test
+	public void testDefineInFrozenEnvironment() {
+		final Engine engine = Interpreter.getEngine();
+		try {
+			for (final Engine e : Engine.values()) {
+				Interpreter.setEngine(e);
+				try {
+					Interpreter.eval(Interpreter.parse("(define x 1)"),
+							Builtins.getBaseEnvironment());
+					fail("EvalException should have been thrown.");
+				} catch (EvalException ex) {
+					assertEquals(Errors.ENVIRONMENT_FROZEN, ex.getError());
+				}
+			}
+		} finally {
+			Interpreter.setEngine(engine);
+		}
+		assertFalse(Builtins.getBaseEnvironment().isBound(
+				Symbol.intern("x")));
+	}
+
+}
@@ -33,12 +33,12 @@ public class TestSieveOfEratosthenes extends AbstractExternalFileTest {
 
 	@Override
 	protected Object getTestResult() {
-	return list(2.0, 3.0, 5.0, 7.0, 11.0, 13.0, 17.0, 19.0, 23.0, 29.0,
-		     31.0, 37.0, 41.0, 43.0, 47.0, 53.0, 59.0, 61.0, 67.0,
-		     71.0, 73.0, 79.0, 83.0, 89.0, 97.0, 101.0, 103.0, 107.0,
-		     109.0, 113.0, 127.0, 131.0, 137.0, 139.0, 149.0, 151.0,
-		     157.0, 163.0, 167.0, 173.0, 179.0, 181.0, 191.0, 193.0,
-		     197.0, 199.0);
+	return list(2L, 3L, 5L, 7L, 11L, 13L, 17L, 19L, 23L, 29L,
+		     31L, 37L, 41L, 43L, 47L, 53L, 59L, 61L, 67L,
+		     71L, 73L, 79L, 83L, 89L, 97L, 101L, 103L, 107L,
+		     109L, 113L, 127L, 131L, 137L, 139L, 149L, 151L,
+		     157L, 163L, 167L, 173L, 179L, 181L, 191L, 193L,
+		     197L, 199L);
 	}
 
 	private static List<Object> list(final Object... objects) {
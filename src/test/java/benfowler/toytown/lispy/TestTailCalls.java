@@ -0,0 +1,93 @@
+/*
+ *  Toytown -- a reimplementation of Peter Norvig's lis.py interpreter for
+ *  Python.
+ *
+ *  Copyright (C) 2012-2013  Benjamin J. Fowler.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package benfowler.toytown.lispy;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Loops written as tail recursion must run in constant Java stack, under
+ * every engine.
+ */
+@RunWith(Parameterized.class)
+public class TestTailCalls {
+
+	private static final int ITERATIONS = 1000000;
+
+    @Parameters(name="engine={0}")
+    public static Collection<Object[]> data() {
+    	return Arrays.asList(new Object[][] {
+    			{ Engine.TREE_WALKER }, { Engine.CLOSURE_COMPILER } });
+    }
+
+    private final Engine engine;
+
+    private Engine previousEngine;
+
+    private Environment env;
+
+    public TestTailCalls(final Engine engine) {
+    	this.engine = engine;
+    }
+
+    @Before
+	public void setup() {
+    	previousEngine = Interpreter.getEngine();
+    	Interpreter.setEngine(engine);
+    	env = Interpreter.getGlobalEnvironment();
+	}
+
+    @After
+    public void tearDown() {
+    	Interpreter.setEngine(previousEngine);
+    }
+
+    @Test
+	public void testTailRecursiveLoop() throws LispException {
+    	eval("(define loop (lambda (n acc) " +
+    			"(if (<= n 0) acc (loop (- n 1) (+ acc 1)))))");
+    	assertEquals((long) ITERATIONS,
+    			eval("(loop " + ITERATIONS + " 0)"));
+    }
+
+    @Test
+	public void testMutualRecursionThroughBegin() throws LispException {
+    	eval("(define even (lambda (n) (if (<= n 0) #t (begin " +
+    			"(define m (- n 1)) (odd m)))))");
+    	eval("(define odd (lambda (n) (if (<= n 0) #f (even (- n 1)))))");
+    	assertEquals(Boolean.TRUE, eval("(even " + ITERATIONS + ")"));
+    }
+
+    private Object eval(final String program) {
+    	return Interpreter.eval(Interpreter.read(program), env);
+    }
+
+}